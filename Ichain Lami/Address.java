@@ -0,0 +1,177 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical wallet address: a public key with its X.509 encoding and the
+ * SHA-256 digest of that encoding computed once
+ * Addresses are interned, so there is at most one live instance per key and
+ * two addresses are equal only if they are the same object. Hashing, signing
+ * and storage use the cached digest and encoding instead of re-encoding the key.
+ * The intern tables hold addresses weakly: once nothing references an
+ * address (e.g. a key decoded from an RPC request) it is collected and its
+ * entries are dropped, so the tables never outgrow the addresses in use.
+ */
+public final class Address {
+
+    // Interned addresses, by digest and by encoding
+    private static final ConcurrentHashMap<Hash256, Interned> byDigest = new ConcurrentHashMap<Hash256, Interned>();
+    private static final ConcurrentHashMap<ByteBuffer, Interned> byEncoding = new ConcurrentHashMap<ByteBuffer, Interned>();
+
+    // Entries whose address was collected, dropped on the next intern
+    private static final ReferenceQueue<Address> collected = new ReferenceQueue<Address>();
+
+    // Key and its cached forms
+    private final PublicKey key;
+    private final byte[] encoded;
+    private final Hash256 digest;
+    private final String text;
+
+    private Address(PublicKey key, byte[] encoded, Hash256 digest) {
+        this.key = key;
+        this.encoded = encoded;
+        this.digest = digest;
+        this.text = Base64.getEncoder().encodeToString(encoded);
+    }
+
+    /**
+     * Returns the address of a public key
+     *
+     * @param key Public key
+     * @return Interned address
+     */
+    public static Address of(PublicKey key) {
+        byte[] encoded = key.getEncoded();
+        Address address = live(byEncoding.get(ByteBuffer.wrap(encoded)));
+        return (address != null) ? address : intern(key, encoded);
+    }
+
+    /**
+     * Returns the address for an X.509-encoded key, parsing the key only the
+     * first time the encoding is seen
+     *
+     * @param encoded Encoded key bytes
+     * @return Interned address
+     */
+    public static Address fromEncoded(byte[] encoded) {
+        Address address = live(byEncoding.get(ByteBuffer.wrap(encoded)));
+        if (address != null) {
+            return address;
+        }
+        try {
+            PublicKey key = KeyFactory.getInstance("ECDSA", "BC").generatePublic(new X509EncodedKeySpec(encoded));
+            return intern(key, encoded.clone());
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to decode public key", e);
+        }
+    }
+
+    /**
+     * Looks up an address that is still in use by its digest
+     *
+     * @param digest Key digest from getDigest()
+     * @return Address, or null if no live address has that digest
+     */
+    public static Address forDigest(Hash256 digest) {
+        return live(byDigest.get(digest));
+    }
+
+    private static Address intern(PublicKey key, byte[] encoded) {
+        expunge();
+        Address address = new Address(key, encoded, StringUtil.applySha256(encoded));
+        Interned entry = new Interned(address);
+        while (true) {
+            Interned existing = byDigest.putIfAbsent(address.digest, entry);
+            if (existing != null) {
+                Address current = existing.get();
+                if (current != null) {
+                    return current;
+                }
+                if (!byDigest.replace(address.digest, existing, entry)) {
+                    continue; // Raced with another thread interning the same key
+                }
+            }
+            byEncoding.put(entry.encoding, entry);
+            return address;
+        }
+    }
+
+    private static Address live(Interned entry) {
+        return (entry != null) ? entry.get() : null;
+    }
+
+    /**
+     * Drops the table entries of collected addresses
+     */
+    private static void expunge() {
+        Interned entry;
+        while ((entry = (Interned) collected.poll()) != null) {
+            byDigest.remove(entry.digest, entry);
+            byEncoding.remove(entry.encoding, entry);
+        }
+    }
+
+    /**
+     * @return Public key used to verify this address's signatures
+     */
+    public PublicKey getKey() {
+        return key;
+    }
+
+    /**
+     * @return SHA-256 of the X.509 encoding
+     */
+    public Hash256 getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return Length of the X.509 encoding in bytes
+     */
+    public int getEncodedLength() {
+        return encoded.length;
+    }
+
+    /**
+     * @return Copy of the X.509 encoding
+     */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    /**
+     * Writes the X.509 encoding at the buffer's position
+     *
+     * @param out Destination buffer
+     */
+    public void writeEncoded(ByteBuffer out) {
+        out.put(encoded);
+    }
+
+    /**
+     * @return Base64 of the X.509 encoding (same text as StringUtil.getStringFromKey)
+     */
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * Weak intern table entry, remembering its keys for removal
+     */
+    private static final class Interned extends WeakReference<Address> {
+        final Hash256 digest;
+        final ByteBuffer encoding;
+
+        Interned(Address address) {
+            super(address, collected);
+            this.digest = address.digest;
+            this.encoding = ByteBuffer.wrap(address.encoded);
+        }
+    }
+}
\ No newline at end of file
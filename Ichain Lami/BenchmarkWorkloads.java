@@ -0,0 +1,193 @@
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import bench.Workloads;
+
+/**
+ * Fixtures of the JMH suite in bench.ChainBenchmarks
+ * Each method prepares its data outside the measurement and returns the
+ * operation to time. Logging is limited to errors so "Block Mined" lines do
+ * not end up in the benchmark output.
+ */
+public class BenchmarkWorkloads implements Workloads {
+
+    public BenchmarkWorkloads() {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        EventLog.setLevel(EventLog.Level.ERROR);
+    }
+
+    // Hashing and signatures
+
+    public Operation sha256Hex() {
+        final String header = header();
+        return () -> StringUtil.turnIntoUnrecognizableGibberish(header);
+    }
+
+    public Operation sha256Bytes() {
+        final byte[] bytes = header().getBytes(StandardCharsets.UTF_8);
+        return () -> StringUtil.applySha256(bytes);
+    }
+
+    /**
+     * @return Block-header-sized input: two hashes, a timestamp and a nonce
+     */
+    private static String header() {
+        return Hash256.ZERO.toString() + System.currentTimeMillis() + 123456 + Hash256.ZERO.toString();
+    }
+
+    public Operation ecdsaSign() {
+        final Wallet wallet = new Wallet();
+        final byte[] data = new Transaction(wallet.address, new Wallet().address, 5f, null).getSigningData();
+        return () -> StringUtil.applyECDSASig(wallet.privateKey, data);
+    }
+
+    public Operation ecdsaVerify() {
+        Wallet wallet = new Wallet();
+        final Address address = wallet.address;
+        final byte[] data = new Transaction(address, new Wallet().address, 5f, null).getSigningData();
+        final byte[] signature = StringUtil.applyECDSASig(wallet.privateKey, data);
+        return () -> StringUtil.verifyECDSASig(address.getKey(), data, signature);
+    }
+
+    public Operation keyGeneration(boolean reuseGenerator) {
+        if (reuseGenerator) {
+            return () -> WalletFactory.generateKeyPair();
+        }
+        // A generator created per key, as the original Wallet constructor did
+        return () -> {
+            try {
+                KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
+                keyGen.initialize(new ECGenParameterSpec("prime192v1"), SecureRandom.getInstance("SHA1PRNG"));
+                return keyGen.generateKeyPair();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+
+    // Blocks
+
+    public Operation merkleRoot(int count) {
+        Address address = new Wallet().address;
+        final ArrayList<Transaction> transactions = new ArrayList<Transaction>(count);
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = new Transaction(address, address, i, null);
+            transaction.transactionId = StringUtil.applySha256("tx" + i);
+            transactions.add(transaction);
+        }
+        return () -> StringUtil.getMerkleRoot(transactions);
+    }
+
+    public Operation mineBlock(final int difficulty) {
+        final Random random = new Random(1);
+        return () -> {
+            Stina block = new Stina(Hash256.fromWords(random.nextLong(), random.nextLong(), 0, 0));
+            block.mineBlock(difficulty);
+            return block.hash;
+        };
+    }
+
+    // Chain state
+
+    public Operation balance(int size) {
+        Wallet[] owners = ChainHarness.wallets(100);
+        final ChainState chain = new ChainState();
+        ArrayList<TransactionOutput> created = new ArrayList<TransactionOutput>(size);
+        for (int i = 0; i < size; i++) {
+            created.add(new TransactionOutput(owners[i % owners.length].address, 1 + i % 50,
+                    StringUtil.applySha256("utxo" + i), 0));
+        }
+        ReentrantLock lock = chain.getWriteLock();
+        lock.lock();
+        try {
+            chain.applyChanges(new ArrayList<TransactionOutput>(), created);
+        } finally {
+            lock.unlock();
+        }
+
+        final Wallet wallet = owners[0];
+        return new Operation() {
+            public Object run() {
+                return wallet.getBalance(chain);
+            }
+
+            public void close() {
+                chain.shutdown();
+            }
+        };
+    }
+
+    public Operation validateChain(int blocks) {
+        final ChainState chain = ValidationBenchmark.buildChain(blocks, 1, 8);
+        final int cores = Runtime.getRuntime().availableProcessors();
+        return new Operation() {
+            public Object run() {
+                ChainValidator validator = new ChainValidator(cores);
+                try {
+                    if (!validator.validate(chain.getBlocks(), chain.getGenesisTransaction(), chain.getDifficulty(),
+                            chain.getUTXOs().createEmpty())) {
+                        throw new IllegalStateException("Synthetic chain failed validation");
+                    }
+                    return validator;
+                } finally {
+                    validator.shutdown();
+                }
+            }
+
+            public void close() {
+                chain.shutdown();
+            }
+        };
+    }
+
+    public Operation auditChain(int blocks) {
+        final ChainState chain = ValidationBenchmark.buildChain(blocks, 1, 8);
+        return new Operation() {
+            public Object run() {
+                return chain.auditChain();
+            }
+
+            public void close() {
+                chain.shutdown();
+            }
+        };
+    }
+
+    public Operation findTransaction(int blocks, final boolean indexed) {
+        final ChainState chain = ValidationBenchmark.buildChain(blocks, 1, 8);
+        final Random random = new Random(7);
+        return new Operation() {
+            public Object run() {
+                Hash256 id = randomTransaction(chain, random);
+                if (indexed) {
+                    return chain.index.locate(id).height;
+                }
+                List<Stina> chainBlocks = chain.getBlocks();
+                for (int height = 0; height < chainBlocks.size(); height++) {
+                    for (Transaction transaction : chainBlocks.get(height).transactions) {
+                        if (transaction.transactionId.equals(id)) {
+                            return height;
+                        }
+                    }
+                }
+                throw new IllegalStateException("Transaction not found");
+            }
+
+            public void close() {
+                chain.shutdown();
+            }
+        };
+    }
+
+    private static Hash256 randomTransaction(ChainState chain, Random random) {
+        Stina block = chain.getBlock(random.nextInt(chain.size()));
+        return block.transactions.get(random.nextInt(block.transactions.size())).transactionId;
+    }
+}
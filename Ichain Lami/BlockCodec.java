@@ -0,0 +1,608 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Versioned binary codec for blocks, transactions, inputs and outputs
+ * Uses unsigned LEB128 varints for counts, lengths and timestamps, raw
+ * 32-byte hashes, raw X.509-encoded keys and fixed-point amounts, and reads
+ * and writes ByteBuffers directly without intermediate Strings.
+ * A JSON mode (Gson) is kept for debugging only.
+ */
+public class BlockCodec {
+
+    // Current format version, written as the first byte of every block
+    public static final int VERSION = 2; // 2: binary signing and id payloads
+
+    // Fixed-point scale for amounts (1e-8 units)
+    private static final double AMOUNT_SCALE = 100_000_000.0;
+
+    // Merkle root encodings
+    private static final int ROOT_NULL = 0;
+    private static final int ROOT_EMPTY = 1;
+    private static final int ROOT_HASH = 2;
+    private static final int ROOT_TEXT = 3;
+
+    // Transaction flags
+    private static final int TX_HAS_ID = 1;
+    private static final int TX_HAS_SIGNATURE = 2;
+
+    // Input flags
+    private static final int INPUT_HAS_UTXO = 1;
+    private static final int INPUT_FOREIGN_OWNER = 2;
+
+    // Output flags: owner is the tx recipient, the tx sender or an explicit key
+    private static final int OUTPUT_TO_RECIPIENT = 0;
+    private static final int OUTPUT_TO_SENDER = 1;
+    private static final int OUTPUT_TO_KEY = 2;
+    private static final int OUTPUT_OWNER_MASK = 3;
+    private static final int OUTPUT_FOREIGN_PARENT = 4;
+
+    // Debug JSON
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Encodes a block into a new byte array
+     *
+     * @param block Block to encode
+     * @return Encoded block
+     */
+    public static byte[] toBytes(Stina block) {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(block));
+        encode(block, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Computes the exact encoded size of a block
+     *
+     * @param block Block to measure
+     * @return Number of bytes encode() will write
+     */
+    public static int sizeOf(Stina block) {
+        int size = 1 + Hash256.BYTES * 2;
+        size += varLongSize(block.getTimeStamp()) + varLongSize(zigZag(block.getNonce()));
+        size += 1 + merkleRootSize(block.merkleRoot);
+        size += varLongSize(block.transactions.size());
+        for (Transaction transaction : block.transactions) {
+            size += sizeOf(transaction);
+        }
+        return size;
+    }
+
+    /**
+     * Writes a block at the buffer's position
+     *
+     * @param block Block to encode
+     * @param out   Destination with at least sizeOf(block) bytes remaining
+     */
+    public static void encode(Stina block, ByteBuffer out) {
+        out.put((byte) VERSION);
+        putHash(out, block.hash);
+        putHash(out, block.prevHash);
+        putVarLong(out, block.getTimeStamp());
+        putVarLong(out, zigZag(block.getNonce()));
+        putMerkleRoot(out, block.merkleRoot);
+        putVarLong(out, block.transactions.size());
+        for (Transaction transaction : block.transactions) {
+            encode(transaction, out);
+        }
+    }
+
+    /**
+     * Reads a block from the buffer's position
+     *
+     * @param in Source buffer
+     * @return Decoded block
+     */
+    public static Stina decode(ByteBuffer in) {
+        int version = in.get() & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported block format version " + version);
+        }
+        Hash256 hash = getHash(in);
+        Hash256 prevHash = getHash(in);
+        long timeStamp = getVarLong(in);
+        int nonce = (int) unZigZag(getVarLong(in));
+        String merkleRoot = getMerkleRoot(in);
+        int count = getCount(in);
+        ArrayList<Transaction> transactions = new ArrayList<Transaction>(count);
+        for (int i = 0; i < count; i++) {
+            transactions.add(decodeTransaction(in));
+        }
+        return new Stina(hash, prevHash, timeStamp, nonce, merkleRoot, transactions);
+    }
+
+    /**
+     * Computes the exact encoded size of a transaction
+     *
+     * @param transaction Transaction to measure
+     * @return Number of bytes encode() will write
+     */
+    public static int sizeOf(Transaction transaction) {
+        int size = 1;
+        if (transaction.transactionId != null) {
+            size += Hash256.BYTES;
+        }
+        size += keySize(transaction.sender) + keySize(transaction.recipient);
+        size += amountSize(transaction.value);
+        if (transaction.signature != null) {
+            size += varLongSize(transaction.signature.length) + transaction.signature.length;
+        }
+        size += varLongSize(transaction.inputs.size());
+        for (TransactionInput input : transaction.inputs) {
+            size += 1 + Hash256.BYTES;
+            if (input.UTXO != null) {
+                size += amountSize(input.UTXO.value) + Hash256.BYTES;
+                if (input.UTXO.recipient != transaction.sender) {
+                    size += keySize(input.UTXO.recipient);
+                }
+            }
+        }
+        size += varLongSize(transaction.outputs.size());
+        for (TransactionOutput output : transaction.outputs) {
+            int flags = outputFlags(transaction, output);
+            size += 1 + Hash256.BYTES + amountSize(output.value);
+            if ((flags & OUTPUT_OWNER_MASK) == OUTPUT_TO_KEY) {
+                size += keySize(output.recipient);
+            }
+            if ((flags & OUTPUT_FOREIGN_PARENT) != 0) {
+                size += Hash256.BYTES;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes a transaction at the buffer's position
+     *
+     * @param transaction Transaction to encode
+     * @param out         Destination with enough space remaining
+     */
+    public static void encode(Transaction transaction, ByteBuffer out) {
+        int flags = (transaction.transactionId != null ? TX_HAS_ID : 0)
+                | (transaction.signature != null ? TX_HAS_SIGNATURE : 0);
+        out.put((byte) flags);
+        if (transaction.transactionId != null) {
+            putHash(out, transaction.transactionId);
+        }
+        putKey(out, transaction.sender);
+        putKey(out, transaction.recipient);
+        putAmount(out, transaction.value);
+        if (transaction.signature != null) {
+            putVarLong(out, transaction.signature.length);
+            out.put(transaction.signature);
+        }
+
+        putVarLong(out, transaction.inputs.size());
+        for (TransactionInput input : transaction.inputs) {
+            TransactionOutput utxo = input.UTXO;
+            int inputFlags = 0;
+            if (utxo != null) {
+                inputFlags |= INPUT_HAS_UTXO;
+                if (utxo.recipient != transaction.sender) {
+                    inputFlags |= INPUT_FOREIGN_OWNER;
+                }
+            }
+            out.put((byte) inputFlags);
+            putHash(out, input.transactionOutputId);
+            if (utxo != null) {
+                putAmount(out, utxo.value);
+                putHash(out, utxo.parentTransactionId);
+                if ((inputFlags & INPUT_FOREIGN_OWNER) != 0) {
+                    putKey(out, utxo.recipient);
+                }
+            }
+        }
+
+        putVarLong(out, transaction.outputs.size());
+        for (TransactionOutput output : transaction.outputs) {
+            int outputFlags = outputFlags(transaction, output);
+            out.put((byte) outputFlags);
+            putHash(out, output.id);
+            putAmount(out, output.value);
+            if ((outputFlags & OUTPUT_OWNER_MASK) == OUTPUT_TO_KEY) {
+                putKey(out, output.recipient);
+            }
+            if ((outputFlags & OUTPUT_FOREIGN_PARENT) != 0) {
+                putHash(out, output.parentTransactionId);
+            }
+        }
+    }
+
+    /**
+     * Reads a transaction from the buffer's position
+     *
+     * @param in Source buffer
+     * @return Decoded transaction
+     */
+    public static Transaction decodeTransaction(ByteBuffer in) {
+        int flags = in.get() & 0xff;
+        Hash256 transactionId = ((flags & TX_HAS_ID) != 0) ? getHash(in) : null;
+        Address sender = getKey(in);
+        Address recipient = getKey(in);
+        float value = getAmount(in);
+        byte[] signature = null;
+        if ((flags & TX_HAS_SIGNATURE) != 0) {
+            signature = new byte[getCount(in)];
+            in.get(signature);
+        }
+
+        int inputCount = getCount(in);
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>(inputCount);
+        for (int i = 0; i < inputCount; i++) {
+            int inputFlags = in.get() & 0xff;
+            TransactionInput input = new TransactionInput(getHash(in));
+            if ((inputFlags & INPUT_HAS_UTXO) != 0) {
+                float utxoValue = getAmount(in);
+                Hash256 parent = getHash(in);
+                Address owner = ((inputFlags & INPUT_FOREIGN_OWNER) != 0) ? getKey(in) : sender;
+                input.UTXO = new TransactionOutput(input.transactionOutputId, owner, utxoValue, parent);
+            }
+            inputs.add(input);
+        }
+
+        Transaction transaction = new Transaction(sender, recipient, value, inputs);
+        transaction.transactionId = transactionId;
+        transaction.signature = signature;
+
+        int outputCount = getCount(in);
+        for (int i = 0; i < outputCount; i++) {
+            int outputFlags = in.get() & 0xff;
+            Hash256 id = getHash(in);
+            float outputValue = getAmount(in);
+            Address owner;
+            switch (outputFlags & OUTPUT_OWNER_MASK) {
+                case OUTPUT_TO_RECIPIENT:
+                    owner = recipient;
+                    break;
+                case OUTPUT_TO_SENDER:
+                    owner = sender;
+                    break;
+                default:
+                    owner = getKey(in);
+            }
+            Hash256 parent = ((outputFlags & OUTPUT_FOREIGN_PARENT) != 0) ? getHash(in) : transactionId;
+            transaction.outputs.add(new TransactionOutput(id, owner, outputValue, parent));
+        }
+        return transaction;
+    }
+
+    /**
+     * Encodes a transaction into a new byte array
+     *
+     * @param transaction Transaction to encode
+     * @return Encoded transaction
+     */
+    public static byte[] toBytes(Transaction transaction) {
+        ByteBuffer buffer = ByteBuffer.allocate(sizeOf(transaction));
+        encode(transaction, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Formats a block as JSON for debugging
+     *
+     * @param block Block to format
+     * @return Pretty-printed JSON
+     */
+    public static String toJson(Stina block) {
+        return gson.toJson(toJsonTree(block));
+    }
+
+    /**
+     * Parses a block from the JSON produced by toJson()
+     *
+     * @param json Block JSON
+     * @return Decoded block
+     */
+    public static Stina fromJson(String json) {
+        JsonObject object = gson.fromJson(json, JsonObject.class);
+        ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+        for (JsonElement element : object.getAsJsonArray("transactions")) {
+            transactions.add(transactionFromJson(element.getAsJsonObject()));
+        }
+        JsonElement merkleRoot = object.get("merkleRoot");
+        return new Stina(
+                Hash256.fromHex(object.get("hash").getAsString()),
+                Hash256.fromHex(object.get("prevHash").getAsString()),
+                object.get("timeStamp").getAsLong(),
+                object.get("nonce").getAsInt(),
+                (merkleRoot == null || merkleRoot.isJsonNull()) ? null : merkleRoot.getAsString(),
+                transactions);
+    }
+
+    /**
+     * Builds the JSON tree for a block
+     *
+     * @param block Block to format
+     * @return JSON object
+     */
+    public static JsonObject toJsonTree(Stina block) {
+        JsonObject object = new JsonObject();
+        object.addProperty("version", VERSION);
+        object.addProperty("hash", block.hash.toString());
+        object.addProperty("prevHash", block.prevHash.toString());
+        object.addProperty("timeStamp", block.getTimeStamp());
+        object.addProperty("nonce", block.getNonce());
+        object.addProperty("merkleRoot", block.merkleRoot);
+        JsonArray transactions = new JsonArray();
+        for (Transaction transaction : block.transactions) {
+            transactions.add(toJsonTree(transaction));
+        }
+        object.add("transactions", transactions);
+        return object;
+    }
+
+    /**
+     * Builds the JSON tree for a transaction
+     *
+     * @param transaction Transaction to format
+     * @return JSON object
+     */
+    public static JsonObject toJsonTree(Transaction transaction) {
+        Base64.Encoder base64 = Base64.getEncoder();
+        JsonObject object = new JsonObject();
+        if (transaction.transactionId != null) {
+            object.addProperty("transactionId", transaction.transactionId.toString());
+        }
+        object.addProperty("sender", transaction.sender.toString());
+        object.addProperty("recipient", transaction.recipient.toString());
+        object.addProperty("value", transaction.value);
+        if (transaction.signature != null) {
+            object.addProperty("signature", base64.encodeToString(transaction.signature));
+        }
+        JsonArray inputs = new JsonArray();
+        for (TransactionInput input : transaction.inputs) {
+            JsonObject in = new JsonObject();
+            in.addProperty("transactionOutputId", input.transactionOutputId.toString());
+            if (input.UTXO != null) {
+                in.add("UTXO", toJsonTree(input.UTXO));
+            }
+            inputs.add(in);
+        }
+        object.add("inputs", inputs);
+        JsonArray outputs = new JsonArray();
+        for (TransactionOutput output : transaction.outputs) {
+            outputs.add(toJsonTree(output));
+        }
+        object.add("outputs", outputs);
+        return object;
+    }
+
+    private static JsonObject toJsonTree(TransactionOutput output) {
+        JsonObject object = new JsonObject();
+        object.addProperty("id", output.id.toString());
+        object.addProperty("recipient", output.recipient.toString());
+        object.addProperty("value", output.value);
+        object.addProperty("parentTransactionId", output.parentTransactionId.toString());
+        return object;
+    }
+
+    /**
+     * Parses a transaction from its JSON tree
+     *
+     * @param object JSON object produced by toJsonTree()
+     * @return Decoded transaction
+     */
+    public static Transaction transactionFromJson(JsonObject object) {
+        Base64.Decoder base64 = Base64.getDecoder();
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        for (JsonElement element : object.getAsJsonArray("inputs")) {
+            JsonObject in = element.getAsJsonObject();
+            TransactionInput input = new TransactionInput(Hash256.fromHex(in.get("transactionOutputId").getAsString()));
+            if (in.has("UTXO")) {
+                input.UTXO = outputFromJson(in.getAsJsonObject("UTXO"));
+            }
+            inputs.add(input);
+        }
+        Transaction transaction = new Transaction(
+                Address.fromEncoded(base64.decode(object.get("sender").getAsString())),
+                Address.fromEncoded(base64.decode(object.get("recipient").getAsString())),
+                object.get("value").getAsFloat(),
+                inputs);
+        if (object.has("transactionId")) {
+            transaction.transactionId = Hash256.fromHex(object.get("transactionId").getAsString());
+        }
+        if (object.has("signature")) {
+            transaction.signature = base64.decode(object.get("signature").getAsString());
+        }
+        for (JsonElement element : object.getAsJsonArray("outputs")) {
+            transaction.outputs.add(outputFromJson(element.getAsJsonObject()));
+        }
+        return transaction;
+    }
+
+    private static TransactionOutput outputFromJson(JsonObject object) {
+        return new TransactionOutput(
+                Hash256.fromHex(object.get("id").getAsString()),
+                Address.fromEncoded(Base64.getDecoder().decode(object.get("recipient").getAsString())),
+                object.get("value").getAsFloat(),
+                Hash256.fromHex(object.get("parentTransactionId").getAsString()));
+    }
+
+    private static int outputFlags(Transaction transaction, TransactionOutput output) {
+        int flags;
+        if (output.recipient == transaction.recipient) {
+            flags = OUTPUT_TO_RECIPIENT;
+        } else if (output.recipient == transaction.sender) {
+            flags = OUTPUT_TO_SENDER;
+        } else {
+            flags = OUTPUT_TO_KEY;
+        }
+        if (transaction.transactionId == null || !transaction.transactionId.equals(output.parentTransactionId)) {
+            flags |= OUTPUT_FOREIGN_PARENT;
+        }
+        return flags;
+    }
+
+    private static void putHash(ByteBuffer out, Hash256 hash) {
+        for (int i = 0; i < 4; i++) {
+            out.putLong(hash.word(i));
+        }
+    }
+
+    private static Hash256 getHash(ByteBuffer in) {
+        return Hash256.fromWords(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    private static int keySize(Address key) {
+        int length = key.getEncodedLength();
+        return varLongSize(length) + length;
+    }
+
+    private static void putKey(ByteBuffer out, Address key) {
+        putVarLong(out, key.getEncodedLength());
+        key.writeEncoded(out);
+    }
+
+    private static Address getKey(ByteBuffer in) {
+        byte[] encoded = new byte[getCount(in)];
+        in.get(encoded);
+        return Address.fromEncoded(encoded);
+    }
+
+    /**
+     * Amounts are stored as 1e-8 fixed-point units shifted left by one. Floats
+     * that would not survive the round trip exactly (values far below 0.1) are
+     * stored as raw float bits with the low bit set, so ids and signatures that
+     * hash Float.toString(value) still verify after decoding.
+     */
+    private static long amountBits(float value) {
+        if (value >= 0) {
+            long units = Math.round(value * AMOUNT_SCALE);
+            if (units < (1L << 62) && (float) (units / AMOUNT_SCALE) == value) {
+                return units << 1;
+            }
+        }
+        return ((Float.floatToIntBits(value) & 0xffffffffL) << 1) | 1;
+    }
+
+    private static int amountSize(float value) {
+        return varLongSize(amountBits(value));
+    }
+
+    private static void putAmount(ByteBuffer out, float value) {
+        putVarLong(out, amountBits(value));
+    }
+
+    private static float getAmount(ByteBuffer in) {
+        long bits = getVarLong(in);
+        if ((bits & 1) != 0) {
+            return Float.intBitsToFloat((int) (bits >>> 1));
+        }
+        return (float) ((bits >>> 1) / AMOUNT_SCALE);
+    }
+
+    private static int merkleRootSize(String merkleRoot) {
+        switch (merkleRootKind(merkleRoot)) {
+            case ROOT_HASH:
+                return Hash256.BYTES;
+            case ROOT_TEXT:
+                int length = merkleRoot.getBytes(StandardCharsets.UTF_8).length;
+                return varLongSize(length) + length;
+            default:
+                return 0;
+        }
+    }
+
+    private static int merkleRootKind(String merkleRoot) {
+        if (merkleRoot == null) {
+            return ROOT_NULL;
+        }
+        if (merkleRoot.isEmpty()) {
+            return ROOT_EMPTY;
+        }
+        if (merkleRoot.length() == Hash256.BYTES * 2 && merkleRoot.equals(merkleRoot.toLowerCase())) {
+            try {
+                Hash256.fromHex(merkleRoot);
+                return ROOT_HASH;
+            } catch (IllegalArgumentException e) {
+                return ROOT_TEXT;
+            }
+        }
+        return ROOT_TEXT;
+    }
+
+    private static void putMerkleRoot(ByteBuffer out, String merkleRoot) {
+        int kind = merkleRootKind(merkleRoot);
+        out.put((byte) kind);
+        if (kind == ROOT_HASH) {
+            putHash(out, Hash256.fromHex(merkleRoot));
+        } else if (kind == ROOT_TEXT) {
+            byte[] text = merkleRoot.getBytes(StandardCharsets.UTF_8);
+            putVarLong(out, text.length);
+            out.put(text);
+        }
+    }
+
+    private static String getMerkleRoot(ByteBuffer in) {
+        int kind = in.get() & 0xff;
+        switch (kind) {
+            case ROOT_NULL:
+                return null;
+            case ROOT_EMPTY:
+                return "";
+            case ROOT_HASH:
+                return getHash(in).toString();
+            case ROOT_TEXT:
+                byte[] text = new byte[getCount(in)];
+                in.get(text);
+                return new String(text, StandardCharsets.UTF_8);
+            default:
+                throw new IllegalArgumentException("Unknown merkle root encoding " + kind);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int getCount(ByteBuffer in) {
+        long count = getVarLong(in);
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + count);
+        }
+        return (int) count;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Byte-level block hashing for the proof-of-work loop
+ * Produces exactly the same digest as Stina.calculateHash() without
+ * building Strings: the constant prefix (prevHash + timeStamp) is digested
+ * once and cloned for each nonce, the nonce digits are written in place into
+ * a reusable buffer, and the merkle root bytes are appended unchanged.
+ * Not thread-safe - each mining thread uses its own instance.
+ */
+public class BlockHeaderHasher {
+
+    // Digest state after absorbing prevHash + timeStamp
+    private final MessageDigest prefix;
+
+    // Bytes hashed after the nonce
+    private final byte[] suffix;
+
+    // Reusable buffers for the nonce digits and the resulting hash
+    private final byte[] nonceDigits = new byte[11]; // Fits "-2147483648"
+    private final byte[] hash = new byte[32];
+
+    /**
+     * Constructor - digests the constant header prefix once
+     *
+     * @param prevHash   Previous block's hash
+     * @param timeStamp  Block timestamp
+     * @param merkleRoot Merkle root of the block's transactions
+     */
+    public BlockHeaderHasher(Hash256 prevHash, long timeStamp, String merkleRoot) {
+        try {
+            prefix = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to generate SHA-256 hash", e);
+        }
+        // Same text as Stina.calculateHash(), including "null" for unset fields
+        prefix.update((Stina.parentText(prevHash) + Long.toString(timeStamp)).getBytes(StandardCharsets.UTF_8));
+        suffix = String.valueOf(merkleRoot).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hashes the header for the given nonce
+     *
+     * @param nonce Proof-of-work counter
+     * @return Raw SHA-256 digest (reused buffer, overwritten by the next call)
+     */
+    public byte[] hash(int nonce) {
+        try {
+            MessageDigest digest = (MessageDigest) prefix.clone();
+            int start = writeDigits(nonce);
+            digest.update(nonceDigits, start, nonceDigits.length - start);
+            digest.update(suffix);
+            digest.digest(hash, 0, hash.length);
+            return hash;
+        } catch (CloneNotSupportedException | DigestException e) {
+            throw new RuntimeException("Failed to generate SHA-256 hash", e);
+        }
+    }
+
+    /**
+     * Checks whether the given raw hash meets the difficulty target
+     * A difficulty of d hex zeros is 4 * d leading zero bits.
+     *
+     * @param hash       Raw SHA-256 digest
+     * @param difficulty Number of leading hex zeros required
+     * @return true if the hash meets the target
+     */
+    public static boolean meetsDifficulty(byte[] hash, int difficulty) {
+        return StringUtil.leadingZeroBits(hash) >= difficulty * 4;
+    }
+
+    /**
+     * Writes the decimal digits of the nonce right-aligned into nonceDigits
+     *
+     * @param nonce Value to write
+     * @return Index of the first written byte
+     */
+    private int writeDigits(int nonce) {
+        int pos = nonceDigits.length;
+        // Work with negative values so Integer.MIN_VALUE needs no special case
+        int value = nonce < 0 ? nonce : -nonce;
+        do {
+            nonceDigits[--pos] = (byte) ('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+        if (nonce < 0) {
+            nonceDigits[--pos] = '-';
+        }
+        return pos;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,459 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only block storage
+ * Blocks are appended to segment files as [length][crc32][payload] records.
+ * A fixed-width index file maps height -> (segment, offset) and is used to
+ * rebuild the hash -> height map on open. Reads go through memory-mapped
+ * segments. Appends are fsynced in batches of syncEvery blocks, on flush()
+ * and on close(); a torn tail left by a crash is detected by its CRC and
+ * truncated when the store is reopened.
+ */
+public class BlockStore implements Closeable {
+
+    // Record header: payload length + CRC32 of the payload
+    private static final int RECORD_HEADER = 8;
+
+    // Index entry: segment(4) + offset(8) + length(4) + block hash(32)
+    private static final int INDEX_ENTRY = 16 + Hash256.BYTES;
+
+    // Default segment roll-over size and fsync batch
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_SYNC_EVERY = 16;
+
+    // Storage location and tuning
+    private final Path directory;
+    private final long segmentBytes;
+    private final int syncEvery;
+
+    // Height -> record location
+    private int[] segments = new int[64];
+    private long[] offsets = new long[64];
+    private int count;
+
+    // Block hash -> height
+    private final HashMap<Hash256, Integer> heights = new HashMap<Hash256, Integer>();
+
+    // Write side: active segment, its size and the index file
+    private FileChannel activeChannel;
+    private int activeSegment;
+    private long activeSize;
+    private FileChannel indexChannel;
+    private int unsynced;
+
+    // Read side: one mapping per segment (remapped when the active segment grows)
+    private final ArrayList<MappedByteBuffer> mappings = new ArrayList<MappedByteBuffer>();
+
+    /**
+     * Opens (or creates) a block store with default settings
+     *
+     * @param directory Directory holding segments and index
+     */
+    public BlockStore(Path directory) {
+        this(directory, DEFAULT_SEGMENT_BYTES, DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * Opens (or creates) a block store
+     *
+     * @param directory    Directory holding segments and index
+     * @param segmentBytes Size after which a new segment is started
+     * @param syncEvery    Number of appends between fsyncs
+     */
+    public BlockStore(Path directory, long segmentBytes, int syncEvery) {
+        if (segmentBytes <= RECORD_HEADER || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must fit a single mapping: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncEvery = Math.max(1, syncEvery);
+        try {
+            Files.createDirectories(directory);
+            indexChannel = FileChannel.open(directory.resolve("blocks.idx"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            loadIndex();
+            recoverTail();
+            openSegment(activeSegment);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open block store in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a mined block
+     *
+     * @param block Block to store
+     * @return Height of the stored block
+     */
+    public synchronized int append(Stina block) {
+        // Encode straight into the record buffer behind its header
+        int length = BlockCodec.sizeOf(block);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+        record.position(RECORD_HEADER);
+        BlockCodec.encode(block, record);
+        record.putInt(0, length).putInt(4, crc(record.array(), RECORD_HEADER, length)).position(0);
+
+        try {
+            if (activeSize > 0 && activeSize + record.capacity() > segmentBytes) {
+                sync();
+                activeChannel.close();
+                openSegment(activeSegment + 1);
+            }
+
+            long offset = activeSize;
+            writeFully(activeChannel, record, offset);
+            activeSize += record.capacity();
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            entry.putInt(activeSegment).putLong(offset).putInt(length);
+            entry.put(block.hash.toBytes()).flip();
+            writeFully(indexChannel, entry, (long) count * INDEX_ENTRY);
+
+            int height = addToIndex(activeSegment, offset, block.hash);
+            if (++unsynced >= syncEvery) {
+                sync();
+            }
+            return height;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to append block " + block.hash, e);
+        }
+    }
+
+    /**
+     * Drops every block from a height on, e.g. when a chain reorganization
+     * disconnects them
+     * The index is cut (and synced) before the segments, so after a crash it
+     * never points past the records that are left.
+     *
+     * @param height Number of blocks to keep
+     */
+    public synchronized void truncate(int height) {
+        if (height < 0 || height > count) {
+            throw new IndexOutOfBoundsException("Cannot truncate " + count + " blocks to " + height);
+        }
+        if (height == count) {
+            return;
+        }
+        try {
+            while (count > height) {
+                heights.remove(lastHash());
+                count--;
+            }
+            indexChannel.truncate((long) count * INDEX_ENTRY);
+            indexChannel.force(true);
+
+            // Delete whole segments past the new tail, then cut the one it ends in
+            int segment = (count == 0) ? 0 : segments[count - 1];
+            long end = 0;
+            if (count > 0) {
+                end = offsets[count - 1] + RECORD_HEADER + read(segment, offsets[count - 1]).remaining();
+            }
+            activeChannel.close();
+            for (int s = activeSegment; s > segment; s--) {
+                Files.deleteIfExists(segmentPath(s));
+            }
+            for (int s = segment; s < mappings.size(); s++) {
+                mappings.set(s, null); // Mappings may cover dropped records
+            }
+            openSegment(segment);
+            activeChannel.truncate(end);
+            activeChannel.force(true);
+            activeSize = end;
+            unsynced = 0;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to truncate block store to height " + height, e);
+        }
+    }
+
+    /**
+     * Reads a block by height
+     *
+     * @param height Block height (0 = genesis)
+     * @return Decoded block
+     */
+    public Stina get(int height) {
+        ByteBuffer payload;
+        synchronized (this) {
+            if (height < 0 || height >= count) {
+                throw new IndexOutOfBoundsException("No block at height " + height);
+            }
+            payload = read(segments[height], offsets[height]);
+        }
+        return decode(payload); // Outside the lock, so blocks can be decoded in parallel
+    }
+
+    /**
+     * Reads a block by hash
+     *
+     * @param hash Block hash
+     * @return Decoded block, or null if unknown
+     */
+    public synchronized Stina get(Hash256 hash) {
+        Integer height = heights.get(hash);
+        return (height == null) ? null : get(height);
+    }
+
+    /**
+     * @param hash Block hash
+     * @return Height of the block, or -1 if unknown
+     */
+    public synchronized int getHeight(Hash256 hash) {
+        Integer height = heights.get(hash);
+        return (height == null) ? -1 : height;
+    }
+
+    /**
+     * @return Directory holding segments and index
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Number of stored blocks
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Decodes every block in height order straight from the mapped segments
+     *
+     * @param visitor Receives each block
+     */
+    public synchronized void forEach(Consumer<Stina> visitor) {
+        for (int height = 0; height < count; height++) {
+            visitor.accept(decode(read(segments[height], offsets[height])));
+        }
+    }
+
+    /**
+     * Forces all appended blocks and index entries to disk
+     */
+    public synchronized void flush() {
+        try {
+            sync();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to sync block store", e);
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            sync();
+            activeChannel.close();
+            indexChannel.close();
+            mappings.clear();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close block store", e);
+        }
+    }
+
+    /**
+     * Decodes a stored block straight from its (mapped) payload
+     */
+    private static Stina decode(ByteBuffer payload) {
+        return BlockCodec.decode(payload);
+    }
+
+    /**
+     * Returns a view of a record's payload in its mapped segment
+     */
+    private ByteBuffer read(int segment, long offset) {
+        MappedByteBuffer mapping = mapping(segment, offset + RECORD_HEADER);
+        int length = mapping.getInt((int) offset);
+        mapping = mapping(segment, offset + RECORD_HEADER + length);
+        ByteBuffer payload = mapping.duplicate();
+        payload.position((int) (offset + RECORD_HEADER)).limit((int) (offset + RECORD_HEADER + length));
+        return payload.slice();
+    }
+
+    /**
+     * Returns a mapping of the segment covering at least the first end bytes
+     */
+    private MappedByteBuffer mapping(int segment, long end) {
+        while (mappings.size() <= segment) {
+            mappings.add(null);
+        }
+        MappedByteBuffer mapping = mappings.get(segment);
+        if (mapping == null || mapping.capacity() < end) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ)) {
+                mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to map block segment " + segment, e);
+            }
+            mappings.set(segment, mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Loads the index file, dropping a torn trailing entry
+     */
+    private void loadIndex() throws IOException {
+        long entries = indexChannel.size() / INDEX_ENTRY;
+        indexChannel.truncate(entries * INDEX_ENTRY);
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+        byte[] hash = new byte[Hash256.BYTES];
+        for (long i = 0; i < entries; i++) {
+            entry.clear();
+            readFully(indexChannel, entry, i * INDEX_ENTRY);
+            entry.flip();
+            int segment = entry.getInt();
+            long offset = entry.getLong();
+            entry.getInt(); // Length is re-read from the record header
+            entry.get(hash);
+            addToIndex(segment, offset, Hash256.fromBytes(hash));
+        }
+        activeSegment = (count == 0) ? 0 : segments[count - 1];
+    }
+
+    /**
+     * Reconciles the index with the last segment after an unclean shutdown:
+     * indexed records that never reached disk are dropped, complete records
+     * that were not indexed yet are added, and a torn record is truncated.
+     */
+    private void recoverTail() throws IOException {
+        // A crash right after rolling over can leave a newer, unindexed segment
+        while (Files.exists(segmentPath(activeSegment))) {
+            recoverSegment(activeSegment);
+            if (!Files.exists(segmentPath(activeSegment + 1))) {
+                break;
+            }
+            activeSegment++;
+        }
+    }
+
+    /**
+     * Reconciles the index with one segment's tail
+     */
+    private void recoverSegment(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+
+            // Drop index entries whose records are incomplete or corrupt
+            while (count > 0 && segments[count - 1] == segment
+                    && recordEnd(channel, offsets[count - 1], size) < 0) {
+                heights.remove(lastHash());
+                count--;
+            }
+            indexChannel.truncate((long) count * INDEX_ENTRY);
+
+            // Index any complete records written after the last index entry
+            long position = (count > 0 && segments[count - 1] == segment)
+                    ? recordEnd(channel, offsets[count - 1], size) : 0;
+            long end;
+            while ((end = recordEnd(channel, position, size)) > 0) {
+                ByteBuffer payload = ByteBuffer.allocate((int) (end - position - RECORD_HEADER));
+                readFully(channel, payload, position + RECORD_HEADER);
+                payload.flip();
+                Stina block = decode(payload);
+
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+                entry.putInt(segment).putLong(position).putInt((int) (end - position - RECORD_HEADER));
+                entry.put(block.hash.toBytes()).flip();
+                writeFully(indexChannel, entry, (long) count * INDEX_ENTRY);
+                addToIndex(segment, position, block.hash);
+                position = end;
+            }
+            channel.truncate(position);
+            channel.force(true);
+            indexChannel.force(true);
+        }
+    }
+
+    /**
+     * Validates the record at an offset
+     *
+     * @return End offset of the record, or -1 if it is incomplete or corrupt
+     */
+    private static long recordEnd(FileChannel channel, long offset, long size) throws IOException {
+        if (offset + RECORD_HEADER > size) {
+            return -1;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        readFully(channel, header, offset);
+        header.flip();
+        int length = header.getInt();
+        int crc = header.getInt();
+        if (length < 0 || offset + RECORD_HEADER + length > size) {
+            return -1;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, offset + RECORD_HEADER);
+        return (crc(payload.array(), 0, length) == crc) ? offset + RECORD_HEADER + length : -1;
+    }
+
+    private int addToIndex(int segment, long offset, Hash256 hash) {
+        if (count == segments.length) {
+            segments = Arrays.copyOf(segments, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        segments[count] = segment;
+        offsets[count] = offset;
+        heights.put(hash, count);
+        return count++;
+    }
+
+    private Hash256 lastHash() throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(Hash256.BYTES);
+        readFully(indexChannel, entry, (long) (count - 1) * INDEX_ENTRY + 16);
+        return Hash256.fromBytes(entry.array());
+    }
+
+    private void openSegment(int segment) throws IOException {
+        activeSegment = segment;
+        activeChannel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = activeChannel.size();
+    }
+
+    private void sync() throws IOException {
+        if (unsynced == 0) {
+            return;
+        }
+        activeChannel.force(false); // Records first, so the index never points past them
+        indexChannel.force(false);
+        unsynced = 0;
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("blocks-%05d.seg", segment));
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+}
\ No newline at end of file
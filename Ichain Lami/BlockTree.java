@@ -0,0 +1,203 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Every block the node knows, linked to its parent, with the total work of
+ * the chain ending in it
+ * The active chain (ChainState's blocks) is one path through the tree; other
+ * leaves are competing branches. ChainState switches to a branch once it
+ * carries more work than the active tip: blocks are disconnected back to the
+ * fork point using their undo logs and the branch's blocks are connected, so
+ * a reorganization of depth d costs O(d) blocks whatever the chain length.
+ *
+ * Blocks do not record the target they were mined for, so a block's work is
+ * derived from the chain's difficulty when the block is added.
+ * Only the thread holding ChainState's write lock changes the tree; lookups
+ * may run concurrently from any thread.
+ */
+public class BlockTree {
+
+    /**
+     * One known block
+     */
+    public static class Node {
+        public final Stina block;
+        public final Node parent; // null for genesis
+        public final int height;
+        public final BigInteger chainWork; // Work of this block and all its ancestors
+
+        // UTXO changes of the block while it is on the active chain (null otherwise, Undo.PRUNED below the prune height)
+        volatile Undo undo;
+
+        Node(Stina block, Node parent, BigInteger work) {
+            this.block = block;
+            this.parent = parent;
+            this.height = (parent == null) ? 0 : parent.height + 1;
+            this.chainWork = (parent == null) ? work : parent.chainWork.add(work);
+        }
+
+        /**
+         * @return true if the block is on the active chain
+         */
+        public boolean isActive() {
+            return undo != null;
+        }
+    }
+
+    /**
+     * Net UTXO changes of one block: the outputs it spent that existed before
+     * it, and the outputs it created that are still unspent after it
+     * Disconnecting the block restores the first and removes the second.
+     */
+    public static class Undo {
+        /**
+         * Stands in for the undo log of an active block below the prune
+         * height, which can no longer be disconnected
+         */
+        public static final Undo PRUNED = new Undo(Collections.<TransactionOutput>emptyList(),
+                Collections.<TransactionOutput>emptyList());
+
+        public final List<TransactionOutput> spent;
+        public final List<TransactionOutput> created;
+
+        Undo(List<TransactionOutput> spent, List<TransactionOutput> created) {
+            this.spent = spent;
+            this.created = created;
+        }
+
+        /**
+         * Builds the undo log of a block whose inputs were resolved when its
+         * transactions were processed (TransactionInput.UTXO is set)
+         *
+         * @param block Block on the active chain
+         * @return Its net UTXO changes
+         */
+        static Undo of(Stina block) {
+            LinkedHashMap<Hash256, TransactionOutput> created = new LinkedHashMap<Hash256, TransactionOutput>();
+            ArrayList<TransactionOutput> spent = new ArrayList<TransactionOutput>();
+            for (Transaction transaction : block.transactions) {
+                for (TransactionInput input : transaction.inputs) {
+                    if (input.UTXO != null && created.remove(input.transactionOutputId) == null) {
+                        spent.add(input.UTXO);
+                    }
+                }
+                for (TransactionOutput output : transaction.outputs) {
+                    created.put(output.id, output);
+                }
+            }
+            return new Undo(spent, new ArrayList<TransactionOutput>(created.values()));
+        }
+    }
+
+    // Block hash -> node
+    private final ConcurrentHashMap<Hash256, Node> nodes = new ConcurrentHashMap<Hash256, Node>();
+
+    /**
+     * Returns the work of one block at a difficulty: the expected number of
+     * hashes to find it, 16^difficulty
+     *
+     * @param difficulty Number of leading hex zeros
+     * @return Block work
+     */
+    public static BigInteger getWork(int difficulty) {
+        return BigInteger.ONE.shiftLeft(4 * difficulty);
+    }
+
+    /**
+     * Finds the last block two branches have in common
+     *
+     * @param a Tip of one branch
+     * @param b Tip of the other
+     * @return Fork point, or null if the branches share no genesis
+     */
+    public static Node findFork(Node a, Node b) {
+        while (a != null && b != null && a != b) {
+            if (a.height >= b.height) {
+                a = a.parent;
+            } else {
+                b = b.parent;
+            }
+        }
+        return (a == b) ? a : null;
+    }
+
+    /**
+     * Adds a block below a known parent
+     *
+     * @param block      Block to add
+     * @param parent     Parent node (null for genesis)
+     * @param difficulty Difficulty the block was mined at
+     * @return New node
+     */
+    Node add(Stina block, Node parent, int difficulty) {
+        Node node = new Node(block, parent, getWork(difficulty));
+        nodes.put(block.hash, node);
+        return node;
+    }
+
+    /**
+     * Forgets a block that is not on the active chain and every block built
+     * on it, e.g. after its body failed validation
+     * The hash is not remembered as invalid: the header may be honest and
+     * only the body tampered with, so the block can be submitted again.
+     *
+     * @param node Block to forget
+     */
+    void remove(Node node) {
+        nodes.values().removeIf(other -> {
+            Node ancestor = other;
+            while (ancestor != null && ancestor.height > node.height) {
+                ancestor = ancestor.parent;
+            }
+            return ancestor == node;
+        });
+    }
+
+    /**
+     * Forgets every block
+     */
+    void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * @param hash Block hash
+     * @return Node of that block, or null if unknown
+     */
+    public Node get(Hash256 hash) {
+        return nodes.get(hash);
+    }
+
+    /**
+     * @return Number of known blocks, on every branch
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the active tip and the tip of every competing branch (a scan
+     * over all known blocks)
+     *
+     * @return Branch tips, most work first
+     */
+    public List<Node> getTips() {
+        HashSet<Node> parents = new HashSet<Node>();
+        for (Node node : nodes.values()) {
+            parents.add(node.parent);
+        }
+        ArrayList<Node> tips = new ArrayList<Node>();
+        for (Node node : nodes.values()) {
+            if (!parents.contains(node)) {
+                tips.add(node);
+            }
+        }
+        Collections.sort(tips, (x, y) -> y.chainWork.compareTo(x.chainWork));
+        return tips;
+    }
+}
\ No newline at end of file
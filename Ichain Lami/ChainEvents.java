@@ -0,0 +1,92 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom Java Flight Recorder events for the node
+ * Events cost next to nothing unless a recording enables them, e.g.
+ *   java -XX:StartFlightRecording:filename=node.jfr ...
+ * and are shown under "NoobChain" in JDK Mission Control.
+ */
+public final class ChainEvents {
+
+    private ChainEvents() {
+    }
+
+    @Name("noobchain.BlockMined")
+    @Label("Block Mined")
+    @Category("NoobChain")
+    @Description("Proof-of-work search for one block")
+    @StackTrace(false)
+    public static class BlockMined extends Event {
+        @Label("Block Hash")
+        public String hash;
+
+        @Label("Difficulty")
+        public int difficulty;
+
+        @Label("Nonce Attempts")
+        public long attempts;
+
+        @Label("Miner Threads")
+        public int threads;
+    }
+
+    @Name("noobchain.SignatureVerified")
+    @Label("Signature Verified")
+    @Category("NoobChain")
+    @Description("One ECDSA signature verification (cache hits are not included)")
+    @StackTrace(false)
+    public static class SignatureVerified extends Event {
+        @Label("Valid")
+        public boolean valid;
+    }
+
+    @Name("noobchain.TransactionRejected")
+    @Label("Transaction Rejected")
+    @Category("NoobChain")
+    @StackTrace(false)
+    public static class TransactionRejected extends Event {
+        @Label("Reason")
+        public String reason;
+    }
+
+    @Name("noobchain.ChainValidated")
+    @Label("Chain Validated")
+    @Category("NoobChain")
+    @Description("Full or incremental chain validation")
+    @StackTrace(false)
+    public static class ChainValidated extends Event {
+        @Label("Blocks Checked")
+        public int blocks;
+
+        @Label("Incremental")
+        public boolean incremental;
+
+        @Label("Valid")
+        public boolean valid;
+    }
+
+    @Name("noobchain.UTXOSet")
+    @Label("UTXO Set")
+    @Category("NoobChain")
+    @Description("Size of the most recently created chain's UTXO set")
+    @Period("1 s")
+    @StackTrace(false)
+    public static class UTXOSet extends Event {
+        @Label("Unspent Outputs")
+        public long outputs;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+
+        @Label("Chain Height")
+        public int height;
+    }
+}
\ No newline at end of file
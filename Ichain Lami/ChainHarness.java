@@ -0,0 +1,106 @@
+/**
+ * Fixtures and assertions shared by the runnable checks and benchmarks
+ * Chains built here mine at difficulty 1 on a single thread, so building
+ * them measures transaction processing rather than proof of work.
+ */
+final class ChainHarness {
+
+    // Initial supply of the chains built by buildChain()
+    static final float SUPPLY = 1_000_000_000f;
+
+    private ChainHarness() {
+    }
+
+    /**
+     * Prints the failure and exits with status 1 unless the condition holds
+     *
+     * @param condition Invariant being checked
+     * @param message   Description of the violation
+     */
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return Empty in-memory chain at difficulty 1 with one miner thread
+     */
+    static ChainState newChain() {
+        ChainState chain = new ChainState();
+        chain.setDifficulty(1);
+        chain.setMinerThreads(1);
+        return chain;
+    }
+
+    /**
+     * @param count Number of wallets
+     * @return Freshly generated wallets
+     */
+    static Wallet[] wallets(int count) {
+        Wallet[] wallets = new Wallet[count];
+        for (int i = 0; i < count; i++) {
+            wallets[i] = new Wallet();
+        }
+        return wallets;
+    }
+
+    /**
+     * Appends a genesis block paying the whole supply to one address
+     *
+     * @param chain     Empty chain
+     * @param recipient Owner of the supply
+     * @param supply    Value of the genesis output
+     */
+    static void addGenesis(ChainState chain, Address recipient, float supply) {
+        Transaction genesis = chain.createGenesisTransaction(new Wallet(), recipient, supply);
+        Stina genesisBlock = new Stina(Hash256.ZERO);
+        genesisBlock.addTransaction(genesis, chain);
+        append(chain, genesisBlock);
+    }
+
+    /**
+     * Starts a block on the tip holding payments from the payer to the
+     * recipients round-robin: payment t of block b pays 1 + t % 5 to
+     * recipients[(b * perBlock + t) % recipients.length]
+     *
+     * @param first First payment index (payments first .. perBlock - 1 are made)
+     * @return Unmined block
+     */
+    static Stina roundRobinBlock(ChainState chain, Wallet payer, Wallet[] recipients, int b, int perBlock,
+            int first) {
+        Stina block = new Stina(chain.getTip().hash);
+        for (int t = first; t < perBlock; t++) {
+            Wallet to = recipients[(b * perBlock + t) % recipients.length];
+            check(block.addTransaction(payer.sendFunds(chain, to.address, 1f + t % 5), chain), "payment rejected");
+        }
+        return block;
+    }
+
+    /**
+     * Mines a block and appends it to the chain
+     */
+    static void append(ChainState chain, Stina block) {
+        check(chain.addBlock(block), "block was not appended");
+    }
+
+    /**
+     * Fills a chain with a genesis block paying SUPPLY to the payer and
+     * blocks of round-robin payments to the recipients
+     *
+     * @param chain      Empty chain
+     * @param blocks     Total number of blocks including genesis
+     * @param perBlock   Payments per non-genesis block
+     * @param payer      Owner of the supply
+     * @param recipients Wallets paid in turn
+     * @return The chain
+     */
+    static ChainState buildChain(ChainState chain, int blocks, int perBlock, Wallet payer, Wallet[] recipients) {
+        addGenesis(chain, payer.address, SUPPLY);
+        for (int b = 1; b < blocks; b++) {
+            append(chain, roundRobinBlock(chain, payer, recipients, b, perBlock, 0));
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,635 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Secondary indexes over the chain, maintained as blocks are appended:
+ * - transaction id -> (block height, position in the block)
+ * - block hash -> height
+ * - address -> every output ever paid to it, spent or not
+ * Lookups are O(1) and an address history is O(k) in its number of outputs,
+ * instead of a scan over every block. Blocks behind the lookups are read
+ * through a bounded LRU cache, from the block store when the chain has one.
+ * Without a store, the transactions of pruned blocks are dropped from the
+ * index along with the blocks' bodies.
+ *
+ * The index can be persisted next to the block store as an append-only
+ * journal of [length][crc32][payload] records, one per block, holding the
+ * block hash, transaction ids and output ids with their owners' key digests.
+ * On attach the journal is replayed (no block decoding), records that do not
+ * match the chain are truncated, and missing blocks are indexed again.
+ *
+ * Only the thread appending or disconnecting blocks (under ChainState's
+ * write lock) changes the index; lookups may run concurrently from any thread.
+ */
+public class ChainIndex {
+
+    // Default number of decoded blocks kept by the read-through cache
+    public static final int DEFAULT_CACHE_BLOCKS = 256;
+
+    // Journal file name inside the block store directory
+    public static final String JOURNAL_FILE = "chain-index.log";
+
+    // Journal record header: payload length + CRC32 of the payload
+    private static final int RECORD_HEADER = 8;
+
+    // Transaction id -> height << 32 | position
+    private final ConcurrentHashMap<Hash256, Long> transactions = new ConcurrentHashMap<Hash256, Long>();
+
+    // Block hash -> height
+    private final ConcurrentHashMap<Hash256, Integer> heights = new ConcurrentHashMap<Hash256, Integer>();
+
+    // Owner key digest -> outputs paid to that owner, in chain order
+    private final ConcurrentHashMap<Hash256, History> histories = new ConcurrentHashMap<Hash256, History>();
+
+    // Number of indexed blocks (heights 0 .. indexed - 1)
+    private volatile int indexed;
+
+    // Chain the blocks are read from
+    private final ChainState chain;
+
+    // Decoded blocks by height
+    private final BlockCache cache;
+
+    // Journal (null if the index is not persisted)
+    private FileChannel journal;
+    private long journalSize;
+
+    /**
+     * Creates an empty index
+     *
+     * @param chain       Chain the indexed blocks belong to
+     * @param cacheBlocks Number of decoded blocks to cache
+     */
+    public ChainIndex(ChainState chain, int cacheBlocks) {
+        this.chain = chain;
+        this.cache = new BlockCache(cacheBlocks);
+    }
+
+    // Maintenance (caller holds the chain's write lock)
+
+    /**
+     * Indexes the next block and appends it to the journal
+     *
+     * @param block  Block just appended to the chain
+     * @param height Its height; must equal size()
+     */
+    void add(Stina block, int height) {
+        if (height != indexed) {
+            throw new IllegalStateException("Index expects height " + indexed + ", got " + height);
+        }
+        apply(height, block.hash, block.transactions);
+        if (journal != null) {
+            writeRecord(block);
+        }
+        cache.remove(height); // Drops a load of the previous block at this height still in flight
+        indexed = height + 1;
+    }
+
+    /**
+     * Removes the last indexed block, e.g. when a chain reorganization
+     * disconnects it, and cuts its record from the journal
+     *
+     * @param block  Block being disconnected
+     * @param height Its height; must equal size() - 1
+     */
+    void remove(Stina block, int height) {
+        if (height != indexed - 1) {
+            throw new IllegalStateException("Index can only remove height " + (indexed - 1) + ", got " + height);
+        }
+        heights.remove(block.hash, height);
+        for (int position = 0; position < block.transactions.size(); position++) {
+            Transaction transaction = block.transactions.get(position);
+            transactions.remove(transaction.transactionId, pack(height, position));
+            for (TransactionOutput output : transaction.outputs) {
+                History history = histories.get(output.recipient.getDigest());
+                if (history != null) {
+                    history.removeFrom(height);
+                }
+            }
+        }
+        cache.remove(height);
+        if (journal != null) {
+            journalSize -= RECORD_HEADER + recordLength(block);
+            try {
+                journal.truncate(journalSize);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to remove chain index record for block " + block.hash, e);
+            }
+        }
+        indexed = height;
+    }
+
+    /**
+     * Forgets the transactions of a block whose body is about to be pruned
+     * With a block store the full block stays readable from disk and the
+     * journal must keep matching it, so nothing is dropped; otherwise the
+     * block's transaction ids and its outputs' history entries are removed
+     * and lookups of them return null.
+     *
+     * @param block  Block still holding its transactions
+     * @param height Its height
+     */
+    void prune(Stina block, int height) {
+        if (chain.getBlockStore() != null) {
+            return;
+        }
+        HashSet<Hash256> owners = new HashSet<Hash256>();
+        for (Transaction transaction : block.transactions) {
+            transactions.remove(transaction.transactionId);
+            for (TransactionOutput output : transaction.outputs) {
+                owners.add(output.recipient.getDigest());
+            }
+        }
+        for (Hash256 owner : owners) {
+            History history = histories.get(owner);
+            if (history != null) {
+                History kept = history.without(height);
+                if (kept.count == 0) {
+                    histories.remove(owner);
+                } else {
+                    histories.put(owner, kept); // Readers of the old history skip the pruned entries
+                }
+            }
+        }
+        cache.remove(height);
+    }
+
+    /**
+     * Adds one block's entries to the maps
+     */
+    private void apply(int height, Hash256 blockHash, List<Transaction> blockTransactions) {
+        heights.put(blockHash, height);
+        for (int position = 0; position < blockTransactions.size(); position++) {
+            Transaction transaction = blockTransactions.get(position);
+            long location = pack(height, position);
+            transactions.put(transaction.transactionId, location);
+            for (int i = 0; i < transaction.outputs.size(); i++) {
+                TransactionOutput output = transaction.outputs.get(i);
+                history(output.recipient.getDigest()).add(output.id, location, i);
+            }
+        }
+    }
+
+    private History history(Hash256 owner) {
+        return histories.computeIfAbsent(owner, o -> new History());
+    }
+
+    /**
+     * Forgets every entry and cached block
+     */
+    private void reset() {
+        transactions.clear();
+        heights.clear();
+        histories.clear();
+        cache.clear();
+        indexed = 0;
+    }
+
+    /**
+     * Persists the index in a directory and brings it up to date with the chain
+     * Journal records are replayed while they match the chain's blocks; the
+     * journal is cut at the first mismatch or torn record, and the remaining
+     * blocks are indexed from the chain and written to the journal.
+     *
+     * @param directory Directory for the journal (usually the block store's)
+     * @param blocks    Current chain in height order
+     */
+    void attach(Path directory, List<Stina> blocks) {
+        close();
+        reset();
+        try {
+            journal = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            journalSize = replay(blocks);
+            journal.truncate(journalSize);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open chain index in " + directory, e);
+        }
+        for (int height = indexed; height < blocks.size(); height++) {
+            add(blocks.get(height), height);
+        }
+        flush();
+    }
+
+    /**
+     * Replays journal records that match the chain
+     *
+     * @return Journal offset after the last replayed record
+     */
+    private long replay(List<Stina> blocks) throws IOException {
+        long size = journal.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        while (indexed < blocks.size() && position + RECORD_HEADER <= size) {
+            header.clear();
+            readFully(journal, header, position);
+            int length = header.getInt(0);
+            int crc = header.getInt(4);
+            if (length < 0 || position + RECORD_HEADER + length > size) {
+                break; // Torn record
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(journal, payload, position + RECORD_HEADER);
+            if (crc(payload.array(), 0, length) != crc || !replayRecord(payload, blocks)) {
+                break;
+            }
+            position += RECORD_HEADER + length;
+        }
+        return position;
+    }
+
+    /**
+     * Applies one journal record if it describes the next block of the chain
+     */
+    private boolean replayRecord(ByteBuffer payload, List<Stina> blocks) {
+        payload.flip();
+        int height = payload.getInt();
+        Hash256 blockHash = getHash(payload);
+        if (height != indexed || !blockHash.equals(blocks.get(height).hash)) {
+            return false;
+        }
+        heights.put(blockHash, height);
+        int count = payload.getInt();
+        for (int position = 0; position < count; position++) {
+            long location = pack(height, position);
+            transactions.put(getHash(payload), location);
+            int outputs = payload.getShort() & 0xFFFF;
+            for (int i = 0; i < outputs; i++) {
+                Hash256 outputId = getHash(payload);
+                history(getHash(payload)).add(outputId, location, i);
+            }
+        }
+        indexed = height + 1;
+        return true;
+    }
+
+    /**
+     * Appends a block's record to the journal
+     * Records are only forced to disk on flush(); a lost tail is re-indexed
+     * from the chain on the next attach.
+     */
+    private void writeRecord(Stina block) {
+        int length = recordLength(block);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length);
+        record.position(RECORD_HEADER);
+        record.putInt(indexed);
+        record.put(block.hash.toBytes());
+        record.putInt(block.transactions.size());
+        for (Transaction transaction : block.transactions) {
+            record.put(transaction.transactionId.toBytes());
+            record.putShort((short) transaction.outputs.size());
+            for (TransactionOutput output : transaction.outputs) {
+                record.put(output.id.toBytes());
+                record.put(output.recipient.getDigest().toBytes());
+            }
+        }
+        record.putInt(0, length).putInt(4, crc(record.array(), RECORD_HEADER, length)).position(0);
+        try {
+            writeFully(journal, record, journalSize);
+            journalSize += record.capacity();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write chain index record for block " + block.hash, e);
+        }
+    }
+
+    /**
+     * @return Payload length of a block's journal record
+     */
+    private static int recordLength(Stina block) {
+        int length = 4 + Hash256.BYTES + 4;
+        for (Transaction transaction : block.transactions) {
+            length += Hash256.BYTES + 2 + transaction.outputs.size() * Hash256.BYTES * 2;
+        }
+        return length;
+    }
+
+    /**
+     * Forces the journal to disk
+     */
+    void flush() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to sync chain index", e);
+        }
+    }
+
+    /**
+     * Syncs and closes the journal; the in-memory index stays usable
+     */
+    void close() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.force(false);
+            journal.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close chain index", e);
+        }
+        journal = null;
+    }
+
+    // Lookups
+
+    /**
+     * @return Number of indexed blocks
+     */
+    public int size() {
+        return indexed;
+    }
+
+    /**
+     * @return Number of indexed transactions
+     */
+    public int getTransactionCount() {
+        return transactions.size();
+    }
+
+    /**
+     * @param blockHash Block hash
+     * @return Height of the block, or -1 if unknown
+     */
+    public int getHeight(Hash256 blockHash) {
+        Integer height = heights.get(blockHash);
+        return (height == null) ? -1 : height;
+    }
+
+    /**
+     * @param blockHash Block hash
+     * @return Block, or null if unknown
+     */
+    public Stina getBlock(Hash256 blockHash) {
+        int height = getHeight(blockHash);
+        return (height < 0) ? null : cache.get(height);
+    }
+
+    /**
+     * @param transactionId Transaction id
+     * @return Where the transaction is in the chain, or null if unknown
+     */
+    public Location locate(Hash256 transactionId) {
+        Long location = transactions.get(transactionId);
+        return (location == null) ? null : new Location(location);
+    }
+
+    /**
+     * @param transactionId Transaction id
+     * @return Transaction, or null if unknown
+     */
+    public Transaction getTransaction(Hash256 transactionId) {
+        Long location = transactions.get(transactionId);
+        return (location == null) ? null : transactionAt(location);
+    }
+
+    /**
+     * Returns the id of every output ever paid to an address, in chain order
+     *
+     * @param owner Address
+     * @return Output ids, spent and unspent (empty if none)
+     */
+    public List<Hash256> getOutputIds(Address owner) {
+        History history = histories.get(owner.getDigest());
+        return (history == null) ? Collections.<Hash256>emptyList() : history.ids();
+    }
+
+    /**
+     * Returns every output ever paid to an address, in chain order
+     * Whether an output is still unspent can be checked against the UTXO set.
+     *
+     * @param owner Address
+     * @return Outputs, spent and unspent (empty if none)
+     */
+    public List<TransactionOutput> getOutputHistory(Address owner) {
+        History history = histories.get(owner.getDigest());
+        if (history == null) {
+            return Collections.<TransactionOutput>emptyList();
+        }
+        int count = history.count;
+        long[] locations = history.locations;
+        int[] indexes = history.indexes;
+        ArrayList<TransactionOutput> outputs = new ArrayList<TransactionOutput>(count);
+        for (int i = 0; i < count; i++) {
+            Transaction transaction = transactionAt(locations[i]);
+            if (transaction != null) {
+                outputs.add(transaction.outputs.get(indexes[i]));
+            }
+        }
+        return outputs;
+    }
+
+    /**
+     * @return Hits and misses of the block cache
+     */
+    public String getCacheStats() {
+        return cache.toString();
+    }
+
+    /**
+     * @return Transaction at a location, or null if its block was pruned meanwhile
+     */
+    private Transaction transactionAt(long location) {
+        List<Transaction> blockTransactions = cache.get((int) (location >>> 32)).transactions;
+        int position = (int) location;
+        return (position < blockTransactions.size()) ? blockTransactions.get(position) : null;
+    }
+
+    /**
+     * Reads a block for the cache: from the block store if the chain has one,
+     * otherwise from memory
+     */
+    private Stina load(int height) {
+        BlockStore store = chain.getBlockStore();
+        return (store != null && height < store.size()) ? store.get(height) : chain.getBlock(height);
+    }
+
+    private static long pack(int height, int position) {
+        return ((long) height << 32) | (position & 0xFFFFFFFFL);
+    }
+
+    private static Hash256 getHash(ByteBuffer in) {
+        return Hash256.fromWords(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Position of a transaction in the chain
+     */
+    public static class Location {
+        public final int height;
+        public final int position;
+
+        Location(long packed) {
+            this.height = (int) (packed >>> 32);
+            this.position = (int) packed;
+        }
+
+        @Override
+        public String toString() {
+            return "block " + height + ", transaction " + position;
+        }
+    }
+
+    /**
+     * Outputs paid to one owner: id, transaction location and output index
+     * Appended by the single index writer; readers see a consistent prefix
+     * through the volatile count.
+     */
+    private static class History {
+        Hash256[] ids = new Hash256[4];
+        long[] locations = new long[4];
+        int[] indexes = new int[4];
+        volatile int count;
+
+        void add(Hash256 id, long location, int index) {
+            int n = count;
+            if (n == ids.length) {
+                // Grow copies first, then publish them; readers use the arrays they started with
+                Hash256[] grownIds = Arrays.copyOf(ids, n * 2);
+                long[] grownLocations = Arrays.copyOf(locations, n * 2);
+                int[] grownIndexes = Arrays.copyOf(indexes, n * 2);
+                grownIds[n] = id;
+                grownLocations[n] = location;
+                grownIndexes[n] = index;
+                ids = grownIds;
+                locations = grownLocations;
+                indexes = grownIndexes;
+            } else {
+                ids[n] = id;
+                locations[n] = location;
+                indexes[n] = index;
+            }
+            count = n + 1; // Volatile write publishes the entry
+        }
+
+        /**
+         * Drops the trailing entries of blocks at or above a height
+         */
+        void removeFrom(int height) {
+            int n = count;
+            while (n > 0 && (int) (locations[n - 1] >>> 32) >= height) {
+                ids[--n] = null;
+            }
+            count = n;
+        }
+
+        /**
+         * @return Copy without the entries of one block
+         */
+        History without(int height) {
+            History kept = new History();
+            int n = count;
+            for (int i = 0; i < n; i++) {
+                if ((int) (locations[i] >>> 32) != height) {
+                    kept.add(ids[i], locations[i], indexes[i]);
+                }
+            }
+            return kept;
+        }
+
+        List<Hash256> ids() {
+            int n = count;
+            return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(ids, n)));
+        }
+    }
+
+    /**
+     * Bounded LRU cache of decoded blocks by height, loading misses through load()
+     * Loads run outside the lock, so a reorg can replace the block at a height
+     * while it is being read. Every removal bumps the generation of the
+     * height's stripe, and a loaded block is only cached if that generation
+     * did not change during the load.
+     */
+    private class BlockCache {
+        private static final int STRIPES = 64;
+
+        private final int capacity;
+        private final LinkedHashMap<Integer, Stina> blocks;
+        private final long[] generations = new long[STRIPES];
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        BlockCache(int capacity) {
+            this.capacity = capacity;
+            this.blocks = new LinkedHashMap<Integer, Stina>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<Integer, Stina> eldest) {
+                    return size() > BlockCache.this.capacity;
+                }
+            };
+        }
+
+        Stina get(int height) {
+            long generation;
+            synchronized (this) {
+                Stina block = blocks.get(height);
+                if (block != null) {
+                    hits.increment();
+                    return block;
+                }
+                generation = generations[height % STRIPES];
+            }
+            misses.increment();
+            Stina block = load(height); // Outside the lock: a store read decodes the block
+            synchronized (this) {
+                if (generations[height % STRIPES] == generation) {
+                    blocks.putIfAbsent(height, block);
+                }
+            }
+            return block;
+        }
+
+        synchronized void clear() {
+            blocks.clear();
+            for (int i = 0; i < STRIPES; i++) {
+                generations[i]++;
+            }
+        }
+
+        synchronized void remove(int height) {
+            blocks.remove(height);
+            generations[height % STRIPES]++;
+        }
+
+        @Override
+        public String toString() {
+            return "BlockCache[capacity=" + capacity + ", hits=" + hits.sum() + ", misses=" + misses.sum() + "]";
+        }
+    }
+}
\ No newline at end of file
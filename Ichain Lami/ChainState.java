@@ -0,0 +1,970 @@
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * State of one chain: its blocks, UTXO set, owner index, configuration and
+ * the services working on them (miner, validator, signature cache, mempool)
+ *
+ * Concurrency model:
+ * - Everything that changes the UTXO set or appends a block runs under a
+ *   single write lock, so spending an output is atomic with respect to every
+ *   other spend and no output can be lost or spent twice.
+ * - Reads never take that lock. The default UTXO store is a concurrent map,
+ *   balances come from the owner index (one volatile write per owner per
+ *   transaction), and blocks are published into an append-only array whose
+ *   length is a volatile counter, so readers always see a consistent prefix.
+ * - The tip is an atomic reference; addBlock() only appends a block whose
+ *   prevHash is the current tip.
+ * - Signature checks and mining are done outside the write lock.
+ *
+ * Forks: every block is also recorded in a BlockTree with its undo log.
+ * submitBlock() accepts blocks mined elsewhere and, when a competing branch
+ * carries more work than the active chain, reorganizes onto it: blocks are
+ * disconnected back to the fork point and the branch is connected, so block
+ * slots above the fork change and readers holding a getBlocks() snapshot
+ * may see the new branch's blocks in them. Transactions of disconnected
+ * blocks are dropped, not returned to the mempool, and transactions already
+ * assembled into a block that has not been added yet stay applied. A mined
+ * block that no longer extends the tip when addBlock() gets to append it is
+ * taken back instead: its UTXO changes are undone and its transactions
+ * return to the mempool.
+ *
+ * Snapshots: with a snapshot interval set, every interval-th block triggers
+ * a background UTXO snapshot next to the block store. It is taken from the
+ * validator's checkpoint, which reflects whole blocks only, never the
+ * transactions of a block still being assembled. load() starts from the
+ * newest snapshot of a stored block and replays only the blocks after it.
+ *
+ * Pruning: with a prune depth set, blocks more than that many blocks below
+ * the tip stop being reorganizable and are applied to the validator's prune
+ * base. Once every output of such a block is spent as of the base, its
+ * transactions are dropped and only its header is kept, so memory held by
+ * old blocks stays bounded by the unspent outputs. Validation checks pruned
+ * blocks by header and applies transactions from the base. The block store
+ * keeps full blocks, so stored chains still reload and index lookups still
+ * read pruned transactions from disk.
+ */
+public final class ChainState {
+
+    // Blocks in height order; slots below blockCount only change on a reorganization
+    private volatile Stina[] blocks = new Stina[64];
+    private volatile int blockCount;
+    private final AtomicReference<Stina> tip = new AtomicReference<Stina>();
+
+    // Unspent outputs and the same outputs grouped by owner
+    private final UTXOStore UTXOs;
+    private final OwnerIndex owners = new OwnerIndex();
+
+    // Serializes every UTXO change and block append
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // Bumped (under the write lock) whenever the UTXO set changes
+    private volatile long utxoVersion;
+
+    // Configuration parameters
+    private volatile int difficulty = 5; // Mining difficulty (leading zeros)
+    private volatile float minimumTransaction = 0.1f; // Minimum transaction amount
+    private volatile int minerThreads = Runtime.getRuntime().availableProcessors(); // 1 = single-threaded
+    private volatile int snapshotInterval; // Blocks between UTXO snapshots (0 = none)
+    private volatile int pruneDepth; // Blocks below the tip whose bodies are always kept (0 = never prune)
+
+    // Number of UTXO snapshots kept next to the block store
+    public static final int SNAPSHOTS_KEPT = 2;
+
+    // Set while a background snapshot is being written
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+
+    // Last block applied to the prune base (-1 before pruning starts), guarded by the write lock
+    private int pruneHeight = -1;
+
+    // Blocks up to pruneHeight still holding their bodies -> number of their outputs unspent at the base
+    private final HashMap<Integer, Integer> retained = new HashMap<Integer, Integer>();
+
+    // Parallel mining engine (created on first use, guarded by this)
+    private ParallelMiner miner;
+
+    // Signatures already verified by this node
+    public final SignatureCache signatureCache = new SignatureCache(SignatureCache.DEFAULT_CAPACITY);
+
+    // Two-phase chain validator (parallel signature/PoW checks)
+    public final ChainValidator validator;
+
+    // Transactions waiting for the next block (created on first use)
+    private final AtomicReference<Mempool> mempool = new AtomicReference<Mempool>();
+
+    // Transaction, block hash and address lookups
+    public final ChainIndex index;
+
+    // Every known block, on the active chain and on competing branches
+    public final BlockTree tree = new BlockTree();
+
+    // Durable block storage (null keeps the chain in memory only)
+    private volatile BlockStore blockStore;
+
+    // Transaction holding the genesis UTXO
+    private volatile Transaction genesisTransaction;
+
+    /**
+     * Creates an empty chain with an on-heap UTXO set
+     */
+    public ChainState() {
+        this(new HeapUTXOStore());
+    }
+
+    /**
+     * Creates an empty chain
+     *
+     * @param UTXOs Empty UTXO store (must be safe for concurrent reads)
+     */
+    public ChainState(UTXOStore UTXOs) {
+        this.UTXOs = UTXOs;
+        this.validator = new ChainValidator(Runtime.getRuntime().availableProcessors(), signatureCache);
+        this.index = new ChainIndex(this, ChainIndex.DEFAULT_CACHE_BLOCKS);
+        Metrics.track(this);
+    }
+
+    // Blocks
+
+    /**
+     * @return Number of blocks in the chain
+     */
+    public int size() {
+        return blockCount;
+    }
+
+    /**
+     * @param height Block height
+     * @return Block at that height
+     */
+    public Stina getBlock(int height) {
+        int count = blockCount; // Read the count first: the array is at least as new
+        if (height < 0 || height >= count) {
+            throw new IndexOutOfBoundsException("No block at height " + height);
+        }
+        return blocks[height];
+    }
+
+    /**
+     * @return Last block, or null if the chain is empty
+     */
+    public Stina getTip() {
+        return tip.get();
+    }
+
+    /**
+     * Returns the chain as it is now; blocks appended later are not visible
+     *
+     * @return Read-only snapshot of the blocks in height order
+     */
+    public List<Stina> getBlocks() {
+        final int count = blockCount;
+        final Stina[] array = blocks;
+        return new AbstractList<Stina>() {
+            public Stina get(int height) {
+                if (height < 0 || height >= count) {
+                    throw new IndexOutOfBoundsException("No block at height " + height);
+                }
+                return array[height];
+            }
+
+            public int size() {
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Mines a block and appends it to the chain
+     * Mining runs without holding the write lock; the block is only appended
+     * if it still extends the current tip. Otherwise the changes its
+     * transactions made to the UTXO set are undone and the transactions are
+     * submitted to the mempool again (see discard).
+     *
+     * @param newBlock Block to add
+     * @return true if the block was appended
+     */
+    public boolean addBlock(Stina newBlock) {
+        // Mine the block first
+        mine(newBlock);
+
+        List<Transaction> requeue = null;
+        writeLock.lock();
+        try {
+            Stina last = tip.get();
+            Hash256 expected = (last == null) ? Hash256.ZERO : last.hash;
+            if (!expected.equals(newBlock.prevHash)) {
+                Metrics.BLOCKS_STALE.increment();
+                EventLog.warn("#Block does not extend the current tip. Discarded.");
+                requeue = discard(newBlock);
+                return false;
+            }
+            publish(newBlock);
+            tree.add(newBlock, tree.get(newBlock.prevHash), difficulty).undo = BlockTree.Undo.of(newBlock);
+            Metrics.BLOCKS_APPENDED.increment();
+
+            // Persist the mined block, then index it
+            if (blockStore != null) {
+                blockStore.append(newBlock);
+            }
+            index.add(newBlock, blockCount - 1);
+            pruneIfDue();
+        } finally {
+            writeLock.unlock();
+            if (requeue != null) {
+                // Outside the write lock: building a template takes the mempool's lock first
+                for (Transaction transaction : requeue) {
+                    getMempool().submit(transaction);
+                }
+            }
+        }
+        snapshotIfDue();
+        return true;
+    }
+
+    /**
+     * Takes back a stale block's transactions, which were applied to the UTXO
+     * set when they were added to it (caller holds the write lock)
+     * The block's net changes are reverted with the same undo log a
+     * reorganization uses. If a later transaction already spent one of its
+     * outputs, reverting would leave that spend without a source, so the
+     * changes are kept. Genesis transactions are never processed on assembly
+     * and are left alone. A transaction spending an output created earlier
+     * in the same block loses its input with the revert, so the mempool
+     * refuses it when it is resubmitted.
+     *
+     * @param block Block that was not appended
+     * @return Unprocessed copies of its transactions to resubmit
+     */
+    private List<Transaction> discard(Stina block) {
+        if (block.prevHash.equals(Hash256.ZERO)) {
+            return Collections.<Transaction>emptyList();
+        }
+        BlockTree.Undo undo = BlockTree.Undo.of(block);
+        for (TransactionOutput output : undo.created) {
+            if (!UTXOs.contains(output.id)) {
+                EventLog.warn("#Outputs of the discarded block are already spent. Keeping its transactions.");
+                return Collections.<Transaction>emptyList();
+            }
+        }
+        applyChanges(undo.created, undo.spent);
+
+        ArrayList<Transaction> copies = new ArrayList<Transaction>(block.transactions.size());
+        for (Transaction transaction : block.transactions) {
+            ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>(transaction.inputs.size());
+            for (TransactionInput input : transaction.inputs) {
+                inputs.add(new TransactionInput(input.transactionOutputId));
+            }
+            Transaction copy = new Transaction(transaction.sender, transaction.recipient, transaction.value, inputs);
+            copy.signature = transaction.signature;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Accepts a block mined elsewhere (e.g. received from a peer)
+     * The block is checked and recorded in the block tree. If it extends the
+     * active tip it is validated against the UTXO set and connected; if it
+     * completes a competing branch with more work than the active chain, the
+     * chain is reorganized onto that branch. A block whose transactions do not
+     * match its merkle root is refused before it is recorded; a block whose
+     * transactions are invalid is forgotten with everything built on it, and
+     * the active chain is left as it was. Its hash is never blacklisted, as
+     * the same header may still arrive with its genuine body.
+     *
+     * @param block Mined block
+     * @return true if the block is on the active chain afterwards
+     */
+    public boolean submitBlock(Stina block) {
+        boolean active = accept(block);
+        if (active) {
+            snapshotIfDue();
+        }
+        return active;
+    }
+
+    /**
+     * Checks, records and possibly connects a submitted block (see submitBlock)
+     */
+    private boolean accept(Stina block) {
+        writeLock.lock();
+        try {
+            if (tree.get(block.hash) != null) {
+                EventLog.warn("#Block is already known. Discarded.");
+                return false;
+            }
+            if (!block.hash.equals(block.calculateHash()) || block.hash.leadingZeroBits() < difficulty * 4) {
+                EventLog.warn("#Block hash or proof-of-work is invalid. Discarded.");
+                return false;
+            }
+            if (!ChainValidator.matchesHeader(block)) {
+                return false;
+            }
+
+            Stina last = tip.get();
+            if (last == null) {
+                if (!Hash256.ZERO.equals(block.prevHash)) {
+                    EventLog.warn("#Block's parent is unknown. Discarded.");
+                    return false;
+                }
+                connectGenesis(tree.add(block, null, difficulty));
+                return true;
+            }
+
+            BlockTree.Node parent = tree.get(block.prevHash);
+            if (parent == null) {
+                EventLog.warn("#Block's parent is unknown. Discarded.");
+                return false;
+            }
+            BlockTree.Node node = tree.add(block, parent, difficulty);
+            BlockTree.Node active = tree.get(last.hash);
+            if (parent == active) {
+                if (!connect(node)) {
+                    tree.remove(node);
+                    return false;
+                }
+                Metrics.BLOCKS_APPENDED.increment();
+                pruneIfDue();
+                return true;
+            }
+            if (node.chainWork.compareTo(active.chainWork) <= 0) {
+                EventLog.debug("Block at height " + node.height + " extends a side branch");
+                return false;
+            }
+            if (!reorganize(active, node)) {
+                return false;
+            }
+            pruneIfDue();
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Switches the active chain from one tip to a tip with more work
+     * Only the blocks above the fork point are touched. If a block of the new
+     * branch is invalid, it is forgotten with its descendants and the old
+     * branch reconnected.
+     * A branch forking below the prune height is refused.
+     * (caller holds the write lock)
+     *
+     * @return true if the chain now ends in the new tip
+     */
+    private boolean reorganize(BlockTree.Node from, BlockTree.Node to) {
+        BlockTree.Node fork = BlockTree.findFork(from, to);
+        if (fork.height < pruneHeight) {
+            EventLog.warn("#Branch forks at height " + fork.height + ", below the prune height " + pruneHeight
+                    + ". Keeping the current chain.");
+            return false;
+        }
+        ArrayList<BlockTree.Node> disconnected = disconnectTo(from, fork);
+
+        ArrayList<BlockTree.Node> branch = new ArrayList<BlockTree.Node>();
+        for (BlockTree.Node node = to; node != fork; node = node.parent) {
+            branch.add(node);
+        }
+        for (int i = branch.size() - 1; i >= 0; i--) {
+            if (!connect(branch.get(i))) {
+                EventLog.warn("#Branch at height " + branch.get(i).height + " is invalid. Keeping the current chain.");
+                disconnectTo(tree.get(tip.get().hash), fork);
+                tree.remove(branch.get(i));
+                for (int j = disconnected.size() - 1; j >= 0; j--) {
+                    if (!connect(disconnected.get(j))) {
+                        throw new IllegalStateException("Failed to reconnect block " + disconnected.get(j).block.hash);
+                    }
+                }
+                return false;
+            }
+        }
+
+        Metrics.REORGS.increment();
+        Metrics.REORG_DEPTH.record(disconnected.size());
+        EventLog.info("Chain reorganized at height " + fork.height + ": " + disconnected.size()
+                + " blocks disconnected, " + branch.size() + " connected");
+        return true;
+    }
+
+    /**
+     * Disconnects blocks from a tip down to (not including) a fork point and
+     * cuts them from the block store (caller holds the write lock)
+     *
+     * @return Disconnected blocks, tip first
+     */
+    private ArrayList<BlockTree.Node> disconnectTo(BlockTree.Node from, BlockTree.Node fork) {
+        ArrayList<BlockTree.Node> disconnected = new ArrayList<BlockTree.Node>();
+        for (BlockTree.Node node = from; node != fork; node = node.parent) {
+            BlockTree.Undo undo = node.undo;
+            applyChanges(undo.created, undo.spent); // Restore spent outputs, drop created ones
+            index.remove(node.block, node.height);
+            blockCount = node.height; // Volatile write hides the slot
+            tip.set(blocks[node.height - 1]);
+            node.undo = null;
+            disconnected.add(node);
+        }
+        if (blockStore != null) {
+            blockStore.truncate(fork.height + 1);
+        }
+        return disconnected;
+    }
+
+    /**
+     * Validates a block on top of the tip and appends it (caller holds the write lock)
+     *
+     * @return true if the block was valid and connected
+     */
+    private boolean connect(BlockTree.Node node) {
+        Stina block = node.block;
+        BlockTree.Undo undo;
+        try {
+            undo = validator.checkBlock(block, tip.get(), difficulty, UTXOs);
+        } catch (RuntimeException e) {
+            EventLog.warn("#Block could not be verified: " + e.getMessage());
+            return false;
+        }
+        if (undo == null) {
+            return false;
+        }
+        applyChanges(undo.spent, undo.created);
+        publish(block);
+        if (blockStore != null) {
+            blockStore.append(block);
+        }
+        index.add(block, blockCount - 1);
+        node.undo = undo;
+        return true;
+    }
+
+    /**
+     * Makes a received genesis block the first block of an empty chain
+     * (caller holds the write lock)
+     */
+    private void connectGenesis(BlockTree.Node node) {
+        BlockTree.Undo undo = BlockTree.Undo.of(node.block);
+        applyChanges(undo.spent, undo.created);
+        genesisTransaction = node.block.transactions.get(0);
+        publish(node.block);
+        if (blockStore != null) {
+            blockStore.append(node.block);
+        }
+        index.add(node.block, 0);
+        node.undo = undo;
+        Metrics.BLOCKS_APPENDED.increment();
+    }
+
+    /**
+     * Appends a block to the array and moves the tip (caller holds the write lock)
+     */
+    private void publish(Stina block) {
+        Stina[] array = blocks;
+        int count = blockCount;
+        if (count == array.length) {
+            Stina[] grown = new Stina[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, count);
+            blocks = grown;
+            array = grown;
+        }
+        array[count] = block;
+        blockCount = count + 1; // Volatile write publishes the slot
+        tip.set(block);
+    }
+
+    /**
+     * Moves the prune base up to prune depth blocks below the tip and prunes
+     * the bodies of blocks up to it whose outputs are all spent as of the base
+     * (caller holds the write lock)
+     */
+    private void pruneIfDue() {
+        int depth = pruneDepth;
+        if (depth <= 0) {
+            return;
+        }
+        for (int target = blockCount - 1 - depth; pruneHeight < target;) {
+            int height = ++pruneHeight;
+            BlockTree.Node node = tree.get(blocks[height].hash);
+            BlockTree.Undo undo = node.undo;
+            validator.advanceBase(height, node.block.hash, undo, UTXOs);
+            node.undo = BlockTree.Undo.PRUNED;
+
+            // Outputs spent by this block are spent for good; release the blocks holding them
+            for (TransactionOutput output : undo.spent) {
+                ChainIndex.Location location = index.locate(output.parentTransactionId);
+                if (location != null) {
+                    release(location.height);
+                }
+            }
+            if (height == 0) {
+                continue; // The genesis block keeps the genesis transaction
+            }
+            if (undo.created.isEmpty()) {
+                pruneBody(height);
+            } else {
+                retained.put(height, undo.created.size());
+            }
+        }
+    }
+
+    /**
+     * Counts one output of a retained block as spent, pruning the block's
+     * body when it was the last one (caller holds the write lock)
+     */
+    private void release(int height) {
+        Integer unspent = retained.get(height);
+        if (unspent == null) {
+            return;
+        }
+        if (unspent == 1) {
+            retained.remove(height);
+            pruneBody(height);
+        } else {
+            retained.put(height, unspent - 1);
+        }
+    }
+
+    /**
+     * Drops the transactions of a block below the prune height (caller holds the write lock)
+     */
+    private void pruneBody(int height) {
+        Stina block = blocks[height];
+        index.prune(block, height);
+        block.pruneTransactions();
+        Metrics.BLOCKS_PRUNED.increment();
+    }
+
+    /**
+     * Mines a block with the configured number of threads
+     */
+    private synchronized void mine(Stina block) {
+        int threads = minerThreads;
+        if (threads > 1) {
+            if (miner == null || miner.getThreads() != threads) {
+                if (miner != null) {
+                    miner.shutdown();
+                }
+                miner = new ParallelMiner(threads);
+            }
+            block.mineBlock(difficulty, miner);
+        } else {
+            block.mineBlock(difficulty);
+        }
+    }
+
+    // UTXO set
+
+    /**
+     * Creates the coinbase transaction holding the initial supply and records
+     * its output as unspent
+     * The transaction still has to be added to the genesis block.
+     *
+     * @param coinbase  Wallet signing the genesis transaction
+     * @param recipient Receiver of the initial supply
+     * @param value     Initial supply
+     * @return Genesis transaction
+     */
+    public Transaction createGenesisTransaction(Wallet coinbase, Address recipient, float value) {
+        Transaction genesis = new Transaction(coinbase.address, recipient, value, null);
+        genesis.generateSignature(coinbase.privateKey); // Manually sign
+        genesis.transactionId = Hash256.ZERO; // Special ID for genesis
+
+        // Create initial UTXO
+        genesis.outputs.add(new TransactionOutput(genesis.recipient, genesis.value, genesis.transactionId, 0));
+
+        ArrayList<TransactionOutput> none = new ArrayList<TransactionOutput>();
+        writeLock.lock();
+        try {
+            applyChanges(none, genesis.outputs);
+            genesisTransaction = genesis;
+        } finally {
+            writeLock.unlock();
+        }
+        return genesis;
+    }
+
+    /**
+     * Adds new outputs and removes spent ones (caller holds the write lock)
+     *
+     * @param spent   Outputs consumed by a transaction
+     * @param created Outputs created by the transaction
+     */
+    void applyChanges(List<TransactionOutput> spent, List<TransactionOutput> created) {
+        utxoVersion++;
+        for (TransactionOutput o : created) {
+            UTXOs.put(o);
+        }
+        for (TransactionOutput o : spent) {
+            UTXOs.remove(o.id);
+        }
+        owners.apply(spent, created);
+    }
+
+    /**
+     * Returns a counter that changes whenever the UTXO set does, so lookups
+     * made without the write lock can be checked for staleness under it
+     *
+     * @return Current UTXO set version
+     */
+    long getUTXOVersion() {
+        return utxoVersion;
+    }
+
+    /**
+     * @return Lock that must be held while reading and then changing the UTXO set
+     */
+    ReentrantLock getWriteLock() {
+        return writeLock;
+    }
+
+    /**
+     * Returns the unspent output set
+     * Safe to read from any thread; changes must go through transactions.
+     *
+     * @return UTXO store
+     */
+    public UTXOStore getUTXOs() {
+        return UTXOs;
+    }
+
+    /**
+     * @return Unspent outputs grouped by owner
+     */
+    public OwnerIndex getOwners() {
+        return owners;
+    }
+
+    /**
+     * Returns an owner's balance without blocking on block application
+     *
+     * @param owner Owner's address
+     * @return Sum of the owner's unspent output values
+     */
+    public float getBalance(Address owner) {
+        return owners.getBalance(owner);
+    }
+
+    // Persistence and validation
+
+    /**
+     * Rebuilds the chain and UTXO set from a block store without mining
+     * The UTXO set starts from the newest snapshot taken on a stored block
+     * (if any) and only later blocks are replayed; the snapshot also becomes
+     * the validator's checkpoint. New blocks are appended to the same store
+     * afterwards.
+     *
+     * @param store Block store to read from
+     */
+    public void load(BlockStore store) {
+        writeLock.lock();
+        try {
+            blocks = new Stina[Math.max(64, store.size())];
+            blockCount = 0;
+            tip.set(null);
+            UTXOs.clear();
+            owners.clear();
+            tree.clear();
+            utxoVersion++;
+            validator.resetCheckpoint();
+            validator.resetBase();
+            pruneHeight = -1;
+            retained.clear();
+
+            // Start from the newest snapshot that loads
+            UTXOSnapshot snapshot = null;
+            UTXOStore checkpoint = null;
+            for (UTXOSnapshot candidate : UTXOSnapshot.find(store)) {
+                checkpoint = loadSnapshot(candidate);
+                if (checkpoint != null) {
+                    snapshot = candidate;
+                    break;
+                }
+            }
+            int replayFrom = (snapshot == null) ? 0 : snapshot.height + 1;
+
+            // Decode blocks in parallel, then apply them in order
+            Stina[] stored = new Stina[store.size()];
+            validator.getPool().submit(() -> IntStream.range(0, stored.length).parallel().forEach(height -> {
+                stored[height] = store.get(height);
+            })).join();
+
+            ArrayList<TransactionOutput> spent = new ArrayList<TransactionOutput>();
+            for (int height = 0; height < stored.length; height++) {
+                Stina block = stored[height];
+                publish(block);
+                tree.add(block, tree.get(block.prevHash), difficulty).undo = BlockTree.Undo.of(block);
+                if (height < replayFrom) {
+                    continue;
+                }
+
+                // Replay the block's effect on the UTXO set
+                for (Transaction transaction : block.transactions) {
+                    spent.clear();
+                    for (TransactionInput input : transaction.inputs) {
+                        TransactionOutput output = UTXOs.get(input.transactionOutputId);
+                        if (output != null) {
+                            spent.add(output);
+                        }
+                    }
+                    applyChanges(spent, transaction.outputs);
+                }
+            }
+
+            genesisTransaction = (blockCount > 0) ? blocks[0].transactions.get(0) : null;
+            if (snapshot != null) {
+                validator.setCheckpoint(snapshot.height, snapshot.blockHash, checkpoint);
+                EventLog.info("Loaded UTXO snapshot at height " + snapshot.height + " (" + snapshot.outputs
+                        + " outputs), replayed " + (stored.length - replayFrom) + " blocks");
+            }
+            blockStore = store;
+            index.attach(store.getDirectory(), getBlocks());
+            pruneIfDue();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Fills the UTXO set, the owner index and a copy for the validator from a
+     * snapshot (caller holds the write lock)
+     *
+     * @return The validator's copy, or null if the snapshot could not be read
+     */
+    private UTXOStore loadSnapshot(UTXOSnapshot snapshot) {
+        long start = System.nanoTime();
+        UTXOStore checkpoint = UTXOs.createEmpty();
+        List<TransactionOutput> loaded = Collections.synchronizedList(new ArrayList<TransactionOutput>());
+        try {
+            snapshot.load(validator.getPool(), outputs -> {
+                for (TransactionOutput output : outputs) {
+                    UTXOs.put(output);
+                    checkpoint.put(output);
+                }
+                loaded.addAll(outputs);
+            });
+            owners.addAll(loaded, validator.getPool());
+        } catch (RuntimeException e) {
+            EventLog.warn("#UTXO snapshot " + snapshot.file + " is unusable: " + e.getMessage());
+            UTXOs.clear();
+            owners.clear();
+            return null;
+        }
+        Metrics.SNAPSHOT_LOAD.record(System.nanoTime() - start);
+        return checkpoint;
+    }
+
+    /**
+     * Writes a snapshot of the UTXO set next to the block store
+     * The chain is validated incrementally first and the snapshot is taken
+     * from the resulting checkpoint, so it reflects exactly the blocks up to
+     * its height. Older snapshots beyond SNAPSHOTS_KEPT are deleted.
+     *
+     * @return Snapshot written, or null if the chain is invalid
+     */
+    public UTXOSnapshot writeSnapshot() {
+        BlockStore store = blockStore;
+        if (store == null) {
+            throw new IllegalStateException("UTXO snapshots are kept next to the block store; none is set");
+        }
+        if (!isChainValid()) {
+            EventLog.warn("#Chain is invalid. No UTXO snapshot written.");
+            return null;
+        }
+        long start = System.nanoTime();
+        store.flush(); // A snapshot is only used once its block is on disk
+        UTXOSnapshot snapshot = validator.writeSnapshot(store.getDirectory());
+        if (snapshot == null) {
+            return null; // Checkpoint dropped by a concurrent failed validation
+        }
+        UTXOSnapshot.prune(store.getDirectory(), SNAPSHOTS_KEPT);
+        Metrics.SNAPSHOT_WRITE.record(System.nanoTime() - start);
+        EventLog.info("UTXO snapshot written at height " + snapshot.height + " (" + snapshot.outputs + " outputs)");
+        return snapshot;
+    }
+
+    /**
+     * Starts a background snapshot when the tip reaches a multiple of the
+     * snapshot interval (skipped while one is still being written)
+     */
+    private void snapshotIfDue() {
+        int interval = snapshotInterval;
+        int height = blockCount - 1;
+        if (interval <= 0 || blockStore == null || height <= 0 || height % interval != 0
+                || !snapshotting.compareAndSet(false, true)) {
+            return;
+        }
+        validator.getPool().execute(() -> {
+            try {
+                writeSnapshot();
+            } catch (RuntimeException e) {
+                EventLog.error("UTXO snapshot failed: " + e.getMessage());
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Validates the blockchain
+     * Only blocks appended since the last successful check are validated
+     *
+     * @return true if blockchain is valid
+     */
+    public boolean isChainValid() {
+        // Signatures and proof-of-work are checked in parallel, UTXOs in order
+        return validator.validateIncremental(getBlocks(), genesisTransaction, difficulty, UTXOs);
+    }
+
+    /**
+     * Re-verifies the entire blockchain from genesis (audit)
+     *
+     * @return true if blockchain is valid
+     */
+    public boolean auditChain() {
+        return validator.validate(getBlocks(), genesisTransaction, difficulty, UTXOs.createEmpty());
+    }
+
+    // Configuration
+
+    public int getDifficulty() {
+        return difficulty;
+    }
+
+    public void setDifficulty(int difficulty) {
+        this.difficulty = difficulty;
+    }
+
+    public float getMinimumTransaction() {
+        return minimumTransaction;
+    }
+
+    public void setMinimumTransaction(float minimumTransaction) {
+        this.minimumTransaction = minimumTransaction;
+    }
+
+    public int getMinerThreads() {
+        return minerThreads;
+    }
+
+    public void setMinerThreads(int minerThreads) {
+        this.minerThreads = minerThreads;
+    }
+
+    public int getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @param snapshotInterval Blocks between background UTXO snapshots (0 = none)
+     */
+    public void setSnapshotInterval(int snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public int getPruneDepth() {
+        return pruneDepth;
+    }
+
+    /**
+     * Turns pruning on: blocks more than pruneDepth blocks below the tip can
+     * no longer be reorganized away, and their bodies are dropped once all
+     * their outputs are spent. Takes effect with the next block; pruning
+     * cannot be turned off again for blocks already pruned.
+     *
+     * @param pruneDepth Blocks below the tip whose bodies are always kept (0 = never prune)
+     */
+    public void setPruneDepth(int pruneDepth) {
+        this.pruneDepth = pruneDepth;
+    }
+
+    /**
+     * @return Height of the last block that can no longer be disconnected (-1 if none)
+     */
+    public int getPruneHeight() {
+        writeLock.lock();
+        try {
+            return pruneHeight;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of blocks up to the prune height still holding their bodies
+     */
+    public int getRetainedBlocks() {
+        writeLock.lock();
+        try {
+            return retained.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public BlockStore getBlockStore() {
+        return blockStore;
+    }
+
+    /**
+     * Sets the store every appended block is written to; the chain index is
+     * persisted in the same directory
+     * Index journal entries for blocks this chain does not hold are dropped,
+     * so a stored chain should be reopened with load() instead.
+     *
+     * @param blockStore Block store (null for none)
+     */
+    public void setBlockStore(BlockStore blockStore) {
+        writeLock.lock();
+        try {
+            this.blockStore = blockStore;
+            if (blockStore != null) {
+                index.attach(blockStore.getDirectory(), getBlocks());
+            } else {
+                index.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public Transaction getGenesisTransaction() {
+        return genesisTransaction;
+    }
+
+    /**
+     * Returns the pool of transactions waiting for the next block
+     * The pool is created on first use rather than in the constructor, so it
+     * never sees a partly constructed chain.
+     *
+     * @return Mempool of this chain
+     */
+    public Mempool getMempool() {
+        Mempool pool = mempool.get();
+        if (pool == null) {
+            mempool.compareAndSet(null, new Mempool(this, Mempool.DEFAULT_CAPACITY));
+            pool = mempool.get();
+        }
+        return pool;
+    }
+
+    /**
+     * Stops the miner and validator threads and closes the chain index journal
+     */
+    public synchronized void shutdown() {
+        if (miner != null) {
+            miner.shutdown();
+            miner = null;
+        }
+        validator.shutdown();
+        writeLock.lock();
+        try {
+            index.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+}
\ No newline at end of file
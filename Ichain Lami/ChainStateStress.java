@@ -0,0 +1,243 @@
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Multi-threaded stress check for ChainState
+ * Worker threads make payments concurrently while reader threads query
+ * balances and a block producer mines and validates blocks. Afterwards every
+ * UTXO is accounted for: the total supply is unchanged, the UTXO store and
+ * the owner index hold exactly the same outputs, and no transaction id was
+ * issued twice. A second phase races pairs of transactions spending the same
+ * output; exactly one of each pair may win. Finally transactions signed by
+ * one wallet over another wallet's outputs must be refused, one at a time
+ * and in a batch.
+ * Exits with status 1 on the first violated invariant.
+ */
+public class ChainStateStress {
+
+    // Amounts are whole numbers so every balance is exact in float and double
+    private static final float SUPPLY = 1_000_000f;
+    private static final float FUNDING = 10_000f;
+
+    /**
+     * Usage: ChainStateStress [workers] [walletsPerWorker] [paymentsPerWorker] [doubleSpendRounds]
+     */
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        final int workers = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        final int walletsPerWorker = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        final int payments = (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        int doubleSpendRounds = (args.length > 3) ? Integer.parseInt(args[3]) : 200;
+
+        final ChainState chain = ChainHarness.newChain();
+
+        // Fund every wallet from genesis in block 1
+        final Wallet treasury = new Wallet();
+        final Wallet[] wallets = ChainHarness.wallets(workers * walletsPerWorker);
+        ChainHarness.addGenesis(chain, treasury.address, SUPPLY);
+
+        Stina funding = new Stina(chain.getTip().hash);
+        for (Wallet wallet : wallets) {
+            ChainHarness.check(funding.addTransaction(treasury.sendFunds(chain, wallet.address, FUNDING), chain),
+                    "funding transaction rejected");
+        }
+        chain.addBlock(funding);
+        final Wallet producer = new Wallet();
+        chain.addBlock(blockOf(chain, treasury, producer, 1_000f));
+
+        final List<Hash256> issued = Collections.synchronizedList(new ArrayList<Hash256>());
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(workers);
+        long start = System.nanoTime();
+
+        // Workers: each owns its own wallets and pays random wallets directly
+        for (int w = 0; w < workers; w++) {
+            final int worker = w;
+            new Thread(() -> {
+                Random random = new Random(worker);
+                for (int p = 0; p < payments; p++) {
+                    Wallet from = wallets[worker * walletsPerWorker + random.nextInt(walletsPerWorker)];
+                    Wallet to = wallets[random.nextInt(wallets.length)];
+                    Transaction transaction = from.sendFunds(chain, to.address, 1 + random.nextInt(50));
+                    if (transaction != null && transaction.processTransaction(chain)) {
+                        issued.add(transaction.transactionId);
+                        accepted.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }, "worker-" + w).start();
+        }
+
+        // Readers: balances must stay within the supply while payments are applied
+        ArrayList<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < 2; r++) {
+            Thread reader = new Thread(() -> {
+                while (running.get()) {
+                    for (Wallet wallet : wallets) {
+                        float balance = wallet.getBalance(chain);
+                        if (balance < 0 || balance > SUPPLY) {
+                            failures.add("balance out of range: " + balance);
+                        }
+                    }
+                }
+            }, "reader-" + r);
+            reader.start();
+            readers.add(reader);
+        }
+
+        // Producer: mines blocks paying back to the treasury and validates them
+        Thread blocks = new Thread(() -> {
+            while (running.get()) {
+                chain.addBlock(blockOf(chain, producer, treasury, 1f));
+                if (!chain.isChainValid()) {
+                    failures.add("chain invalid at height " + (chain.size() - 1));
+                }
+            }
+        }, "producer");
+        blocks.start();
+
+        done.await();
+        running.set(false);
+        blocks.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ChainHarness.check(failures.isEmpty(), failures.isEmpty() ? "" : failures.get(0));
+
+        // Every unit of the supply is still owned exactly once
+        ArrayList<Wallet> everyone = new ArrayList<Wallet>();
+        Collections.addAll(everyone, wallets);
+        everyone.add(treasury);
+        everyone.add(producer);
+        checkConservation(chain, everyone);
+        ChainHarness.check(new HashSet<Hash256>(issued).size() == issued.size(), "transaction id issued twice");
+        ChainHarness.check(chain.auditChain(), "audit failed");
+        System.out.printf("Payments: %d accepted by %d workers in %.2f s, %d blocks, %d UTXOs%n",
+                accepted.get(), workers, seconds, chain.size(), chain.getUTXOs().size());
+
+        // Two threads race to spend the same output; exactly one may succeed
+        int[] wins = new int[3];
+        for (int round = 0; round < doubleSpendRounds; round++) {
+            Wallet payer = wallets[round % wallets.length];
+            Wallet single = new Wallet();
+            ChainHarness.check(payer.sendFunds(chain, single.address, 5f).processTransaction(chain),
+                    "setup payment failed");
+            Transaction a = single.sendFunds(chain, wallets[0].address, 5f);
+            Transaction b = single.sendFunds(chain, wallets[1].address, 5f);
+            wins[race(a, b, chain)]++;
+            everyone.add(single);
+        }
+        ChainHarness.check(wins[0] == 0 && wins[2] == 0, "double spend race: " + wins[0] + " with no winner, "
+                + wins[2] + " with two winners");
+        checkConservation(chain, everyone);
+        System.out.println("Double spend races: " + wins[1] + "/" + doubleSpendRounds + " with exactly one winner");
+
+        // A wallet cannot spend outputs it does not own, alone or in a batch
+        Wallet thief = new Wallet();
+        List<Transaction> thefts = new ArrayList<Transaction>();
+        for (int i = 0; i < 4; i++) {
+            thefts.add(foreignSpend(chain, wallets[i], thief));
+        }
+        ChainHarness.check(!thefts.get(0).processTransaction(chain), "foreign input spent");
+        for (boolean processed : Transaction.processTransactions(thefts.subList(1, thefts.size()), chain)) {
+            ChainHarness.check(!processed, "foreign input spent in a batch");
+        }
+        ChainHarness.check(chain.getBalance(thief.address) == 0, "thief holds " + chain.getBalance(thief.address));
+        everyone.add(thief);
+        checkConservation(chain, everyone);
+        chain.addBlock(blockOf(chain, producer, treasury, 1f));
+        ChainHarness.check(chain.isChainValid(), "chain invalid after foreign spends");
+        System.out.println("Foreign input spends: " + thefts.size() + " refused");
+
+        chain.shutdown();
+        System.out.println("ChainState stress passed");
+    }
+
+    /**
+     * Creates a block with one payment from a wallet only the calling thread uses
+     */
+    private static Stina blockOf(ChainState chain, Wallet from, Wallet to, float value) {
+        Stina block = new Stina(chain.getTip().hash);
+        block.addTransaction(from.sendFunds(chain, to.address, value), chain);
+        return block;
+    }
+
+    /**
+     * Signs, as the thief, a payment to itself of the owner's first output
+     */
+    private static Transaction foreignSpend(ChainState chain, Wallet owner, Wallet thief) {
+        TransactionOutput output = owner.getUTXOs(chain).iterator().next();
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        inputs.add(new TransactionInput(output.id));
+        Transaction transaction = new Transaction(thief.address, thief.address, output.value, inputs);
+        transaction.generateSignature(thief.privateKey);
+        return transaction;
+    }
+
+    /**
+     * Processes two transactions at the same moment on two threads
+     *
+     * @return Number of transactions that succeeded
+     */
+    private static int race(final Transaction a, final Transaction b, final ChainState chain) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger wins = new AtomicInteger();
+        Thread other = new Thread(() -> {
+            if (await(barrier) && b.processTransaction(chain)) {
+                wins.incrementAndGet();
+            }
+        });
+        other.start();
+        if (await(barrier) && a.processTransaction(chain)) {
+            wins.incrementAndGet();
+        }
+        other.join();
+        return wins.get();
+    }
+
+    private static boolean await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+            return true;
+        } catch (Exception e) {
+            throw new RuntimeException("Race barrier broken", e);
+        }
+    }
+
+    /**
+     * Checks the supply is unchanged and the store and owner index agree output by output
+     */
+    private static void checkConservation(ChainState chain, List<Wallet> wallets) {
+        double total = 0;
+        int indexed = 0;
+        HashSet<Hash256> seen = new HashSet<Hash256>();
+        for (Wallet wallet : wallets) {
+            double sum = 0;
+            for (TransactionOutput output : wallet.getUTXOs(chain)) {
+                ChainHarness.check(seen.add(output.id), "output " + output.id + " owned twice");
+                TransactionOutput stored = chain.getUTXOs().get(output.id);
+                ChainHarness.check(stored != null && stored.value == output.value,
+                        "output " + output.id + " missing from store");
+                sum += output.value;
+                indexed++;
+            }
+            ChainHarness.check(sum == wallet.getBalance(chain), "balance drifted from outputs: " + sum + " vs "
+                    + wallet.getBalance(chain));
+            total += sum;
+        }
+        ChainHarness.check(indexed == chain.getUTXOs().size(), "store holds " + chain.getUTXOs().size()
+                + " outputs, owner index " + indexed);
+        ChainHarness.check(total == SUPPLY, "supply changed: " + total);
+    }
+}
\ No newline at end of file
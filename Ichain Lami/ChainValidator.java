@@ -0,0 +1,697 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Validates a chain in two phases
+ * Phase 1 checks block hashes, links, proof-of-work, merkle roots and every
+ * transaction signature in parallel on a fork-join pool; none of these
+ * depend on the UTXO set. Phase 2 walks the chain in order, applies transactions to a
+ * scratch UTXO set and reports failures in exactly the same order (and with
+ * the same messages) as the original serial validation, using the
+ * precomputed phase 1 results.
+ *
+ * After a successful run the validator keeps a checkpoint (validated height,
+ * tip hash and the resulting UTXO set), so validateIncremental() only checks
+ * blocks appended since then. validate() always replays from genesis and is
+ * meant for audits.
+ *
+ * When the chain prunes old block bodies, the validator also keeps a prune
+ * base: the UTXO set after the last block that may be pruned. Blocks up to
+ * the base are then only checked by header (hash, link and proof-of-work)
+ * and full runs apply transactions from the base onwards.
+ */
+public class ChainValidator {
+
+    // Header and body check results
+    private static final byte HEADER_OK = 0;
+    private static final byte HASH_MISMATCH = 1;
+    private static final byte PREV_HASH_MISMATCH = 2;
+    private static final byte NOT_MINED = 3;
+    private static final byte MERKLE_MISMATCH = 4;
+    private static final byte DUPLICATE_TRANSACTION = 5;
+
+    // Pool for the parallel phase
+    private final ForkJoinPool pool;
+
+    // Cache of already verified signatures (null to verify every one)
+    private final SignatureCache signatureCache;
+
+    // Last successfully validated state (null until the first successful run)
+    private Checkpoint checkpoint;
+
+    // UTXO set after the last prunable block (null while nothing is pruned)
+    private Checkpoint base;
+
+    /**
+     * Constructor
+     *
+     * @param parallelism Number of threads for the parallel phase
+     */
+    public ChainValidator(int parallelism) {
+        this(parallelism, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param parallelism    Number of threads for the parallel phase
+     * @param signatureCache Cache of already verified signatures (null for none)
+     */
+    public ChainValidator(int parallelism, SignatureCache signatureCache) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.signatureCache = signatureCache;
+    }
+
+    /**
+     * Validates the whole chain from genesis (audit mode)
+     * With a prune base, blocks up to the base are checked by header only and
+     * transactions are applied from the base's UTXO set.
+     * Replaces the checkpoint on success and drops it on failure.
+     *
+     * @param chain              Blocks in height order
+     * @param genesisTransaction Transaction holding the genesis UTXO
+     * @param difficulty         Required number of leading hex zeros
+     * @param scratch            Empty UTXO store used as the working set
+     * @return true if the chain is valid
+     */
+    public synchronized boolean validate(List<Stina> chain, Transaction genesisTransaction, int difficulty,
+            UTXOStore scratch) {
+        ChainEvents.ChainValidated event = new ChainEvents.ChainValidated();
+        event.begin();
+        long start = System.nanoTime();
+        checkpoint = null;
+
+        int from = 0;
+        if (base == null) {
+            // Start with genesis UTXO
+            scratch.put(genesisTransaction.outputs.get(0));
+        } else {
+            // Pruned history: headers only, then start from the base's UTXO set
+            if (!checkHeaders(chain, base.height, base.tipHash, difficulty)) {
+                return finish(event, start, chain.size() - 1, false, false);
+            }
+            base.utxos.forEach(scratch::put);
+            from = base.height;
+        }
+        if (!run(chain, from, difficulty, scratch, null)) {
+            return finish(event, start, chain.size() - 1, false, false);
+        }
+
+        checkpoint = new Checkpoint(chain.size() - 1, chain.get(chain.size() - 1).hash, scratch);
+        EventLog.info("Blockchain is valid");
+        return finish(event, start, chain.size() - 1, false, true);
+    }
+
+    /**
+     * Validates only the blocks appended since the last checkpoint
+     * Falls back to a full validation when there is no checkpoint yet, the
+     * block at the checkpoint height is no longer the one that was validated,
+     * or the checkpoint is below the prune base (blocks after it may be pruned).
+     *
+     * @param chain              Blocks in height order
+     * @param genesisTransaction Transaction holding the genesis UTXO
+     * @param difficulty         Required number of leading hex zeros
+     * @param engine             UTXO store whose engine is used for a full run
+     * @return true if the chain is valid
+     */
+    public synchronized boolean validateIncremental(List<Stina> chain, Transaction genesisTransaction,
+            int difficulty, UTXOStore engine) {
+        if (checkpoint == null || checkpoint.height >= chain.size()
+                || !chain.get(checkpoint.height).hash.equals(checkpoint.tipHash)
+                || (base != null && checkpoint.height < base.height)) {
+            return validate(chain, genesisTransaction, difficulty, engine.createEmpty());
+        }
+
+        ChainEvents.ChainValidated event = new ChainEvents.ChainValidated();
+        event.begin();
+        long start = System.nanoTime();
+        int blocks = chain.size() - 1 - checkpoint.height;
+
+        // Apply new blocks to the checkpoint set, undoing them if any is invalid
+        ArrayList<Change> journal = new ArrayList<Change>();
+        if (!run(chain, checkpoint.height, difficulty, checkpoint.utxos, journal)) {
+            for (int i = journal.size() - 1; i >= 0; i--) {
+                journal.get(i).undo(checkpoint.utxos);
+            }
+            return finish(event, start, blocks, true, false);
+        }
+
+        checkpoint = new Checkpoint(chain.size() - 1, chain.get(chain.size() - 1).hash, checkpoint.utxos);
+        EventLog.info("Blockchain is valid");
+        return finish(event, start, blocks, true, true);
+    }
+
+    /**
+     * Records metrics and the JFR event for one validation run
+     *
+     * @return valid, unchanged
+     */
+    private static boolean finish(ChainEvents.ChainValidated event, long start, int blocks, boolean incremental,
+            boolean valid) {
+        Metrics.VALIDATION_TIME.record(System.nanoTime() - start);
+        Metrics.BLOCKS_VALIDATED.add(blocks);
+        if (!valid) {
+            Metrics.VALIDATION_FAILURES.increment();
+        }
+        if (event.shouldCommit()) {
+            event.blocks = blocks;
+            event.incremental = incremental;
+            event.valid = valid;
+            event.commit();
+        }
+        return valid;
+    }
+
+    /**
+     * @return Last successfully validated state, or null
+     */
+    public synchronized Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Forgets the checkpoint so the next incremental run replays from genesis
+     */
+    public synchronized void resetCheckpoint() {
+        checkpoint = null;
+    }
+
+    /**
+     * Starts from a UTXO set that is already known to reflect every block up
+     * to a height, e.g. one loaded from a snapshot, so the next incremental
+     * run only checks the blocks after it
+     *
+     * @param height  Height of the last block applied to the set
+     * @param tipHash Hash of that block
+     * @param utxos   UTXO set, owned by the validator from now on
+     */
+    synchronized void setCheckpoint(int height, Hash256 tipHash, UTXOStore utxos) {
+        checkpoint = new Checkpoint(height, tipHash, utxos);
+    }
+
+    /**
+     * @return UTXO set after the last prunable block, or null while nothing is pruned
+     */
+    public synchronized Checkpoint getBase() {
+        return base;
+    }
+
+    /**
+     * Moves the prune base up by one block of the active chain
+     * Must be called before the block's body, or the body of any block up to
+     * it, is pruned; the block can no longer be disconnected afterwards.
+     *
+     * @param height    Height of the block: 0 to start the base, then one above it
+     * @param blockHash Hash of the block
+     * @param undo      The block's net UTXO changes
+     * @param engine    UTXO store whose engine holds the base
+     */
+    synchronized void advanceBase(int height, Hash256 blockHash, BlockTree.Undo undo, UTXOStore engine) {
+        int expected = (base == null) ? 0 : base.height + 1;
+        if (height != expected) {
+            throw new IllegalStateException("Prune base expects height " + expected + ", got " + height);
+        }
+        UTXOStore utxos = (base == null) ? engine.createEmpty() : base.utxos;
+        for (TransactionOutput output : undo.spent) {
+            utxos.remove(output.id);
+        }
+        for (TransactionOutput output : undo.created) {
+            utxos.put(output);
+        }
+        base = new Checkpoint(height, blockHash, utxos);
+    }
+
+    /**
+     * Forgets the prune base, e.g. before the chain is reloaded
+     */
+    synchronized void resetBase() {
+        base = null;
+    }
+
+    /**
+     * Writes the checkpoint's UTXO set as a snapshot
+     * Holds the validator's lock, so the set cannot change while it is written.
+     *
+     * @param directory Directory for the snapshot
+     * @return Snapshot file, or null if there is no checkpoint
+     */
+    synchronized UTXOSnapshot writeSnapshot(Path directory) {
+        if (checkpoint == null) {
+            return null;
+        }
+        return UTXOSnapshot.open(UTXOSnapshot.write(directory, checkpoint.height, checkpoint.tipHash, checkpoint.utxos));
+    }
+
+    /**
+     * Validates the blocks after a starting height against a UTXO set that
+     * already reflects every block up to and including that height
+     *
+     * @param chain      Blocks in height order
+     * @param from       Height of the last already-applied block
+     * @param difficulty Required number of leading hex zeros
+     * @param tempUTXOs  Working UTXO set
+     * @param journal    Receives every change to tempUTXOs (null if not needed)
+     * @return true if all checked blocks are valid
+     */
+    private boolean run(final List<Stina> chain, int from, final int difficulty, UTXOStore tempUTXOs,
+            List<Change> journal) {
+        final int blocks = chain.size();
+        final byte[] headers = new byte[blocks];
+        final Object[][] signatures = new Object[blocks][];
+
+        // Phase 1: header, PoW and signature checks in parallel
+        pool.submit(() -> IntStream.range(from + 1, blocks).parallel().forEach(i -> {
+            Stina block = chain.get(i);
+            headers[i] = checkHeader(block, chain.get(i - 1), difficulty);
+            if (headers[i] == HEADER_OK) {
+                headers[i] = checkBody(block);
+            }
+
+            List<Transaction> transactions = block.transactions;
+            Object[] results = new Object[transactions.size()];
+            IntStream.range(0, results.length).parallel().forEach(t -> {
+                results[t] = checkSignature(transactions.get(t), signatureCache);
+            });
+            signatures[i] = results;
+        })).join();
+
+        // Phase 2: ordered UTXO application
+        for (int i = from + 1; i < blocks; i++) {
+            Stina currentBlock = chain.get(i);
+
+            if (!reportHeader(headers[i])) {
+                return false;
+            }
+
+            if (!applyTransactions(currentBlock, signatures[i], tempUTXOs, journal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the headers of every block up to a height in parallel, without
+     * looking at their transactions
+     *
+     * @param chain      Blocks in height order
+     * @param height     Last block to check
+     * @param hash       Expected hash of that block
+     * @param difficulty Required number of leading hex zeros
+     * @return true if every header is valid and the chain holds the expected block
+     */
+    private boolean checkHeaders(final List<Stina> chain, int height, Hash256 hash, final int difficulty) {
+        if (height >= chain.size() || !chain.get(height).hash.equals(hash)) {
+            EventLog.warn("#Chain does not contain the pruned block at height " + height);
+            return false;
+        }
+        final byte[] headers = new byte[height + 1];
+        pool.submit(() -> IntStream.rangeClosed(1, height).parallel().forEach(i -> {
+            headers[i] = checkHeader(chain.get(i), chain.get(i - 1), difficulty);
+        })).join();
+        for (int i = 1; i <= height; i++) {
+            if (!reportHeader(headers[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates one block on top of its parent without changing any state,
+     * e.g. before a chain reorganization connects it
+     * Signatures are checked in parallel; the block's transactions are then
+     * applied to a private overlay of the UTXO set, whose net changes become
+     * the block's undo log.
+     *
+     * @param block         Block to check
+     * @param previousBlock Its parent
+     * @param difficulty    Required number of leading hex zeros
+     * @param utxos         UTXO set after the parent (only read)
+     * @return The block's UTXO changes, or null if it is invalid
+     */
+    BlockTree.Undo checkBlock(Stina block, Stina previousBlock, int difficulty, UTXOStore utxos) {
+        if (!reportHeader(checkHeader(block, previousBlock, difficulty)) || !matchesHeader(block)) {
+            return null;
+        }
+
+        List<Transaction> transactions = block.transactions;
+        Object[] signatures = new Object[transactions.size()];
+        pool.submit(() -> IntStream.range(0, signatures.length).parallel().forEach(t -> {
+            signatures[t] = checkSignature(transactions.get(t), signatureCache);
+        })).join();
+
+        Overlay overlay = new Overlay(utxos);
+        if (!applyTransactions(block, signatures, overlay, null)) {
+            return null;
+        }
+        return new BlockTree.Undo(new ArrayList<TransactionOutput>(overlay.removed.values()),
+                new ArrayList<TransactionOutput>(overlay.added.values()));
+    }
+
+    /**
+     * Logs a failed header check
+     *
+     * @return true if the header is valid
+     */
+    private static boolean reportHeader(byte header) {
+        switch (header) {
+            case HASH_MISMATCH:
+                EventLog.warn("#Current Hashes not equal");
+                return false;
+            case PREV_HASH_MISMATCH:
+                EventLog.warn("#Previous Hashes not equal");
+                return false;
+            case NOT_MINED:
+                EventLog.warn("#This block hasn't been mined");
+                return false;
+            case MERKLE_MISMATCH:
+                EventLog.warn("#Merkle root does not match the block's transactions");
+                return false;
+            case DUPLICATE_TRANSACTION:
+                EventLog.warn("#Block lists a transaction id more than once");
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Checks one block's transactions and applies them to the working set
+     *
+     * @param block      Block to apply
+     * @param signatures Phase 1 result per transaction (Boolean or RuntimeException)
+     * @param tempUTXOs  Working UTXO set
+     * @param journal    Receives every change to tempUTXOs (null if not needed)
+     * @return true if all transactions are valid
+     */
+    private static boolean applyTransactions(Stina block, Object[] signatures, UTXOStore tempUTXOs,
+            List<Change> journal) {
+        for (int t = 0; t < block.transactions.size(); t++) {
+            Transaction currentTransaction = block.transactions.get(t);
+
+            // Verify transaction signature (rethrow a verification error in its original position)
+            if (signatures[t] instanceof RuntimeException) {
+                throw (RuntimeException) signatures[t];
+            }
+            if (!((Boolean) signatures[t])) {
+                EventLog.warn("#Signature on Transaction(" + t + ") is Invalid");
+                return false;
+            }
+
+            // Verify the id is derived from the signed fields and inputs, not just claimed
+            if (currentTransaction.inputs.isEmpty()
+                    || !currentTransaction.calculateHash().equals(currentTransaction.transactionId)) {
+                EventLog.warn("#Transaction(" + t + ") id does not match its contents");
+                return false;
+            }
+
+            // Verify the outputs are one payment and at most one change output
+            if (!checkOutputs(currentTransaction, t)) {
+                return false;
+            }
+
+            // Verify all inputs exist in UTXO set and belong to the sender; their
+            // values come from the set, never from the transmitted transaction
+            double inputsValue = 0;
+            for (TransactionInput input : currentTransaction.inputs) {
+                TransactionOutput tempOutput = tempUTXOs.get(input.transactionOutputId);
+
+                if (tempOutput == null) {
+                    EventLog.warn("#Referenced input on Transaction(" + t + ") is Missing");
+                    return false;
+                }
+
+                if (!tempOutput.isMine(currentTransaction.sender)) {
+                    EventLog.warn("#Referenced input on Transaction(" + t + ") is not owned by the sender");
+                    return false;
+                }
+                inputsValue += tempOutput.value;
+
+                // Remove spent UTXO from temp set
+                tempUTXOs.remove(input.transactionOutputId);
+                if (journal != null) {
+                    journal.add(new Change(tempOutput, false));
+                }
+            }
+
+            // Verify input/output values match
+            if (!Transaction.isBalanced((float) inputsValue, currentTransaction.getOutputsValue())) {
+                EventLog.warn("#Inputs are not equal to outputs on Transaction(" + t + ")");
+                return false;
+            }
+
+            // Add new outputs to temp UTXO set
+            for (TransactionOutput output : currentTransaction.outputs) {
+                tempUTXOs.put(output);
+                if (journal != null) {
+                    journal.add(new Change(output, true));
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a transaction's outputs: the payment of the signed value to the
+     * recipient, optionally followed by change to the sender, every value
+     * positive and every id recomputed from the output's fields
+     *
+     * @param transaction Transaction whose id is already verified
+     * @param t           Position in the block, for the log
+     * @return true if the outputs are well formed
+     */
+    private static boolean checkOutputs(Transaction transaction, int t) {
+        List<TransactionOutput> outputs = transaction.outputs;
+        if (outputs.isEmpty() || outputs.size() > 2) {
+            EventLog.warn("#Transaction(" + t + ") has " + outputs.size() + " outputs");
+            return false;
+        }
+
+        // Verify output recipients are correct
+        if (!outputs.get(0).recipient.equals(transaction.recipient)) {
+            EventLog.warn("#Transaction(" + t + ") output recipient is not who it should be");
+            return false;
+        }
+        if (outputs.get(0).value != transaction.value) {
+            EventLog.warn("#Transaction(" + t + ") output value is not the signed value");
+            return false;
+        }
+
+        // Verify change output goes back to sender
+        if (outputs.size() > 1 && !outputs.get(1).recipient.equals(transaction.sender)) {
+            EventLog.warn("#Transaction(" + t + ") output 'change' is not sender.");
+            return false;
+        }
+
+        for (int o = 0; o < outputs.size(); o++) {
+            TransactionOutput output = outputs.get(o);
+            if (!(output.value > 0) || !transaction.transactionId.equals(output.parentTransactionId)
+                    || !TransactionOutput.idOf(output.recipient, output.value, transaction.transactionId, o)
+                            .equals(output.id)) {
+                EventLog.warn("#Transaction(" + t + ") output " + o + " is Invalid");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks a block's hash, its link to the previous block and its proof-of-work
+     */
+    private static byte checkHeader(Stina block, Stina previousBlock, int difficulty) {
+        // Verify current block's hash is correct
+        if (!block.hash.equals(block.calculateHash())) {
+            return HASH_MISMATCH;
+        }
+        // Verify link to previous block
+        if (!previousBlock.hash.equals(block.prevHash)) {
+            return PREV_HASH_MISMATCH;
+        }
+        // Verify proof-of-work was done
+        if (block.hash.leadingZeroBits() < difficulty * 4) {
+            return NOT_MINED;
+        }
+        return HEADER_OK;
+    }
+
+    /**
+     * Checks that a block's transactions are the ones its header commits to
+     * Duplicate ids are refused first: the tree pairs an odd last node with
+     * itself, so repeating trailing transactions can keep the root unchanged.
+     * A mismatch says nothing about the header, which another body may match.
+     */
+    private static byte checkBody(Stina block) {
+        HashSet<Hash256> ids = new HashSet<Hash256>(block.transactions.size() * 2);
+        for (Transaction transaction : block.transactions) {
+            if (transaction.transactionId == null) {
+                return MERKLE_MISMATCH;
+            }
+            if (!ids.add(transaction.transactionId)) {
+                return DUPLICATE_TRANSACTION;
+            }
+        }
+        if (!MerkleTree.of(block.transactions).getRootHex().equals(block.merkleRoot)) {
+            return MERKLE_MISMATCH;
+        }
+        return HEADER_OK;
+    }
+
+    /**
+     * Checks a block's transactions against its merkle root, logging a mismatch
+     *
+     * @param block Block with its body
+     * @return true if the body is the one the header commits to
+     */
+    static boolean matchesHeader(Stina block) {
+        return reportHeader(checkBody(block));
+    }
+
+    /**
+     * Verifies a signature, capturing a verification error instead of throwing
+     * so it can be reported in chain order by phase 2
+     */
+    private static Object checkSignature(Transaction transaction, SignatureCache cache) {
+        try {
+            return transaction.verifySignature(cache);
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    /**
+     * @return Pool for the parallel phase, shared with batch transaction processing
+     */
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Stops the validation pool
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Validated chain state: height and hash of the last checked block plus
+     * the UTXO set after applying every block up to it
+     */
+    public static class Checkpoint {
+        public final int height;
+        public final Hash256 tipHash;
+        final UTXOStore utxos;
+
+        Checkpoint(int height, Hash256 tipHash, UTXOStore utxos) {
+            this.height = height;
+            this.tipHash = tipHash;
+            this.utxos = utxos;
+        }
+
+        /**
+         * @return Number of unspent outputs at the checkpoint
+         */
+        public int getUTXOCount() {
+            return utxos.size();
+        }
+    }
+
+    /**
+     * One change to the working UTXO set, kept so an incremental run can be undone
+     */
+    private static class Change {
+        final TransactionOutput output;
+        final boolean added;
+
+        Change(TransactionOutput output, boolean added) {
+            this.output = output;
+            this.added = added;
+        }
+
+        void undo(UTXOStore utxos) {
+            if (added) {
+                utxos.remove(output.id);
+            } else {
+                utxos.put(output);
+            }
+        }
+    }
+
+    /**
+     * Changes layered over a UTXO set that is only read: outputs added on top
+     * of it and outputs of it that were removed
+     */
+    private static class Overlay implements UTXOStore {
+        final UTXOStore base;
+        final LinkedHashMap<Hash256, TransactionOutput> added = new LinkedHashMap<Hash256, TransactionOutput>();
+        final LinkedHashMap<Hash256, TransactionOutput> removed = new LinkedHashMap<Hash256, TransactionOutput>();
+
+        Overlay(UTXOStore base) {
+            this.base = base;
+        }
+
+        public TransactionOutput get(Hash256 id) {
+            TransactionOutput output = added.get(id);
+            if (output != null) {
+                return output;
+            }
+            return removed.containsKey(id) ? null : base.get(id);
+        }
+
+        public void put(TransactionOutput output) {
+            added.put(output.id, output);
+        }
+
+        public TransactionOutput remove(Hash256 id) {
+            TransactionOutput output = added.remove(id);
+            if (output != null) {
+                return output;
+            }
+            output = get(id);
+            if (output != null) {
+                removed.put(id, output);
+            }
+            return output;
+        }
+
+        public boolean contains(Hash256 id) {
+            return get(id) != null;
+        }
+
+        public int size() {
+            return base.size() + added.size() - removed.size();
+        }
+
+        public long getByteSize() {
+            return base.getByteSize();
+        }
+
+        public void forEach(Consumer<TransactionOutput> action) {
+            base.forEach(output -> {
+                if (!removed.containsKey(output.id) && !added.containsKey(output.id)) {
+                    action.accept(output);
+                }
+            });
+            added.values().forEach(action);
+        }
+
+        /**
+         * Empties the view without touching the base: its own outputs are
+         * dropped and every base output is recorded as spent
+         */
+        public void clear() {
+            added.clear();
+            base.forEach(output -> removed.put(output.id, output));
+        }
+
+        public UTXOStore createEmpty() {
+            return base.createEmpty();
+        }
+    }
+}
\ No newline at end of file
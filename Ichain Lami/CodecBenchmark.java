@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.Security;
+import java.util.Arrays;
+
+/**
+ * Round-trip check and size/throughput comparison of the binary block codec
+ * against the Gson JSON path
+ */
+public class CodecBenchmark {
+
+    /**
+     * Builds a sample block, verifies both codecs round-trip it, then times them
+     * Usage: CodecBenchmark [transactions] [iterations]
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int transactions = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+        int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+
+        Stina block = sampleBlock(transactions);
+
+        // Round trips must reproduce the exact encoding and a valid block
+        byte[] binary = BlockCodec.toBytes(block);
+        Stina fromBinary = BlockCodec.decode(ByteBuffer.wrap(binary));
+        ChainHarness.check(Arrays.equals(binary, BlockCodec.toBytes(fromBinary)), "binary re-encoding differs");
+        ChainHarness.check(fromBinary.hash.equals(fromBinary.calculateHash()), "binary block hash mismatch");
+        for (Transaction transaction : fromBinary.transactions) {
+            ChainHarness.check(transaction.verifySignature(), "binary signature no longer verifies");
+        }
+
+        String json = BlockCodec.toJsonTree(block).toString();
+        Stina fromJson = BlockCodec.fromJson(json);
+        ChainHarness.check(Arrays.equals(binary, BlockCodec.toBytes(fromJson)), "JSON round trip differs");
+        System.out.println("Round trips OK (" + block.transactions.size() + " transactions)");
+
+        // Size comparison
+        int jsonBytes = json.getBytes(StandardCharsets.UTF_8).length;
+        System.out.printf("Size: binary %d bytes, JSON %d bytes (%.1fx smaller)%n",
+                binary.length, jsonBytes, jsonBytes / (double) binary.length);
+
+        // Throughput comparison (first half of the iterations is warm-up)
+        ByteBuffer buffer = ByteBuffer.allocate(binary.length);
+        long sink = 0;
+        long binaryEncode = 0, binaryDecode = 0, jsonEncode = 0, jsonDecode = 0;
+        for (int i = 0; i < iterations * 2; i++) {
+            boolean measure = i >= iterations;
+
+            long start = System.nanoTime();
+            buffer.clear();
+            BlockCodec.encode(block, buffer);
+            long mid = System.nanoTime();
+            buffer.flip();
+            sink += BlockCodec.decode(buffer).transactions.size();
+            long end = System.nanoTime();
+            if (measure) {
+                binaryEncode += mid - start;
+                binaryDecode += end - mid;
+            }
+
+            start = System.nanoTime();
+            String text = BlockCodec.toJsonTree(block).toString();
+            mid = System.nanoTime();
+            sink += BlockCodec.fromJson(text).transactions.size();
+            end = System.nanoTime();
+            if (measure) {
+                jsonEncode += mid - start;
+                jsonDecode += end - mid;
+            }
+        }
+
+        System.out.printf("Binary: encode %.0f blocks/s, decode %.0f blocks/s%n",
+                rate(iterations, binaryEncode), rate(iterations, binaryDecode));
+        System.out.printf("JSON:   encode %.0f blocks/s, decode %.0f blocks/s%n",
+                rate(iterations, jsonEncode), rate(iterations, jsonDecode));
+        if (sink == 0) {
+            System.out.println(); // Keeps the decode results observable
+        }
+    }
+
+    /**
+     * Creates a block with the given number of signed payments between wallets
+     */
+    private static Stina sampleBlock(int transactions) {
+        ChainState chain = new ChainState();
+        Wallet[] wallets = { new Wallet(), new Wallet(), new Wallet(), new Wallet() };
+        chain.createGenesisTransaction(new Wallet(), wallets[0].address, 1_000_000f);
+
+        Stina block = new Stina(StringUtil.applySha256("sample"));
+        for (int i = 0; i < transactions; i++) {
+            Wallet to = wallets[1 + i % (wallets.length - 1)];
+            block.addTransaction(wallets[0].sendFunds(chain, to.address, 1.5f + (i % 7) * 0.25f), chain);
+        }
+        block.mineBlock(1);
+        chain.shutdown();
+        return block;
+    }
+
+    private static double rate(int operations, long nanos) {
+        return operations * 1_000_000_000.0 / nanos;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,79 @@
+import java.security.Security;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+
+/**
+ * Compares coin selection strategies on a wallet holding many small outputs
+ * The baseline is the old sendFunds loop: take outputs in index order until
+ * the amount is covered.
+ */
+public class CoinSelectionBenchmark {
+
+    /**
+     * Usage: CoinSelectionBenchmark [outputs] [payments]
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int outputs = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        int payments = (args.length > 1) ? Integer.parseInt(args[1]) : 2_000;
+
+        // One owner with outputs worth 0.25 .. 50.00 in steps of 0.25
+        Address owner = new Wallet().address;
+        OwnerIndex index = new OwnerIndex();
+        Random random = new Random(42);
+        for (int i = 0; i < outputs; i++) {
+            float value = (1 + random.nextInt(200)) * 0.25f;
+            index.add(new TransactionOutput(StringUtil.applySha256("coin" + i), owner, value, Hash256.ZERO));
+        }
+        NavigableSet<TransactionOutput> byValue = index.getOutputsByValue(owner);
+
+        float[] targets = new float[payments];
+        for (int i = 0; i < payments; i++) {
+            targets[i] = (1 + random.nextInt(2_000)) * 0.25f; // Up to 500, often more than any single coin
+        }
+        System.out.println("Wallet: " + outputs + " outputs, " + payments + " payments");
+
+        // Second round is reported; the first warms up the JIT
+        for (int round = 0; round < 2; round++) {
+            boolean print = round == 1;
+
+            // Baseline: index order until covered
+            long start = System.nanoTime();
+            long inputs = 0;
+            for (float target : targets) {
+                double total = 0;
+                for (TransactionOutput coin : index.getOutputs(owner)) {
+                    total += coin.value;
+                    inputs++;
+                    if (total >= target) {
+                        break;
+                    }
+                }
+            }
+            report(print, "index order", payments, payments, inputs, System.nanoTime() - start);
+
+            for (CoinSelector.Strategy strategy : CoinSelector.Strategy.values()) {
+                start = System.nanoTime();
+                inputs = 0;
+                int solved = 0;
+                for (float target : targets) {
+                    List<TransactionOutput> selected = CoinSelector.select(byValue, target, strategy);
+                    if (selected != null) {
+                        solved++;
+                        inputs += selected.size();
+                    }
+                }
+                report(print, strategy.toString(), payments, solved, inputs, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static void report(boolean print, String name, int payments, int solved, long inputs, long nanos) {
+        if (!print) {
+            return;
+        }
+        System.out.printf("%-17s solved %5d/%d  %6.2f inputs/payment  %8.1f us/selection%n",
+                name, solved, payments, solved == 0 ? 0 : inputs / (double) solved, nanos / 1000.0 / payments);
+    }
+}
\ No newline at end of file
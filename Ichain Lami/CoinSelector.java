@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+
+/**
+ * Chooses which unspent outputs fund a payment
+ * Works on a wallet's outputs sorted by value (OwnerIndex.getOutputsByValue),
+ * so every strategy touches only the coins it considers instead of scanning
+ * the whole wallet:
+ * - LARGEST_FIRST: biggest coins until the amount is covered (fewest inputs
+ *   for a greedy pass)
+ * - BEST_SINGLE: the smallest single coin that covers the amount
+ * - BRANCH_AND_BOUND: depth-first search for a set of coins that adds up to
+ *   the amount exactly, so no change output is needed
+ * - AUTO: branch-and-bound, then best single, then largest-first
+ */
+public class CoinSelector {
+
+    /**
+     * Selection strategy
+     */
+    public enum Strategy {
+        LARGEST_FIRST,
+        BEST_SINGLE,
+        BRANCH_AND_BOUND,
+        AUTO
+    }
+
+    // Branch-and-bound limits: search steps, and how many coins it may combine
+    public static final int MAX_TRIES = 100_000;
+    public static final int MAX_CANDIDATES = 1_000;
+
+    /**
+     * Selects coins with the given strategy
+     *
+     * @param coins    Wallet's unspent outputs in value order
+     * @param target   Amount to cover
+     * @param strategy Selection strategy
+     * @return Selected outputs, or null if the strategy finds no solution
+     */
+    public static List<TransactionOutput> select(NavigableSet<TransactionOutput> coins, float target,
+            Strategy strategy) {
+        switch (strategy) {
+            case LARGEST_FIRST:
+                return largestFirst(coins, target);
+            case BEST_SINGLE:
+                return bestSingle(coins, target);
+            case BRANCH_AND_BOUND:
+                return branchAndBound(coins, target);
+            default:
+                List<TransactionOutput> selected = branchAndBound(coins, target);
+                if (selected == null) {
+                    selected = bestSingle(coins, target);
+                }
+                return (selected != null) ? selected : largestFirst(coins, target);
+        }
+    }
+
+    /**
+     * Takes the largest coins until the amount is covered
+     *
+     * @param coins  Wallet's unspent outputs in value order
+     * @param target Amount to cover
+     * @return Selected outputs, or null if the wallet cannot cover the amount
+     */
+    public static List<TransactionOutput> largestFirst(NavigableSet<TransactionOutput> coins, float target) {
+        ArrayList<TransactionOutput> selected = new ArrayList<TransactionOutput>();
+        double total = 0;
+        Iterator<TransactionOutput> largest = coins.descendingIterator();
+        while (total < target && largest.hasNext()) {
+            TransactionOutput coin = largest.next();
+            selected.add(coin);
+            total += coin.value;
+        }
+        return (total >= target) ? selected : null;
+    }
+
+    /**
+     * Takes the smallest single coin worth at least the amount
+     *
+     * @param coins  Wallet's unspent outputs in value order
+     * @param target Amount to cover
+     * @return One output, or null if no single coin covers the amount
+     */
+    public static List<TransactionOutput> bestSingle(NavigableSet<TransactionOutput> coins, float target) {
+        TransactionOutput coin = coins.ceiling(probe(target));
+        return (coin == null) ? null : Collections.singletonList(coin);
+    }
+
+    /**
+     * Searches for coins adding up to exactly the amount, using as few as possible
+     * At most MAX_CANDIDATES coins not above the amount are combined, largest
+     * values first, and the search stops after MAX_TRIES steps with the best
+     * set found so far.
+     *
+     * @param coins  Wallet's unspent outputs in value order
+     * @param target Amount to match
+     * @return Selected outputs, or null if no exact match was found
+     */
+    public static List<TransactionOutput> branchAndBound(NavigableSet<TransactionOutput> coins, float target) {
+        // Candidates in descending value order; coins of equal value are
+        // interchangeable, so each value contributes at most target / value copies
+        // (skip-list iteration is only cheap ascending, so each value run is read forwards)
+        ArrayList<TransactionOutput> candidates = new ArrayList<TransactionOutput>();
+        TransactionOutput coin = coins.lower(probe(Math.nextUp(target)));
+        while (coin != null && candidates.size() < MAX_CANDIDATES) {
+            float value = coin.value;
+            long copies = Math.min((long) (target / value), MAX_CANDIDATES - candidates.size());
+            Iterator<TransactionOutput> same = coins.tailSet(probe(value), true).iterator();
+            for (long c = 0; c < copies && same.hasNext(); c++) {
+                TransactionOutput next = same.next();
+                if (next.value != value) {
+                    break;
+                }
+                candidates.add(next);
+            }
+            coin = coins.lower(probe(value)); // Largest coin below this value
+        }
+        int n = candidates.size();
+
+        // available[i] = sum of candidates i..n-1, for pruning
+        double[] available = new double[n + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            available[i] = available[i + 1] + candidates.get(i).value;
+        }
+        if (available[0] < target) {
+            return null;
+        }
+
+        int[] chosen = new int[n];
+        int count = 0;
+        int[] best = null;
+        int bestCount = Integer.MAX_VALUE;
+        int depth = 0;
+        double total = 0;
+
+        for (int tries = 0; tries < MAX_TRIES; tries++) {
+            boolean backtrack;
+            if (total + available[depth] < target || total > target) {
+                backtrack = true; // Cannot reach the target, or overshot it
+            } else if (total == target) {
+                if (count < bestCount) {
+                    best = Arrays.copyOf(chosen, count);
+                    bestCount = count;
+                }
+                backtrack = true;
+            } else {
+                // Even the largest remaining coins cannot finish in fewer inputs than the best set
+                int needed = (int) Math.ceil((target - total) / candidates.get(depth).value);
+                backtrack = count + needed >= bestCount;
+            }
+
+            if (backtrack) {
+                if (count == 0) {
+                    break; // Search space exhausted
+                }
+                // Drop the last chosen coin and skip coins of equal value, which give the same sums
+                int last = chosen[--count];
+                total -= candidates.get(last).value;
+                depth = last + 1;
+                while (depth < n && candidates.get(depth).value == candidates.get(last).value) {
+                    depth++;
+                }
+            } else {
+                chosen[count++] = depth;
+                total += candidates.get(depth).value;
+                depth++;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+        ArrayList<TransactionOutput> selected = new ArrayList<TransactionOutput>(best.length);
+        for (int index : best) {
+            selected.add(candidates.get(index));
+        }
+        return selected;
+    }
+
+    /**
+     * Creates a search key that sorts before every real coin of the given value
+     */
+    private static TransactionOutput probe(float value) {
+        return new TransactionOutput(Hash256.ZERO, null, value, Hash256.ZERO);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous, leveled console log for the node
+ * Callers only filter by level and enqueue; one daemon thread writes the
+ * messages to System.out in order. When the queue is full, messages are
+ * dropped and counted instead of blocking mining or validation threads.
+ * Pending messages are flushed when the JVM exits. The level defaults to
+ * INFO and can be set with -Dnoobchain.log=DEBUG|INFO|WARN|ERROR|OFF.
+ */
+public final class EventLog {
+
+    /**
+     * Message severity, lowest first
+     */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
+
+    // Messages waiting to be written
+    public static final int QUEUE_CAPACITY = 16_384;
+    private static final ArrayBlockingQueue<String> queue = new ArrayBlockingQueue<String>(QUEUE_CAPACITY);
+
+    // Minimum level written
+    private static volatile Level level = Level.valueOf(System.getProperty("noobchain.log", "INFO").toUpperCase());
+
+    // Messages enqueued and written so far, for flush()
+    private static final AtomicLong enqueued = new AtomicLong();
+    private static volatile long written;
+    private static final LongAdder dropped = new LongAdder();
+
+    // Writer thread and how long it sleeps when the queue is empty; producers
+    // never wake it, so logging costs no context switch on the hot path
+    private static final long IDLE_NANOS = 5_000_000;
+    private static final Thread writer = new Thread(EventLog::drain, "event-log");
+
+    static {
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(EventLog::flush, "event-log-flush"));
+    }
+
+    private EventLog() {
+    }
+
+    /**
+     * @param messageLevel Level of a message about to be built
+     * @return true if messages of that level are written
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static void debug(String message) {
+        log(Level.DEBUG, message);
+    }
+
+    public static void info(String message) {
+        log(Level.INFO, message);
+    }
+
+    public static void warn(String message) {
+        log(Level.WARN, message);
+    }
+
+    public static void error(String message) {
+        log(Level.ERROR, message);
+    }
+
+    /**
+     * Queues a message if its level is enabled
+     * Never blocks: the message is dropped if the writer is too far behind.
+     *
+     * @param messageLevel Message level
+     * @param message      Text to write
+     */
+    public static void log(Level messageLevel, String message) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        enqueued.incrementAndGet(); // Counted first so flush() never misses a queued message
+        if (!queue.offer(message)) {
+            enqueued.decrementAndGet();
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Waits until every message queued so far has been written
+     * Used before printing directly to the console so output stays in order.
+     */
+    public static void flush() {
+        long target = enqueued.get();
+        while (written < Math.min(target, enqueued.get())) { // A dropped message lowers the count again
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        System.out.flush();
+    }
+
+    /**
+     * @return Number of messages dropped because the queue was full
+     */
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Writer thread: prints queued messages in batches
+     */
+    private static void drain() {
+        ArrayList<String> batch = new ArrayList<String>();
+        while (true) {
+            if (queue.drainTo(batch) == 0) {
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (String message : batch) {
+                sb.append(message).append(System.lineSeparator());
+            }
+            System.out.print(sb);
+            written += batch.size(); // Only this thread writes the counter
+            batch.clear();
+        }
+    }
+}
\ No newline at end of file
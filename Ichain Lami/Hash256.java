@@ -0,0 +1,210 @@
+/**
+ * Immutable 32-byte hash used for block, transaction and output identifiers
+ * Stored as four big-endian longs with a precomputed hashCode, so it is much
+ * smaller than a 64-char hex String and cheap to use as a HashMap key.
+ * Hex is only produced at the edges (printing and hashing legacy text input).
+ */
+public final class Hash256 implements Comparable<Hash256> {
+
+    // All-zero hash, used as the genesis block's previous hash and transaction id
+    public static final Hash256 ZERO = new Hash256(0, 0, 0, 0);
+
+    // Number of bytes in a hash
+    public static final int BYTES = 32;
+
+    // Hash bytes as four big-endian words
+    private final long w0;
+    private final long w1;
+    private final long w2;
+    private final long w3;
+
+    // Precomputed HashMap hash code
+    private final int hashCode;
+
+    private Hash256(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+        // Digest bits are already uniformly distributed, so folding is enough
+        long folded = w0 ^ w1 ^ w2 ^ w3;
+        this.hashCode = (int) (folded ^ (folded >>> 32));
+    }
+
+    /**
+     * Creates a hash from raw digest bytes
+     *
+     * @param bytes 32-byte digest
+     * @return Hash wrapping the bytes
+     */
+    public static Hash256 fromBytes(byte[] bytes) {
+        return fromBytes(bytes, 0);
+    }
+
+    /**
+     * Creates a hash from 32 bytes starting at the given offset
+     *
+     * @param bytes  Source array
+     * @param offset Index of the first hash byte
+     * @return Hash wrapping the bytes
+     */
+    public static Hash256 fromBytes(byte[] bytes, int offset) {
+        if (bytes.length - offset < BYTES) {
+            throw new IllegalArgumentException("Hash256 needs " + BYTES + " bytes");
+        }
+        return new Hash256(
+                readLong(bytes, offset),
+                readLong(bytes, offset + 8),
+                readLong(bytes, offset + 16),
+                readLong(bytes, offset + 24));
+    }
+
+    /**
+     * Creates a hash from its four big-endian words
+     *
+     * @return Hash with the given words
+     */
+    public static Hash256 fromWords(long w0, long w1, long w2, long w3) {
+        return new Hash256(w0, w1, w2, w3);
+    }
+
+    /**
+     * Parses a 64-character hex string
+     *
+     * @param hex Hex-encoded hash
+     * @return Parsed hash
+     */
+    public static Hash256 fromHex(String hex) {
+        if (hex.length() != BYTES * 2) {
+            throw new IllegalArgumentException("Hash256 hex must be " + BYTES * 2 + " characters: " + hex);
+        }
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++) {
+            int hi = Character.digit(hex.charAt(i * 2), 16);
+            int lo = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new IllegalArgumentException("Invalid hex in Hash256: " + hex);
+            }
+            bytes[i] = (byte) ((hi << 4) | lo);
+        }
+        return fromBytes(bytes);
+    }
+
+    /**
+     * Returns one of the four big-endian words
+     *
+     * @param index Word index 0-3
+     * @return Word value
+     */
+    public long word(int index) {
+        switch (index) {
+            case 0:
+                return w0;
+            case 1:
+                return w1;
+            case 2:
+                return w2;
+            case 3:
+                return w3;
+            default:
+                throw new IndexOutOfBoundsException("Hash256 word " + index);
+        }
+    }
+
+    /**
+     * @return Copy of the raw hash bytes
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        writeTo(bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Writes the raw hash bytes into an existing array
+     *
+     * @param dest   Destination array
+     * @param offset Index of the first byte to write
+     */
+    public void writeTo(byte[] dest, int offset) {
+        writeLong(dest, offset, w0);
+        writeLong(dest, offset + 8, w1);
+        writeLong(dest, offset + 16, w2);
+        writeLong(dest, offset + 24, w3);
+    }
+
+    /**
+     * @return Number of zero bits before the first set bit
+     */
+    public int leadingZeroBits() {
+        if (w0 != 0) {
+            return Long.numberOfLeadingZeros(w0);
+        }
+        if (w1 != 0) {
+            return 64 + Long.numberOfLeadingZeros(w1);
+        }
+        if (w2 != 0) {
+            return 128 + Long.numberOfLeadingZeros(w2);
+        }
+        return 192 + Long.numberOfLeadingZeros(w3);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Hash256)) {
+            return false;
+        }
+        Hash256 other = (Hash256) o;
+        return hashCode == other.hashCode
+                && w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Orders hashes as unsigned big-endian numbers
+     */
+    @Override
+    public int compareTo(Hash256 other) {
+        int c = Long.compareUnsigned(w0, other.w0);
+        if (c == 0) {
+            c = Long.compareUnsigned(w1, other.w1);
+        }
+        if (c == 0) {
+            c = Long.compareUnsigned(w2, other.w2);
+        }
+        if (c == 0) {
+            c = Long.compareUnsigned(w3, other.w3);
+        }
+        return c;
+    }
+
+    /**
+     * @return Lower-case 64-character hex string
+     */
+    @Override
+    public String toString() {
+        return StringUtil.toHex(toBytes());
+    }
+
+    private static long readLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (b[off + i] & 0xff);
+        }
+        return v;
+    }
+
+    private static void writeLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+}
\ No newline at end of file
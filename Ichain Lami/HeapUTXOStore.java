@@ -0,0 +1,52 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * UTXO store backed by an on-heap ConcurrentHashMap of full TransactionOutput objects
+ * Reads are lock-free and safe while another thread changes the set.
+ */
+public class HeapUTXOStore implements UTXOStore {
+
+    // Estimated heap per entry with compressed oops: the output (32), its id
+    // and parent id (48 each), the map node (32) and a table slot (8)
+    static final int ENTRY_BYTES = 168;
+
+    // Output id -> unspent output
+    private final ConcurrentHashMap<Hash256, TransactionOutput> outputs = new ConcurrentHashMap<Hash256, TransactionOutput>();
+
+    public TransactionOutput get(Hash256 id) {
+        return outputs.get(id);
+    }
+
+    public void put(TransactionOutput output) {
+        outputs.put(output.id, output);
+    }
+
+    public TransactionOutput remove(Hash256 id) {
+        return outputs.remove(id);
+    }
+
+    public boolean contains(Hash256 id) {
+        return outputs.containsKey(id);
+    }
+
+    public int size() {
+        return outputs.size();
+    }
+
+    public long getByteSize() {
+        return (long) outputs.size() * ENTRY_BYTES;
+    }
+
+    public void forEach(Consumer<TransactionOutput> action) {
+        outputs.values().forEach(action);
+    }
+
+    public void clear() {
+        outputs.clear();
+    }
+
+    public UTXOStore createEmpty() {
+        return new HeapUTXOStore();
+    }
+}
\ No newline at end of file
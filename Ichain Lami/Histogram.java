@@ -0,0 +1,99 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent histogram of non-negative long values (latencies in nanoseconds,
+ * nonce attempts, ...)
+ * Values are counted in power-of-two buckets, so recording is a couple of
+ * uncontended adds and percentiles are accurate to within a factor of two.
+ */
+public class Histogram {
+
+    // Bucket b counts values v with 2^(b-1) <= v < 2^b (bucket 0 counts zeros)
+    private final LongAdder[] buckets = new LongAdder[65];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram() {
+        for (int b = 0; b < buckets.length; b++) {
+            buckets[b] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one value
+     *
+     * @param value Value to count (negative values are counted as 0)
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return Mean of the recorded values (0 if none)
+     */
+    public double getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : sum.sum() / (double) n;
+    }
+
+    /**
+     * @return Largest recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound for a percentile
+     *
+     * @param percentile Percentile between 0 and 100
+     * @return Upper edge of the bucket holding the percentile, capped at the maximum
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b].sum();
+            if (seen >= rank) {
+                long upper = (b == 0) ? 0 : (b == 64) ? Long.MAX_VALUE : (1L << b) - 1;
+                return Math.min(upper, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Forgets every recorded value
+     */
+    public void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.0f p50=%d p99=%d max=%d", getCount(), getMean(),
+                getPercentile(50), getPercentile(99), getMax());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,357 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded synthetic workload for measuring chain throughput at scale
+ * Creates N wallets, funds them from genesis, then fills blocks with random
+ * payments between them. A share of the transactions is deliberately invalid
+ * (tampered, forged, double-spent, overspent or below the minimum) and must
+ * be rejected; every valid one must be accepted. Blocks are mined at a low
+ * difficulty, and the run reports transactions/s, blocks/s, time per phase
+ * and peak heap.
+ *
+ * The same seed produces the same wallets and the same sequence of payments.
+ * Wallet keys are generated in parallel by a WalletFactory; with a keystore
+ * argument they are saved on the first run and loaded on later runs with
+ * the same seed and wallet count.
+ * Node log output is limited to errors unless -Dnoobchain.log is given.
+ * Exits with status 1 if any transaction was accepted or rejected unexpectedly.
+ */
+public class LoadGenerator {
+
+    /**
+     * Kinds of invalid transactions the generator produces
+     */
+    public enum Invalid {
+        TAMPERED_VALUE, // Value changed after signing
+        FORGED_SENDER, // Spends another wallet's outputs, signed with the wrong key
+        DOUBLE_SPEND, // Spends outputs a transaction earlier in the block already spent
+        OVERSPEND, // Pays more than its inputs hold
+        BELOW_MINIMUM // Pays less than the minimum transaction amount
+    }
+
+    // Workload
+    private final int walletCount;
+    private final int blocks;
+    private final int perBlock;
+    private final int invalidPercent;
+    private final Random random;
+    private final Path keystore;
+
+    private final ChainState chain = new ChainState();
+    private Wallet[] wallets;
+
+    // Results
+    private long accepted;
+    private long unexpected;
+    private final long[] rejected = new long[Invalid.values().length];
+    private long keyNanos, signNanos, processNanos, mineNanos, validateNanos;
+
+    private LoadGenerator(int walletCount, int blocks, int perBlock, int invalidPercent, int difficulty, long seed,
+            Path keystore) {
+        this.walletCount = walletCount;
+        this.blocks = blocks;
+        this.perBlock = perBlock;
+        this.invalidPercent = invalidPercent;
+        this.random = new Random(seed);
+        this.keystore = keystore;
+        chain.setDifficulty(difficulty);
+    }
+
+    /**
+     * Usage: LoadGenerator [wallets] [blocks] [transactionsPerBlock] [invalidPercent] [difficulty] [seed] [keystore]
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        if (System.getProperty("noobchain.log") == null) {
+            EventLog.setLevel(EventLog.Level.ERROR);
+        }
+        int wallets = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int blocks = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+        int perBlock = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+        int invalidPercent = (args.length > 3) ? Integer.parseInt(args[3]) : 10;
+        int difficulty = (args.length > 4) ? Integer.parseInt(args[4]) : 1;
+        long seed = (args.length > 5) ? Long.parseLong(args[5]) : 42;
+        Path keystore = (args.length > 6) ? Paths.get(args[6]) : null;
+
+        resetPeakHeap();
+        LoadGenerator generator = new LoadGenerator(wallets, blocks, perBlock, invalidPercent, difficulty, seed,
+                keystore);
+        generator.run();
+        generator.report();
+        generator.chain.shutdown();
+        if (generator.unexpected > 0) {
+            System.exit(1);
+        }
+    }
+
+    private void run() {
+        // Key material is generated up front, so signing is measured on its own
+        long start = System.nanoTime();
+        List<Wallet> generated = keys();
+        wallets = generated.subList(0, walletCount).toArray(new Wallet[0]);
+        Wallet treasury = generated.get(walletCount);
+        keyNanos = System.nanoTime() - start;
+
+        // Genesis, then funding blocks giving every wallet the same amount
+        Transaction genesis = chain.createGenesisTransaction(generated.get(walletCount + 1),
+                treasury.address, walletCount * 1_000f);
+        Stina genesisBlock = new Stina(Hash256.ZERO);
+        genesisBlock.addTransaction(genesis, chain);
+        mine(genesisBlock);
+        for (int first = 0; first < walletCount; first += perBlock) {
+            Stina funding = new Stina(chain.getTip().hash);
+            for (int i = first; i < Math.min(walletCount, first + perBlock); i++) {
+                expect(funding, treasury.sendFunds(chain, wallets[i].address, 1_000f), true);
+            }
+            mine(funding);
+        }
+
+        // Workload blocks
+        for (int b = 0; b < blocks; b++) {
+            Stina block = new Stina(chain.getTip().hash);
+            for (int t = 0; t < perBlock; t++) {
+                if (random.nextInt(100) < invalidPercent) {
+                    invalid(block, Invalid.values()[random.nextInt(Invalid.values().length)]);
+                } else {
+                    payment(block);
+                }
+            }
+            mine(block);
+        }
+
+        start = System.nanoTime();
+        if (!chain.isChainValid()) {
+            unexpected++;
+            System.out.println("FAILED: generated chain does not validate");
+        }
+        validateNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Adds a random valid payment to the block
+     */
+    private void payment(Stina block) {
+        Wallet from = funded();
+        Wallet to = wallets[random.nextInt(walletCount)];
+        float amount = amount(from);
+        long start = System.nanoTime();
+        Transaction transaction = from.sendFunds(chain, to.address, amount);
+        signNanos += System.nanoTime() - start;
+        expect(block, transaction, true);
+    }
+
+    /**
+     * Adds an invalid transaction of the given kind to the block
+     * Double spends also add the valid transaction they conflict with.
+     */
+    private void invalid(Stina block, Invalid kind) {
+        Wallet from = funded();
+        Wallet to = wallets[random.nextInt(walletCount)];
+        float amount = amount(from);
+        Transaction transaction;
+        long start = System.nanoTime();
+        switch (kind) {
+            case TAMPERED_VALUE:
+                transaction = from.sendFunds(chain, to.address, amount);
+                transaction.value += 1;
+                break;
+            case FORGED_SENDER:
+                Wallet forger = (to != from) ? to : wallets[(index(from) + 1) % walletCount];
+                transaction = new Transaction(from.address, forger.address, amount, inputsOf(from, amount));
+                transaction.generateSignature(forger.privateKey);
+                break;
+            case DOUBLE_SPEND:
+                Transaction first = from.sendFunds(chain, to.address, amount);
+                Wallet other = wallets[random.nextInt(walletCount)];
+                transaction = new Transaction(from.address, other.address, amount, copyInputs(first));
+                transaction.generateSignature(from.privateKey);
+                signNanos += System.nanoTime() - start;
+                expect(block, first, true);
+                start = System.nanoTime();
+                break;
+            case OVERSPEND:
+                transaction = new Transaction(from.address, to.address, from.getBalance(chain) + 10,
+                        inputsOf(from, amount));
+                transaction.generateSignature(from.privateKey);
+                break;
+            default:
+                transaction = new Transaction(from.address, to.address, chain.getMinimumTransaction() / 2,
+                        inputsOf(from, amount));
+                transaction.generateSignature(from.privateKey);
+                break;
+        }
+        signNanos += System.nanoTime() - start;
+        if (!expect(block, transaction, false)) {
+            rejected[kind.ordinal()]++;
+        }
+    }
+
+    /**
+     * Processes a transaction into the block and checks the outcome
+     *
+     * @return true if the transaction was accepted
+     */
+    private boolean expect(Stina block, Transaction transaction, boolean valid) {
+        long start = System.nanoTime();
+        boolean added = transaction != null && block.addTransaction(transaction, chain);
+        processNanos += System.nanoTime() - start;
+        if (added) {
+            accepted++;
+        }
+        if (added != valid) {
+            unexpected++;
+            System.out.println("FAILED: " + (valid ? "valid transaction rejected" : "invalid transaction accepted"));
+        }
+        return added;
+    }
+
+    private void mine(Stina block) {
+        long start = System.nanoTime();
+        chain.addBlock(block);
+        mineNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Picks a random wallet that can afford at least the minimum payment
+     */
+    private Wallet funded() {
+        while (true) {
+            Wallet wallet = wallets[random.nextInt(walletCount)];
+            if (wallet.getBalance(chain) >= 1) {
+                return wallet;
+            }
+        }
+    }
+
+    private int index(Wallet wallet) {
+        for (int i = 0; i < walletCount; i++) {
+            if (wallets[i] == wallet) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Random amount between 1% and 50% of a wallet's balance, in whole cents
+     */
+    private float amount(Wallet wallet) {
+        float balance = wallet.getBalance(chain);
+        float fraction = 0.01f + random.nextFloat() * 0.49f;
+        return Math.max(chain.getMinimumTransaction(), Math.round(balance * fraction * 100) / 100f);
+    }
+
+    /**
+     * Inputs spending enough of a wallet's outputs to cover an amount
+     */
+    private ArrayList<TransactionInput> inputsOf(Wallet wallet, float amount) {
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        float total = 0;
+        for (TransactionOutput output : CoinSelector.largestFirst(
+                chain.getOwners().getOutputsByValue(wallet.address), amount)) {
+            inputs.add(new TransactionInput(output.id));
+            total += output.value;
+        }
+        return (total >= amount) ? inputs : null;
+    }
+
+    private static ArrayList<TransactionInput> copyInputs(Transaction transaction) {
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+        for (TransactionInput input : transaction.inputs) {
+            inputs.add(new TransactionInput(input.transactionOutputId));
+        }
+        return inputs;
+    }
+
+    /**
+     * Wallets, treasury and coinbase (in that order) for this seed, loaded from
+     * the keystore if it holds them and generated in parallel otherwise
+     */
+    private List<Wallet> keys() {
+        long[] seeds = new long[walletCount + 2];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = random.nextLong();
+        }
+        if (keystore != null && Files.exists(keystore)) {
+            // Only reuse keys made for this seed (checked on the first wallet)
+            List<Wallet> stored = WalletFactory.load(keystore);
+            if (stored.size() == seeds.length
+                    && stored.get(0).address == Address.of(WalletFactory.generateKeyPair(seeds[0]).getPublic())) {
+                return stored;
+            }
+        }
+        WalletFactory factory = new WalletFactory(Runtime.getRuntime().availableProcessors(), 0);
+        try {
+            List<Wallet> generated = factory.newWallets(seeds);
+            if (keystore != null) {
+                WalletFactory.save(keystore, generated);
+            }
+            return generated;
+        } finally {
+            factory.close();
+        }
+    }
+
+    // Reporting
+
+    private static Collection<MemoryPoolMXBean> heapPools() {
+        ArrayList<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return Sum of the heap pools' peak usage since the last reset
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools()) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private void report() {
+        EventLog.flush();
+        long rejectedTotal = 0;
+        for (long count : rejected) {
+            rejectedTotal += count;
+        }
+        double buildSeconds = (signNanos + processNanos + mineNanos) / 1e9;
+        System.out.printf("Workload: %d wallets, %d blocks x %d transactions, %d%% invalid, difficulty %d%n",
+                walletCount, blocks, perBlock, invalidPercent, chain.getDifficulty());
+        System.out.printf("Transactions: %d accepted, %d rejected, %d unexpected outcomes%n",
+                accepted, rejectedTotal, unexpected);
+        for (Invalid kind : Invalid.values()) {
+            System.out.printf("  rejected %-15s %d%n", kind, rejected[kind.ordinal()]);
+        }
+        System.out.printf("Throughput: %.0f tx/s, %.1f blocks/s (sign + process + mine)%n",
+                accepted / buildSeconds, chain.size() / buildSeconds);
+        System.out.printf("Phases: keys %.0f ms, sign %.0f ms, process %.0f ms, mine %.0f ms, validate %.0f ms%n",
+                keyNanos / 1e6, signNanos / 1e6, processNanos / 1e6, mineNanos / 1e6, validateNanos / 1e6);
+        System.out.printf("Chain: %d blocks, %d UTXOs (%.1f MB), %d indexed transactions%n",
+                chain.size(), chain.getUTXOs().size(), chain.getUTXOs().getByteSize() / 1e6,
+                chain.index.getTransactionCount());
+        System.out.printf("Peak heap: %.1f MB%n", peakHeap() / 1e6);
+    }
+}
\ No newline at end of file
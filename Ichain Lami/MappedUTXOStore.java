@@ -0,0 +1,493 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * UTXO store kept outside the Java heap
+ * An open-addressing hash table (linear probing) of fixed-size records held
+ * either in direct ByteBuffers or in a memory-mapped file. Each record holds
+ * the 32-byte output id, the value, a digest of the owner's key and the parent
+ * transaction id. Owner keys are kept once per owner in a second off-heap
+ * table by digest: reads resolve the owner through Address.forDigest() while
+ * that address is in use and decode it from the owner table otherwise, so
+ * keys are never stored per coin and no owner has to stay on the heap.
+ *
+ * The table is split into pages so it can grow past the 2 GB ByteBuffer limit.
+ * In file mode each table generation lives in its own file inside the given
+ * directory; the file is deleted when the table grows or the store is closed.
+ * Every public method is synchronized, since probing and resizing share
+ * the page buffers.
+ */
+public class MappedUTXOStore implements UTXOStore {
+
+    // Record layout: state(1) + padding(3) + value(4) + id(32) + owner(32) + parent(32)
+    private static final int STATE = 0;
+    private static final int VALUE = 4;
+    private static final int ID = 8;
+    private static final int OWNER = ID + Hash256.BYTES;
+    private static final int PARENT = OWNER + Hash256.BYTES;
+    static final int RECORD_SIZE = PARENT + Hash256.BYTES;
+
+    // Slot states
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+
+    // Owner record layout: state(1) + key length(1) + padding(2) + digest(32) + key(MAX_KEY_BYTES)
+    private static final int KEY_LENGTH = 1;
+    private static final int DIGEST = 4;
+    private static final int KEY = DIGEST + Hash256.BYTES;
+    static final int MAX_KEY_BYTES = 124;
+    static final int OWNER_RECORD_SIZE = KEY + MAX_KEY_BYTES;
+
+    // Table sizing
+    private static final int MIN_CAPACITY = 1024;
+    private static final int PAGE_SHIFT = 20; // 1M records (~104 MB) per page
+    private static final double MAX_LOAD = 0.7; // Live + deleted slots before resizing
+
+    // Backing directory (null for off-heap direct buffers)
+    private final Path directory;
+
+    // Table pages and geometry
+    private ByteBuffer[] pages;
+    private Path file;
+    private long capacity;
+    private long mask;
+    private int pageShift;
+
+    // Occupancy counters
+    private int size;
+    private long deleted;
+
+    // Owner keys by digest
+    private final Owners owners;
+
+    /**
+     * Creates an off-heap store backed by direct ByteBuffers
+     *
+     * @param initialCapacity Expected number of outputs
+     */
+    public MappedUTXOStore(long initialCapacity) {
+        this(null, initialCapacity);
+    }
+
+    /**
+     * Creates a store backed by memory-mapped files in a directory
+     *
+     * @param directory       Directory for table files (null for off-heap buffers)
+     * @param initialCapacity Expected number of outputs
+     */
+    public MappedUTXOStore(Path directory, long initialCapacity) {
+        this.directory = directory;
+        this.owners = new Owners(directory);
+        allocate(tableSizeFor((long) (initialCapacity / MAX_LOAD) + 1));
+    }
+
+    public synchronized TransactionOutput get(Hash256 id) {
+        long slot = find(id);
+        return (slot < 0) ? null : read(slot, id);
+    }
+
+    public synchronized void put(TransactionOutput output) {
+        long slot = find(output.id);
+        if (slot < 0) {
+            if (size + deleted + 1 > capacity * MAX_LOAD) {
+                // Grow when live records dominate, otherwise just sweep tombstones
+                resize(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+            }
+            slot = freeSlot(output.id);
+            size++;
+        }
+        owners.add(output.recipient);
+        writeRecord(slot, output.id, output.value, output.recipient.getDigest(), output.parentTransactionId);
+    }
+
+    public synchronized TransactionOutput remove(Hash256 id) {
+        long slot = find(id);
+        if (slot < 0) {
+            return null;
+        }
+        TransactionOutput output = read(slot, id);
+        page(slot).put(offset(slot) + STATE, DELETED);
+        size--;
+        deleted++;
+        return output;
+    }
+
+    public synchronized boolean contains(Hash256 id) {
+        return find(id) >= 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getByteSize() {
+        // Both tables are allocated up front
+        return capacity * RECORD_SIZE + owners.capacity * OWNER_RECORD_SIZE;
+    }
+
+    public synchronized void forEach(Consumer<TransactionOutput> action) {
+        for (long slot = 0; slot < capacity; slot++) {
+            ByteBuffer page = page(slot);
+            int base = offset(slot);
+            if (page.get(base + STATE) == USED) {
+                action.accept(read(slot, readHash(page, base + ID)));
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        deleteFile();
+        owners.clear();
+        allocate(capacity);
+        size = 0;
+        deleted = 0;
+    }
+
+    public UTXOStore createEmpty() {
+        return new MappedUTXOStore(directory, MIN_CAPACITY);
+    }
+
+    /**
+     * Releases the tables; file-backed stores delete their current files
+     */
+    public synchronized void close() {
+        deleteFile();
+        pages = new ByteBuffer[0];
+        owners.close();
+    }
+
+    /**
+     * @return Number of slots in the table
+     */
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Finds the slot holding an id
+     *
+     * @return Slot index, or -1 if absent
+     */
+    private long find(Hash256 id) {
+        long slot = id.word(0) & mask;
+        while (true) {
+            ByteBuffer page = page(slot);
+            int base = offset(slot);
+            byte state = page.get(base + STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == USED && matches(page, base + ID, id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Finds the first empty or deleted slot on an id's probe sequence
+     */
+    private long freeSlot(Hash256 id) {
+        long slot = id.word(0) & mask;
+        while (true) {
+            byte state = page(slot).get(offset(slot) + STATE);
+            if (state != USED) {
+                if (state == DELETED) {
+                    deleted--;
+                }
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Rehashes every live record into a fresh table
+     */
+    private void resize(long newCapacity) {
+        ByteBuffer[] oldPages = pages;
+        Path oldFile = file;
+        long oldCapacity = capacity;
+        int oldShift = pageShift;
+
+        allocate(newCapacity);
+        deleted = 0;
+        for (long slot = 0; slot < oldCapacity; slot++) {
+            ByteBuffer page = oldPages[(int) (slot >>> oldShift)];
+            int base = (int) (slot & ((1L << oldShift) - 1)) * RECORD_SIZE;
+            if (page.get(base + STATE) == USED) {
+                Hash256 id = readHash(page, base + ID);
+                writeRecord(freeSlot(id), id, page.getFloat(base + VALUE),
+                        readHash(page, base + OWNER), readHash(page, base + PARENT));
+            }
+        }
+
+        deleteFile(oldFile);
+    }
+
+    /**
+     * Allocates an empty table with the given number of slots
+     */
+    private void allocate(long newCapacity) {
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        pageShift = Math.min(PAGE_SHIFT, Long.numberOfTrailingZeros(newCapacity));
+        if (directory != null) {
+            file = createFile(directory, "utxo-");
+        }
+        pages = allocatePages(file, newCapacity, pageShift, RECORD_SIZE);
+    }
+
+    /**
+     * Creates a table file in the backing directory
+     */
+    private static Path createFile(Path directory, String prefix) {
+        try {
+            return Files.createTempFile(directory, prefix, ".dat");
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create UTXO table in " + directory, e);
+        }
+    }
+
+    /**
+     * Allocates the zeroed pages of a table: direct buffers, or regions of a
+     * fresh file mapped into memory
+     *
+     * @param file File to map (null for direct buffers)
+     */
+    private static ByteBuffer[] allocatePages(Path file, long slots, int pageShift, int recordSize) {
+        long pageBytes = (1L << pageShift) * recordSize;
+        ByteBuffer[] pages = new ByteBuffer[(int) (slots >>> pageShift)];
+        if (file == null) {
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = ByteBuffer.allocateDirect((int) pageBytes);
+            }
+            return pages;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            for (int i = 0; i < pages.length; i++) {
+                // Newly mapped regions of a fresh file read as zero (EMPTY)
+                pages[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * pageBytes, pageBytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map UTXO table " + file, e);
+        }
+        return pages;
+    }
+
+    /**
+     * Rebuilds a TransactionOutput from the record in a slot
+     */
+    private TransactionOutput read(long slot, Hash256 id) {
+        ByteBuffer page = page(slot);
+        int base = offset(slot);
+        Address recipient = owners.resolve(readHash(page, base + OWNER));
+        return new TransactionOutput(id, recipient, page.getFloat(base + VALUE), readHash(page, base + PARENT));
+    }
+
+    private void writeRecord(long slot, Hash256 id, float value, Hash256 owner, Hash256 parent) {
+        ByteBuffer page = page(slot);
+        int base = offset(slot);
+        page.putFloat(base + VALUE, value);
+        writeHash(page, base + ID, id);
+        writeHash(page, base + OWNER, owner);
+        writeHash(page, base + PARENT, parent);
+        page.put(base + STATE, USED);
+    }
+
+    private void deleteFile() {
+        deleteFile(file);
+        file = null;
+    }
+
+    private static void deleteFile(Path file) {
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to delete UTXO table " + file, e);
+            }
+        }
+    }
+
+    private ByteBuffer page(long slot) {
+        return pages[(int) (slot >>> pageShift)];
+    }
+
+    private int offset(long slot) {
+        return (int) (slot & ((1L << pageShift) - 1)) * RECORD_SIZE;
+    }
+
+    private static long tableSizeFor(long slots) {
+        long capacity = MIN_CAPACITY;
+        while (capacity < slots) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static boolean matches(ByteBuffer page, int at, Hash256 id) {
+        return page.getLong(at) == id.word(0)
+                && page.getLong(at + 8) == id.word(1)
+                && page.getLong(at + 16) == id.word(2)
+                && page.getLong(at + 24) == id.word(3);
+    }
+
+    private static Hash256 readHash(ByteBuffer page, int at) {
+        return Hash256.fromWords(page.getLong(at), page.getLong(at + 8), page.getLong(at + 16), page.getLong(at + 24));
+    }
+
+    private static void writeHash(ByteBuffer page, int at, Hash256 hash) {
+        page.putLong(at, hash.word(0));
+        page.putLong(at + 8, hash.word(1));
+        page.putLong(at + 16, hash.word(2));
+        page.putLong(at + 24, hash.word(3));
+    }
+
+    /**
+     * Off-heap table of owner key digest -> X.509 key encoding
+     * Open addressing like the output table; an owner is added with its first
+     * output and kept until the store is cleared or closed. Guarded by the
+     * store's monitor.
+     */
+    private static final class Owners {
+        private final Path directory;
+        private ByteBuffer[] pages;
+        private Path file;
+        private long capacity;
+        private long mask;
+        private int pageShift;
+        private int size;
+
+        Owners(Path directory) {
+            this.directory = directory;
+            allocate(MIN_CAPACITY);
+        }
+
+        /**
+         * Records an owner's key unless it is already known
+         */
+        void add(Address owner) {
+            Hash256 digest = owner.getDigest();
+            if (find(digest) >= 0) {
+                return;
+            }
+            if (owner.getEncodedLength() > MAX_KEY_BYTES) {
+                throw new IllegalArgumentException("Owner key of " + owner.getEncodedLength() + " bytes exceeds "
+                        + MAX_KEY_BYTES);
+            }
+            if (size + 1 > capacity * MAX_LOAD) {
+                resize(capacity * 2);
+            }
+            write(freeSlot(digest), digest, owner.getEncoded());
+            size++;
+        }
+
+        /**
+         * @return Address with the digest: the live interned one, or one decoded
+         *         from this table (null if the owner was never added)
+         */
+        Address resolve(Hash256 digest) {
+            Address owner = Address.forDigest(digest);
+            if (owner != null) {
+                return owner;
+            }
+            long slot = find(digest);
+            if (slot < 0) {
+                return null;
+            }
+            ByteBuffer page = page(slot);
+            int base = offset(slot);
+            byte[] encoded = new byte[page.get(base + KEY_LENGTH) & 0xFF];
+            page.get(base + KEY, encoded);
+            return Address.fromEncoded(encoded);
+        }
+
+        void clear() {
+            deleteFile(file);
+            allocate(capacity);
+            size = 0;
+        }
+
+        void close() {
+            deleteFile(file);
+            file = null;
+            pages = new ByteBuffer[0];
+        }
+
+        private long find(Hash256 digest) {
+            long slot = digest.word(0) & mask;
+            while (true) {
+                ByteBuffer page = page(slot);
+                int base = offset(slot);
+                if (page.get(base + STATE) == EMPTY) {
+                    return -1;
+                }
+                if (matches(page, base + DIGEST, digest)) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private long freeSlot(Hash256 digest) {
+            long slot = digest.word(0) & mask;
+            while (page(slot).get(offset(slot) + STATE) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void resize(long newCapacity) {
+            ByteBuffer[] oldPages = pages;
+            Path oldFile = file;
+            long oldCapacity = capacity;
+            int oldShift = pageShift;
+
+            allocate(newCapacity);
+            for (long slot = 0; slot < oldCapacity; slot++) {
+                ByteBuffer page = oldPages[(int) (slot >>> oldShift)];
+                int base = (int) (slot & ((1L << oldShift) - 1)) * OWNER_RECORD_SIZE;
+                if (page.get(base + STATE) == USED) {
+                    Hash256 digest = readHash(page, base + DIGEST);
+                    byte[] encoded = new byte[page.get(base + KEY_LENGTH) & 0xFF];
+                    page.get(base + KEY, encoded);
+                    write(freeSlot(digest), digest, encoded);
+                }
+            }
+            deleteFile(oldFile);
+        }
+
+        private void allocate(long newCapacity) {
+            capacity = newCapacity;
+            mask = newCapacity - 1;
+            pageShift = Math.min(PAGE_SHIFT, Long.numberOfTrailingZeros(newCapacity));
+            file = (directory != null) ? createFile(directory, "owners-") : null;
+            pages = allocatePages(file, newCapacity, pageShift, OWNER_RECORD_SIZE);
+        }
+
+        private void write(long slot, Hash256 digest, byte[] encoded) {
+            ByteBuffer page = page(slot);
+            int base = offset(slot);
+            page.put(base + KEY_LENGTH, (byte) encoded.length);
+            writeHash(page, base + DIGEST, digest);
+            page.put(base + KEY, encoded);
+            page.put(base + STATE, USED);
+        }
+
+        private ByteBuffer page(long slot) {
+            return pages[(int) (slot >>> pageShift)];
+        }
+
+        private int offset(long slot) {
+            return (int) (slot & ((1L << pageShift) - 1)) * OWNER_RECORD_SIZE;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe pool of transactions waiting to be put into a block
+ * Any number of producer threads can submit concurrently: admission checks
+ * that every input is an unspent output owned by the sender and the
+ * signature (through the signature cache), then atomically claims every
+ * TransactionInput.transactionOutputId so two pending transactions can never
+ * spend the same output. Only unprocessed transactions are admitted: their
+ * outputs are created when a block template processes them. Pending
+ * transactions are kept ordered by priority (higher first) and then by age,
+ * and buildTemplate() fills a block with the best N of them.
+ * Transactions carry no fee in this chain, so priority is whatever the
+ * submitter passes in (0 by default, which gives plain arrival order).
+ */
+public class Mempool {
+
+    // Default maximum number of pending transactions
+    public static final int DEFAULT_CAPACITY = 50_000;
+
+    /**
+     * Outcome of a submission
+     */
+    public enum Admission {
+        ACCEPTED(null),
+        REJECTED_NULL(Metrics.Rejection.NULL_TRANSACTION),
+        INVALID_SIGNATURE(Metrics.Rejection.INVALID_SIGNATURE),
+        BELOW_MINIMUM(Metrics.Rejection.VALUE_BELOW_MINIMUM),
+        UNEXPECTED_OUTPUTS(Metrics.Rejection.UNEXPECTED_OUTPUTS),
+        MISSING_INPUT(Metrics.Rejection.MISSING_INPUT),
+        FOREIGN_INPUT(Metrics.Rejection.FOREIGN_INPUT),
+        DOUBLE_SPEND(Metrics.Rejection.DOUBLE_SPEND),
+        POOL_FULL(Metrics.Rejection.POOL_FULL);
+
+        // Reason counted in Metrics (null when accepted)
+        public final Metrics.Rejection rejection;
+
+        Admission(Metrics.Rejection rejection) {
+            this.rejection = rejection;
+        }
+    }
+
+    // Highest priority first, then oldest first
+    private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int c = Double.compare(b.priority, a.priority);
+            return (c != 0) ? c : Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    // Pending transactions in block-template order
+    private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<Entry>(ORDER);
+
+    // Output id -> pending entry spending it
+    private final ConcurrentHashMap<Hash256, Entry> claims = new ConcurrentHashMap<Hash256, Entry>();
+
+    // Chain whose UTXO set templates are built against
+    private final ChainState chain;
+
+    // Capacity and arrival order
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong arrivals = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param chain    Chain the pool feeds
+     * @param capacity Maximum number of pending transactions
+     */
+    public Mempool(ChainState chain, int capacity) {
+        this.chain = chain;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Submits a transaction with default priority
+     *
+     * @param transaction Signed transaction from Wallet.sendFunds
+     * @return Admission result
+     */
+    public Admission submit(Transaction transaction) {
+        return submit(transaction, 0);
+    }
+
+    /**
+     * Submits a transaction
+     *
+     * @param transaction Signed transaction from Wallet.sendFunds
+     * @param priority    Higher values are put into blocks first
+     * @return Admission result
+     */
+    public Admission submit(Transaction transaction, double priority) {
+        Admission admission = admit(transaction, priority);
+        if (admission.rejection != null) {
+            Metrics.rejected(admission.rejection);
+        }
+        return admission;
+    }
+
+    /**
+     * Checks a transaction and claims its inputs
+     */
+    private Admission admit(Transaction transaction, double priority) {
+        if (transaction == null) {
+            return Admission.REJECTED_NULL;
+        }
+        if (!transaction.outputs.isEmpty()) {
+            return Admission.UNEXPECTED_OUTPUTS;
+        }
+        if (transaction.value < chain.getMinimumTransaction()) {
+            return Admission.BELOW_MINIMUM;
+        }
+        if (transaction.inputs.isEmpty()) {
+            return Admission.MISSING_INPUT;
+        }
+
+        // Every input must be unspent and belong to the sender, so nobody can
+        // claim outputs they do not own
+        for (TransactionInput input : transaction.inputs) {
+            TransactionOutput output = chain.getUTXOs().get(input.transactionOutputId);
+            if (output == null) {
+                return Admission.MISSING_INPUT;
+            }
+            if (!output.isMine(transaction.sender)) {
+                return Admission.FOREIGN_INPUT;
+            }
+        }
+        if (transaction.signature == null || !transaction.verifySignature(chain.signatureCache)) {
+            return Admission.INVALID_SIGNATURE;
+        }
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return Admission.POOL_FULL;
+        }
+
+        Entry entry = new Entry(transaction, priority, arrivals.getAndIncrement());
+
+        // Claim every spent output; back out if another pending transaction has one
+        for (int i = 0; i < transaction.inputs.size(); i++) {
+            Hash256 outputId = transaction.inputs.get(i).transactionOutputId;
+            if (claims.putIfAbsent(outputId, entry) != null) {
+                release(entry, i);
+                size.decrementAndGet();
+                return Admission.DOUBLE_SPEND;
+            }
+        }
+
+        queue.add(entry);
+        return Admission.ACCEPTED;
+    }
+
+    /**
+     * Removes and returns up to max transactions in priority order
+     * Their outputs stay claimed until release() is called, so a template can
+     * be built without admitting a conflicting transaction in the meantime.
+     *
+     * @param max Maximum number of transactions
+     * @return Pending entries, best first
+     */
+    public List<Entry> take(int max) {
+        List<Entry> taken = new ArrayList<Entry>();
+        Entry entry;
+        while (taken.size() < max && (entry = queue.pollFirst()) != null) {
+            size.decrementAndGet();
+            taken.add(entry);
+        }
+        return taken;
+    }
+
+    /**
+     * Drops the output claims of entries returned by take()
+     *
+     * @param entries Entries that were put into a block or discarded
+     */
+    public void release(List<Entry> entries) {
+        for (Entry entry : entries) {
+            release(entry, entry.transaction.inputs.size());
+        }
+    }
+
+    /**
+     * Builds a block template from the best pending transactions
+     * The transactions are processed against the UTXO set as one batch, in
+     * priority order; transactions that fail processing are discarded.
+     *
+     * @param prevHash        Hash of the current chain tip
+     * @param maxTransactions Maximum number of transactions in the block
+     * @return Unmined block
+     */
+    public synchronized Stina buildTemplate(Hash256 prevHash, int maxTransactions) {
+        Stina block = new Stina(prevHash);
+        List<Entry> entries = take(maxTransactions);
+        List<Transaction> candidates = new ArrayList<Transaction>(entries.size());
+        for (Entry entry : entries) {
+            candidates.add(entry.transaction);
+        }
+        try {
+            block.addTransactions(candidates, chain);
+        } finally {
+            release(entries);
+        }
+        return block;
+    }
+
+    /**
+     * @return Number of pending transactions
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * @param outputId Output id
+     * @return true if a pending transaction already spends the output
+     */
+    public boolean isClaimed(Hash256 outputId) {
+        return claims.containsKey(outputId);
+    }
+
+    /**
+     * Drops the first count input claims held by an entry
+     */
+    private void release(Entry entry, int count) {
+        for (int i = 0; i < count; i++) {
+            claims.remove(entry.transaction.inputs.get(i).transactionOutputId, entry);
+        }
+    }
+
+    /**
+     * A pending transaction with its ordering keys
+     */
+    public static class Entry {
+        public final Transaction transaction;
+        public final double priority;
+        public final long sequence;
+        public final long arrivalMillis;
+
+        Entry(Transaction transaction, double priority, long sequence) {
+            this.transaction = transaction;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.arrivalMillis = System.currentTimeMillis();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,223 @@
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental Merkle tree over transaction ids
+ * Every layer is kept as raw 32-byte digests; an inner node is
+ * SHA-256(left || right), and when a layer has an odd number of nodes the
+ * last one is paired with itself. Appending a leaf only recomputes the
+ * right-most path to the root, so it costs O(log n) hashes.
+ *
+ * Inclusion proofs list the sibling of each node on the path from a leaf to
+ * the root, which lets a light client check that a transaction belongs to a
+ * block knowing only the block's merkle root.
+ */
+public class MerkleTree {
+
+    // layers.get(0) holds the leaves, the last layer holds the root
+    private final ArrayList<ArrayList<Hash256>> layers = new ArrayList<ArrayList<Hash256>>();
+
+    // Scratch space for hashing a pair of nodes
+    private final MessageDigest digest = newDigest();
+    private final byte[] pair = new byte[Hash256.BYTES * 2];
+
+    /**
+     * Creates an empty tree
+     */
+    public MerkleTree() {
+        layers.add(new ArrayList<Hash256>());
+    }
+
+    /**
+     * Builds a tree bottom-up from a list of leaves in O(n)
+     *
+     * @param leaves Leaf digests in order
+     * @return Tree over the leaves
+     */
+    public static MerkleTree build(List<Hash256> leaves) {
+        MerkleTree tree = new MerkleTree();
+        ArrayList<Hash256> layer = tree.layers.get(0);
+        layer.addAll(leaves);
+        while (layer.size() > 1) {
+            ArrayList<Hash256> parent = new ArrayList<Hash256>((layer.size() + 1) / 2);
+            for (int i = 0; i < layer.size(); i += 2) {
+                parent.add(tree.node(layer, i));
+            }
+            tree.layers.add(parent);
+            layer = parent;
+        }
+        return tree;
+    }
+
+    /**
+     * Builds a tree over a block's transaction ids
+     *
+     * @param transactions Transactions in block order
+     * @return Tree over their ids
+     */
+    public static MerkleTree of(List<Transaction> transactions) {
+        ArrayList<Hash256> leaves = new ArrayList<Hash256>(transactions.size());
+        for (Transaction transaction : transactions) {
+            leaves.add(transaction.transactionId);
+        }
+        return build(leaves);
+    }
+
+    /**
+     * Appends a leaf and updates the path from it to the root
+     *
+     * @param leaf Leaf digest (a transaction id)
+     */
+    public void append(Hash256 leaf) {
+        ArrayList<Hash256> layer = layers.get(0);
+        layer.add(leaf);
+        int index = layer.size() - 1;
+
+        // Walk up the right edge; the top layer gains a parent once it has two nodes
+        for (int level = 0; layer.size() > 1; level++) {
+            if (level + 1 == layers.size()) {
+                layers.add(new ArrayList<Hash256>());
+            }
+            ArrayList<Hash256> parent = layers.get(level + 1);
+            int parentIndex = index >> 1;
+            Hash256 node = node(layer, index & ~1);
+            if (parentIndex == parent.size()) {
+                parent.add(node);
+            } else {
+                parent.set(parentIndex, node);
+            }
+            layer = parent;
+            index = parentIndex;
+        }
+    }
+
+    /**
+     * @return Number of leaves
+     */
+    public int size() {
+        return layers.get(0).size();
+    }
+
+    /**
+     * @param index Leaf position
+     * @return Leaf digest
+     */
+    public Hash256 getLeaf(int index) {
+        return layers.get(0).get(index);
+    }
+
+    /**
+     * @return Root digest, or null for an empty tree
+     */
+    public Hash256 getRoot() {
+        ArrayList<Hash256> top = layers.get(layers.size() - 1);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    /**
+     * Returns the root in the form stored in Stina.merkleRoot
+     *
+     * @return Hex root, or "" for an empty tree
+     */
+    public String getRootHex() {
+        Hash256 root = getRoot();
+        return (root == null) ? "" : root.toString();
+    }
+
+    /**
+     * Creates an inclusion proof for a leaf
+     *
+     * @param index Leaf position
+     * @return Sibling digests from the leaf up to the root
+     */
+    public Proof getProof(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("No leaf at index " + index);
+        }
+        Hash256[] siblings = new Hash256[layers.size() - 1];
+        int position = index;
+        for (int level = 0; level < siblings.length; level++) {
+            ArrayList<Hash256> layer = layers.get(level);
+            int sibling = position ^ 1;
+            siblings[level] = layer.get(sibling < layer.size() ? sibling : position);
+            position >>= 1;
+        }
+        return new Proof(index, size(), siblings);
+    }
+
+    /**
+     * Checks that a leaf is included under a root
+     * The proof's shape must match its leaf count, and a node without a right
+     * neighbour may only be paired with itself.
+     *
+     * @param leaf  Leaf digest (a transaction id)
+     * @param proof Proof from getProof()
+     * @param root  Expected root digest
+     * @return true if the leaf hashes up to the root
+     */
+    public static boolean verify(Hash256 leaf, Proof proof, Hash256 root) {
+        if (leaf == null || proof == null || root == null
+                || proof.index < 0 || proof.index >= proof.leafCount) {
+            return false;
+        }
+        MessageDigest digest = newDigest();
+        byte[] pair = new byte[Hash256.BYTES * 2];
+        Hash256 node = leaf;
+        int position = proof.index;
+        int width = proof.leafCount;
+        int level = 0;
+
+        for (; width > 1; level++) {
+            if (level == proof.siblings.length) {
+                return false;
+            }
+            Hash256 sibling = proof.siblings[level];
+            boolean left = (position & 1) == 0;
+            if (left && position == width - 1 && !sibling.equals(node)) {
+                return false; // Last node of an odd layer must be duplicated
+            }
+            node = left ? hash(digest, pair, node, sibling) : hash(digest, pair, sibling, node);
+            position >>= 1;
+            width = (width + 1) / 2;
+        }
+        return level == proof.siblings.length && node.equals(root);
+    }
+
+    /**
+     * Hashes node i with its right neighbour (or itself on an odd layer's end)
+     */
+    private Hash256 node(ArrayList<Hash256> layer, int left) {
+        Hash256 right = (left + 1 < layer.size()) ? layer.get(left + 1) : layer.get(left);
+        return hash(digest, pair, layer.get(left), right);
+    }
+
+    private static Hash256 hash(MessageDigest digest, byte[] pair, Hash256 left, Hash256 right) {
+        left.writeTo(pair, 0);
+        right.writeTo(pair, Hash256.BYTES);
+        return Hash256.fromBytes(digest.digest(pair));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate SHA-256 hash", e);
+        }
+    }
+
+    /**
+     * Inclusion proof: leaf position, leaf count and the sibling at each level
+     */
+    public static class Proof {
+        public final int index;
+        public final int leafCount;
+        public final Hash256[] siblings;
+
+        public Proof(int index, int leafCount, Hash256[] siblings) {
+            this.index = index;
+            this.leafCount = leafCount;
+            this.siblings = siblings;
+        }
+    }
+}
\ No newline at end of file
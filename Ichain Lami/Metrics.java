@@ -0,0 +1,329 @@
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Process-wide runtime metrics: counters, gauges and histograms by name
+ * Hot paths update counters through LongAdder and histograms through
+ * Histogram, so recording never contends on a shared lock. Everything is
+ * published as read-only attributes of the JMX MBean "noobchain:type=Metrics"
+ * (registered when the first ChainState is created) and can also be read
+ * with snapshot() or report().
+ * Gauges describing chain state (UTXO count and bytes, height, index,
+ * mempool, signature cache) follow the most recently created ChainState.
+ */
+public final class Metrics {
+
+    /**
+     * Why a transaction was refused by a wallet, the chain or the mempool
+     */
+    public enum Rejection {
+        NULL_TRANSACTION,
+        INVALID_SIGNATURE,
+        VALUE_BELOW_MINIMUM,
+        INSUFFICIENT_FUNDS,
+        MISSING_INPUT,
+        FOREIGN_INPUT,
+        UNEXPECTED_OUTPUTS,
+        INPUTS_TOO_SMALL,
+        DOUBLE_SPEND,
+        POOL_FULL
+    }
+
+    // Registry, sorted by name
+    private static final ConcurrentSkipListMap<String, LongAdder> counters = new ConcurrentSkipListMap<String, LongAdder>();
+    private static final ConcurrentSkipListMap<String, LongSupplier> gauges = new ConcurrentSkipListMap<String, LongSupplier>();
+    private static final ConcurrentSkipListMap<String, Histogram> histograms = new ConcurrentSkipListMap<String, Histogram>();
+
+    // Mining
+    public static final LongAdder HASHES = counter("mining.hashes");
+    public static final LongAdder BLOCKS_MINED = counter("mining.blocks");
+    public static final Histogram NONCE_ATTEMPTS = histogram("mining.attemptsPerBlock");
+    public static final Histogram BLOCK_TIME = histogram("mining.blockNanos");
+
+    // Chain
+    public static final LongAdder BLOCKS_APPENDED = counter("chain.blocksAppended");
+    public static final LongAdder BLOCKS_STALE = counter("chain.blocksStale");
+    public static final LongAdder REORGS = counter("chain.reorgs");
+    public static final Histogram REORG_DEPTH = histogram("chain.reorgDepth");
+    public static final LongAdder BLOCKS_PRUNED = counter("chain.blocksPruned");
+
+    // Transactions and signatures
+    public static final LongAdder TRANSACTIONS_ACCEPTED = counter("transactions.accepted");
+    public static final Histogram SIGNATURE_VERIFY = histogram("signature.verifyNanos");
+    private static final LongAdder[] rejections = new LongAdder[Rejection.values().length];
+
+    // Validation
+    public static final Histogram VALIDATION_TIME = histogram("validation.nanos");
+    public static final LongAdder BLOCKS_VALIDATED = counter("validation.blocks");
+    public static final LongAdder VALIDATION_FAILURES = counter("validation.failures");
+
+    // UTXO snapshots
+    public static final Histogram SNAPSHOT_WRITE = histogram("snapshot.writeNanos");
+    public static final Histogram SNAPSHOT_LOAD = histogram("snapshot.loadNanos");
+
+    // JSON-RPC server
+    public static final LongAdder RPC_CALLS = counter("rpc.calls");
+    public static final LongAdder RPC_ERRORS = counter("rpc.errors");
+    public static final Histogram RPC_REQUEST_TIME = histogram("rpc.requestNanos");
+
+    // Hash rate of the most recently mined block
+    private static volatile long hashRate;
+
+    // Chain whose state the gauges report
+    private static volatile WeakReference<ChainState> tracked = new WeakReference<ChainState>(null);
+    private static final AtomicBoolean registered = new AtomicBoolean();
+
+    static {
+        for (Rejection reason : Rejection.values()) {
+            rejections[reason.ordinal()] = counter("transactions.rejected." + reason.name().toLowerCase(Locale.ROOT));
+        }
+        gauge("mining.hashesPerSecond", () -> hashRate);
+        gauge("log.dropped", EventLog::getDropped);
+        gauge("chain.height", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.size();
+        });
+        gauge("utxo.count", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.getUTXOs().size();
+        });
+        gauge("utxo.bytes", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.getUTXOs().getByteSize();
+        });
+        gauge("index.transactions", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.index.getTransactionCount();
+        });
+        gauge("mempool.size", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.getMempool().size();
+        });
+        gauge("signatureCache.hits", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.signatureCache.getHits();
+        });
+        gauge("signatureCache.misses", () -> {
+            ChainState chain = tracked.get();
+            return (chain == null) ? 0 : chain.signatureCache.getMisses();
+        });
+    }
+
+    private Metrics() {
+    }
+
+    // Registry
+
+    /**
+     * @param name Counter name
+     * @return Counter with that name, created on first use
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @param name Histogram name
+     * @return Histogram with that name, created on first use
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Registers (or replaces) a gauge
+     *
+     * @param name  Gauge name
+     * @param value Reads the current value; called on every snapshot
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Recording helpers
+
+    /**
+     * Records one mined block
+     *
+     * @param attempts Nonces hashed to find the block
+     * @param nanos    Time spent searching
+     */
+    public static void recordBlockMined(long attempts, long nanos) {
+        HASHES.add(attempts);
+        BLOCKS_MINED.increment();
+        NONCE_ATTEMPTS.record(attempts);
+        BLOCK_TIME.record(nanos);
+        hashRate = (nanos == 0) ? 0 : (long) (attempts * 1_000_000_000.0 / nanos);
+    }
+
+    /**
+     * @return Hashes per second while mining the most recent block
+     */
+    public static long getHashRate() {
+        return hashRate;
+    }
+
+    /**
+     * Counts a refused transaction and emits a JFR event for it
+     *
+     * @param reason Why the transaction was refused
+     */
+    public static void rejected(Rejection reason) {
+        rejections[reason.ordinal()].increment();
+        ChainEvents.TransactionRejected event = new ChainEvents.TransactionRejected();
+        if (event.shouldCommit()) {
+            event.reason = reason.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * @param reason Rejection reason
+     * @return Number of transactions refused for that reason
+     */
+    public static long getRejected(Rejection reason) {
+        return rejections[reason.ordinal()].sum();
+    }
+
+    /**
+     * Points the chain gauges at a chain and registers the MBean and the
+     * periodic JFR event on first use
+     *
+     * @param chain Newly created chain
+     */
+    static void track(ChainState chain) {
+        tracked = new WeakReference<ChainState>(chain);
+        if (!registered.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName("noobchain:type=Metrics"));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to register metrics MBean", e);
+        }
+        FlightRecorder.addPeriodicEvent(ChainEvents.UTXOSet.class, () -> {
+            ChainState current = tracked.get();
+            if (current == null) {
+                return;
+            }
+            ChainEvents.UTXOSet event = new ChainEvents.UTXOSet();
+            event.outputs = current.getUTXOs().size();
+            event.bytes = current.getUTXOs().getByteSize();
+            event.height = current.size();
+            event.commit();
+        });
+    }
+
+    // Reading
+
+    /**
+     * Reads every metric; a histogram contributes name.count, name.mean,
+     * name.p50, name.p99 and name.max
+     *
+     * @return Metric name -> current value, sorted by name within each kind
+     */
+    public static Map<String, Number> snapshot() {
+        LinkedHashMap<String, Number> values = new LinkedHashMap<String, Number>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            String name = entry.getKey();
+            Histogram histogram = entry.getValue();
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", histogram.getMean());
+            values.put(name + ".p50", histogram.getPercentile(50));
+            values.put(name + ".p99", histogram.getPercentile(99));
+            values.put(name + ".max", histogram.getMax());
+        }
+        return values;
+    }
+
+    /**
+     * @return Counters, gauges and histogram summaries, one per line
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            sb.append(String.format("%-44s %d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            sb.append(String.format("%-44s %d%n", gauge.getKey(), gauge.getValue().getAsLong()));
+        }
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            sb.append(String.format("%-44s %s%n", histogram.getKey(), histogram.getValue()));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Read-only MBean exposing snapshot() as attributes
+     * Built on every call, so metrics added later show up without re-registering.
+     */
+    private static class MBean implements DynamicMBean {
+
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number value = snapshot().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Number> values = snapshot();
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                if (values.containsKey(name)) {
+                    list.add(new Attribute(name, values.get(name)));
+                }
+            }
+            return list;
+        }
+
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metric " + attribute.getName() + " is read-only");
+        }
+
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList(); // Nothing is writable
+        }
+
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+            for (Map.Entry<String, Number> value : snapshot().entrySet()) {
+                attributes.add(new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                        value.getKey(), true, false, false));
+            }
+            return new MBeanInfo(Metrics.class.getName(), "NoobChain runtime metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Secondary index over the UTXO set keyed by owner
+ * Keeps each owner's unspent outputs together with a running balance, so
+ * balance queries are O(1) and listing a wallet's coins is O(its UTXOs)
+ * regardless of how large the global set grows. Each owner's outputs are
+ * also kept sorted by value for CoinSelector.
+ *
+ * Readers never lock. Writers are serialized on the index; apply() folds a
+ * whole transaction into one balance update per owner, so a reader sees an
+ * owner's balance either before or after a transaction, never halfway.
+ */
+public class OwnerIndex {
+
+    // Smallest value first; ties broken by id so distinct outputs never compare equal
+    static final Comparator<TransactionOutput> BY_VALUE = new Comparator<TransactionOutput>() {
+        public int compare(TransactionOutput a, TransactionOutput b) {
+            int c = Float.compare(a.value, b.value);
+            return (c != 0) ? c : a.id.compareTo(b.id);
+        }
+    };
+
+    // Owner address -> that owner's unspent outputs and balance
+    private final ConcurrentHashMap<Address, Entry> owners = new ConcurrentHashMap<Address, Entry>();
+
+    /**
+     * Records a new unspent output
+     *
+     * @param output Output added to the UTXO set
+     */
+    public void add(TransactionOutput output) {
+        apply(Collections.<TransactionOutput>emptyList(), Collections.singletonList(output));
+    }
+
+    /**
+     * Forgets a spent output
+     *
+     * @param output Output removed from the UTXO set
+     */
+    public void remove(TransactionOutput output) {
+        apply(Collections.singletonList(output), Collections.<TransactionOutput>emptyList());
+    }
+
+    /**
+     * Applies one transaction's effect on the index
+     *
+     * @param removed Outputs it spent
+     * @param added   Outputs it created
+     */
+    public synchronized void apply(List<TransactionOutput> removed, List<TransactionOutput> added) {
+        // Net change per owner, published with a single write each
+        HashMap<Entry, Double> deltas = new HashMap<Entry, Double>();
+
+        for (TransactionOutput output : added) {
+            Entry entry = owners.get(output.recipient);
+            if (entry == null) {
+                entry = new Entry();
+                owners.put(output.recipient, entry);
+            }
+            if (entry.outputs.putIfAbsent(output.id, output) == null) {
+                entry.byValue.add(output);
+                deltas.merge(entry, (double) output.value, Double::sum);
+            }
+        }
+
+        for (TransactionOutput output : removed) {
+            Entry entry = owners.get(output.recipient);
+            TransactionOutput stored = (entry == null) ? null : entry.outputs.remove(output.id);
+            if (stored != null) {
+                entry.byValue.remove(stored);
+                deltas.merge(entry, -(double) stored.value, Double::sum);
+            }
+        }
+
+        for (java.util.Map.Entry<Entry, Double> delta : deltas.entrySet()) {
+            Entry entry = delta.getKey();
+            if (entry.outputs.isEmpty()) {
+                entry.balance = 0; // Drops any accumulated rounding error too
+            } else {
+                entry.balance += delta.getValue();
+            }
+        }
+    }
+
+    /**
+     * Adds many outputs at once, e.g. a UTXO set loaded from a snapshot
+     * Outputs are grouped by owner; each owner not yet in the index gets its
+     * by-value set built from one sorted run instead of one skip-list
+     * insertion per output, and those owners are built in parallel. Owners
+     * already in the index are updated through apply().
+     *
+     * @param added Outputs added to the UTXO set
+     * @param pool  Pool to build owners on
+     */
+    public synchronized void addAll(List<TransactionOutput> added, ForkJoinPool pool) {
+        HashMap<Address, ArrayList<TransactionOutput>> groups = new HashMap<Address, ArrayList<TransactionOutput>>();
+        ArrayList<TransactionOutput> known = new ArrayList<TransactionOutput>();
+        for (TransactionOutput output : added) {
+            if (owners.containsKey(output.recipient)) {
+                known.add(output);
+            } else {
+                groups.computeIfAbsent(output.recipient, o -> new ArrayList<TransactionOutput>()).add(output);
+            }
+        }
+        apply(Collections.<TransactionOutput>emptyList(), known);
+
+        ArrayList<ArrayList<TransactionOutput>> runs = new ArrayList<ArrayList<TransactionOutput>>(groups.values());
+        pool.submit(() -> runs.parallelStream().forEach(run -> {
+            Entry entry = new Entry(run);
+            owners.put(run.get(0).recipient, entry);
+        })).join();
+    }
+
+    /**
+     * Returns the owner's balance
+     *
+     * @param owner Owner's address
+     * @return Sum of the owner's unspent output values
+     */
+    public float getBalance(Address owner) {
+        Entry entry = owners.get(owner);
+        return (entry == null) ? 0 : (float) entry.balance;
+    }
+
+    /**
+     * Returns the owner's unspent outputs
+     *
+     * @param owner Owner's address
+     * @return Read-only, weakly consistent view of the owner's UTXOs
+     */
+    public Collection<TransactionOutput> getOutputs(Address owner) {
+        Entry entry = owners.get(owner);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableCollection(entry.outputs.values());
+    }
+
+    /**
+     * Returns the owner's unspent outputs sorted by value
+     *
+     * @param owner Owner's address
+     * @return Read-only, weakly consistent view, smallest value first
+     */
+    public NavigableSet<TransactionOutput> getOutputsByValue(Address owner) {
+        Entry entry = owners.get(owner);
+        if (entry == null) {
+            return Collections.emptyNavigableSet();
+        }
+        return Collections.unmodifiableNavigableSet(entry.byValue);
+    }
+
+    /**
+     * @return Number of owners with at least one unspent output
+     */
+    public int getOwnerCount() {
+        int count = 0;
+        for (Entry entry : owners.values()) {
+            if (!entry.outputs.isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Removes every owner from the index
+     */
+    public synchronized void clear() {
+        owners.clear();
+    }
+
+    /**
+     * Per-owner state: unspent outputs (by id and by value) plus their running total
+     * Entries stay in the map once created so a reader holding one never
+     * misses later updates.
+     */
+    private static class Entry {
+        final ConcurrentHashMap<Hash256, TransactionOutput> outputs;
+        final ConcurrentSkipListSet<TransactionOutput> byValue;
+        volatile double balance; // Kept in double to limit drift from repeated add/subtract
+
+        Entry() {
+            outputs = new ConcurrentHashMap<Hash256, TransactionOutput>();
+            byValue = new ConcurrentSkipListSet<TransactionOutput>(BY_VALUE);
+        }
+
+        /**
+         * Builds an entry holding a batch of outputs; the skip list is built
+         * from a sorted set in linear time
+         */
+        Entry(List<TransactionOutput> batch) {
+            outputs = new ConcurrentHashMap<Hash256, TransactionOutput>(batch.size() * 4 / 3 + 1);
+            TreeSet<TransactionOutput> sorted = new TreeSet<TransactionOutput>(BY_VALUE);
+            double total = 0;
+            for (TransactionOutput output : batch) {
+                if (outputs.putIfAbsent(output.id, output) == null) {
+                    sorted.add(output);
+                    total += output.value;
+                }
+            }
+            byValue = new ConcurrentSkipListSet<TransactionOutput>(sorted);
+            balance = total;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,225 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-threaded proof-of-work engine
+ * Splits the 32-bit nonce space across a fixed pool of worker threads
+ */
+public class ParallelMiner {
+
+    // Number of distinct nonce values per timestamp (full 32-bit range)
+    private static final long NONCE_SPACE = 1L << 32;
+
+    // Worker configuration
+    private final int threads;
+    private final ExecutorService pool;
+
+    // Statistics from the most recent mining run
+    private volatile Result lastResult;
+
+    /**
+     * Constructor - starts a fixed pool of daemon worker threads
+     *
+     * @param threads Number of workers to split the nonce space across
+     */
+    public ParallelMiner(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Miner needs at least one worker thread");
+        }
+        this.threads = threads;
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "miner-" + count.getAndIncrement());
+                t.setDaemon(true); // Never keep the node alive just for mining
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Searches for a nonce (and timestamp, if needed) whose block hash meets the
+     * difficulty target. Worker i tries nonces i, i + n, i + 2n, ... so the
+     * workers never overlap. When the whole 32-bit range is exhausted the
+     * timestamp is bumped by one and the search restarts.
+     *
+     * @param prevHash   Previous block's hash
+     * @param timeStamp  Starting timestamp of the block
+     * @param merkleRoot Merkle root of the block's transactions
+     * @param difficulty Number of leading zeros required in hash
+     * @return Winning nonce, timestamp and hash plus per-worker statistics
+     */
+    public Result mine(final Hash256 prevHash, long timeStamp, final String merkleRoot, final int difficulty) {
+        final WorkerStats[] stats = new WorkerStats[threads];
+        for (int w = 0; w < threads; w++) {
+            stats[w] = new WorkerStats(w);
+        }
+
+        final AtomicReference<Result> winner = new AtomicReference<Result>();
+        long rounds = 0;
+
+        while (winner.get() == null) {
+            final long roundTimeStamp = timeStamp + rounds;
+            List<Callable<Void>> workers = new ArrayList<Callable<Void>>(threads);
+
+            for (int w = 0; w < threads; w++) {
+                final int offset = w;
+                final WorkerStats workerStats = stats[w];
+                workers.add(new Callable<Void>() {
+                    public Void call() {
+                        long start = System.nanoTime();
+                        long hashes = 0;
+                        BlockHeaderHasher hasher = new BlockHeaderHasher(prevHash, roundTimeStamp, merkleRoot);
+
+                        // Walk this worker's slice of the nonce space
+                        for (long candidate = offset; candidate < NONCE_SPACE; candidate += threads) {
+                            if (winner.get() != null) {
+                                break; // Another worker already found a valid hash
+                            }
+                            int nonce = (int) candidate;
+                            byte[] hash = hasher.hash(nonce);
+                            hashes++;
+                            if (BlockHeaderHasher.meetsDifficulty(hash, difficulty)) {
+                                winner.compareAndSet(null,
+                                        new Result(nonce, roundTimeStamp, Hash256.fromBytes(hash), stats));
+                                break;
+                            }
+                        }
+
+                        workerStats.record(hashes, System.nanoTime() - start);
+                        return null;
+                    }
+                });
+            }
+
+            try {
+                for (Future<Void> f : pool.invokeAll(workers)) {
+                    f.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Mining was interrupted", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Mining worker failed", e.getCause());
+            }
+
+            // Nonce range exhausted without a winner: bump the timestamp
+            rounds++;
+        }
+
+        lastResult = winner.get();
+        return lastResult;
+    }
+
+    /**
+     * @return Number of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return Result of the most recent mining run (null if none yet)
+     */
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    /**
+     * Stops the worker pool
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Outcome of a mining run
+     */
+    public static class Result {
+        public final int nonce;
+        public final long timeStamp;
+        public final Hash256 hash;
+        public final WorkerStats[] workers;
+
+        Result(int nonce, long timeStamp, Hash256 hash, WorkerStats[] workers) {
+            this.nonce = nonce;
+            this.timeStamp = timeStamp;
+            this.hash = hash;
+            this.workers = workers;
+        }
+
+        /**
+         * @return Hashes computed by all workers
+         */
+        public long totalHashes() {
+            long total = 0;
+            for (WorkerStats w : workers) {
+                total += w.getHashes();
+            }
+            return total;
+        }
+
+        /**
+         * @return Combined hash rate of all workers
+         */
+        public double totalHashesPerSecond() {
+            double total = 0;
+            for (WorkerStats w : workers) {
+                total += w.hashesPerSecond();
+            }
+            return total;
+        }
+
+        /**
+         * Formats per-worker hash rates, one line per worker
+         *
+         * @return Human readable throughput report
+         */
+        public String report() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("Mined with %d workers: %.0f H/s total", workers.length, totalHashesPerSecond()));
+            for (WorkerStats w : workers) {
+                sb.append(String.format("%n  worker %d: %d hashes, %.0f H/s", w.worker, w.getHashes(), w.hashesPerSecond()));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Hash counter for a single worker across all rounds of a mining run
+     */
+    public static class WorkerStats {
+        public final int worker;
+        private long hashes;
+        private long nanos;
+
+        WorkerStats(int worker) {
+            this.worker = worker;
+        }
+
+        synchronized void record(long hashes, long nanos) {
+            this.hashes += hashes;
+            this.nanos += nanos;
+        }
+
+        public synchronized long getHashes() {
+            return hashes;
+        }
+
+        /**
+         * @return Hashes per second over the time this worker spent searching
+         */
+        public synchronized double hashesPerSecond() {
+            return nanos == 0 ? 0 : hashes * 1_000_000_000.0 / nanos;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+import java.security.Security;
+import java.util.List;
+
+/**
+ * Measures the heap held by a chain with and without block body pruning
+ * The same payment schedule is mined twice in memory: the payer funds the
+ * recipients round-robin and every block one recipient sweeps its whole
+ * balance back, so old blocks end up with all their outputs spent. The
+ * pruned chain must hold the same balances and unspent outputs as the full
+ * one, pass an audit over its header-only history, keep the bodies of blocks
+ * with unspent outputs, and fail the audit when a pruned header is altered.
+ * Exits with status 1 on the first mismatch.
+ */
+public class PruneBenchmark {
+
+    /**
+     * Usage: PruneBenchmark [blocks] [transactionsPerBlock] [pruneDepth]
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        if (System.getProperty("noobchain.log") == null) {
+            EventLog.setLevel(EventLog.Level.ERROR);
+        }
+        int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 5_000;
+        int perBlock = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+
+        Wallet payer = new Wallet();
+        Wallet[] recipients = ChainHarness.wallets(8);
+
+        // Full chain: remember what the pruned one must match, then let it go
+        long before = usedHeap();
+        ChainState full = buildChain(blocks, perBlock, 0, payer, recipients);
+        long fullBytes = usedHeap() - before;
+        long start = System.nanoTime();
+        ChainHarness.check(full.auditChain(), "full chain is invalid");
+        long fullAudit = System.nanoTime() - start;
+        int outputs = full.getUTXOs().size();
+        float[] balances = balances(full, payer, recipients);
+        full.shutdown();
+        full = null;
+
+        before = usedHeap();
+        ChainState pruned = buildChain(blocks, perBlock, depth, payer, recipients);
+        long prunedBytes = usedHeap() - before;
+        start = System.nanoTime();
+        ChainHarness.check(pruned.auditChain(), "pruned chain is invalid");
+        long prunedAudit = System.nanoTime() - start;
+        ChainHarness.check(pruned.isChainValid(), "pruned chain fails incremental validation");
+
+        int pruneHeight = pruned.getPruneHeight();
+        ChainHarness.check(pruneHeight == blocks - 1 - depth, "prune height is " + pruneHeight);
+        ChainHarness.check(pruned.getUTXOs().size() == outputs, "unspent output count differs");
+        float[] prunedBalances = balances(pruned, payer, recipients);
+        for (int i = 0; i < balances.length; i++) {
+            ChainHarness.check(prunedBalances[i] == balances[i], "balance " + i + " differs");
+        }
+
+        // Bodies are dropped exactly for blocks up to the prune height with no output unspent at the base
+        List<Stina> chain = pruned.getBlocks();
+        UTXOStore base = pruned.validator.getBase().utxos;
+        int prunedBlocks = 0;
+        Stina sample = null;
+        for (int height = 1; height < chain.size(); height++) {
+            Stina block = chain.get(height);
+            if (block.isPruned()) {
+                ChainHarness.check(height <= pruneHeight && block.transactions.isEmpty(),
+                        "block " + height + " pruned too early");
+                prunedBlocks++;
+                sample = block;
+            } else if (height <= pruneHeight) {
+                ChainHarness.check(hasUnspent(base, block), "spent block " + height + " kept its body");
+            }
+        }
+        ChainHarness.check(prunedBlocks > 0 && prunedBlocks + pruned.getRetainedBlocks() == pruneHeight,
+                "pruned " + prunedBlocks + ", retained " + pruned.getRetainedBlocks());
+
+        // A pruned header is still covered by the audit
+        String merkleRoot = sample.merkleRoot;
+        sample.merkleRoot = Hash256.ZERO.toString();
+        ChainHarness.check(!pruned.auditChain(), "altered pruned header passed the audit");
+        sample.merkleRoot = merkleRoot;
+        ChainHarness.check(pruned.auditChain(), "restored chain is invalid");
+
+        System.out.printf("Chain: %d blocks, %d transactions per block, %d unspent outputs%n", blocks, perBlock,
+                outputs);
+        System.out.printf("  full          heap %8.1f MB   audit %8.2f ms%n", fullBytes / 1e6, fullAudit / 1e6);
+        System.out.printf("  depth=%-6d  heap %8.1f MB   audit %8.2f ms   %d bodies pruned, %d retained%n", depth,
+                prunedBytes / 1e6, prunedAudit / 1e6, prunedBlocks, pruned.getRetainedBlocks());
+        pruned.shutdown();
+    }
+
+    /**
+     * Creates an in-memory chain at difficulty 1 and mines the payment schedule
+     */
+    private static ChainState buildChain(int blocks, int perBlock, int depth, Wallet payer, Wallet[] recipients) {
+        ChainState chain = ChainHarness.newChain();
+        chain.setPruneDepth(depth);
+        ChainHarness.addGenesis(chain, payer.address, ChainHarness.SUPPLY);
+
+        for (int b = 1; b < blocks; b++) {
+            // Payments 1 .. perBlock - 1, then the sweep
+            Stina block = ChainHarness.roundRobinBlock(chain, payer, recipients, b, perBlock, 1);
+            Wallet sweeper = recipients[b % recipients.length];
+            float balance = chain.getBalance(sweeper.address);
+            if (balance >= chain.getMinimumTransaction()) {
+                ChainHarness.check(block.addTransaction(sweeper.sendFunds(chain, payer.address, balance), chain),
+                        "sweep rejected");
+            }
+            ChainHarness.append(chain, block);
+        }
+        return chain;
+    }
+
+    private static float[] balances(ChainState chain, Wallet payer, Wallet[] recipients) {
+        float[] balances = new float[recipients.length + 1];
+        balances[0] = chain.getBalance(payer.address);
+        for (int i = 0; i < recipients.length; i++) {
+            balances[i + 1] = chain.getBalance(recipients[i].address);
+        }
+        return balances;
+    }
+
+    private static boolean hasUnspent(UTXOStore utxos, Stina block) {
+        for (Transaction transaction : block.transactions) {
+            for (TransactionOutput output : transaction.outputs) {
+                if (utxos.contains(output.id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Heap in use after repeated collections
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Measures chain reorganizations against the reorg depth and chain length
+ * For each chain length N a stored chain is built. For each depth d a rival
+ * chain is reopened from a copy of the store cut back to the fork point and
+ * mines d + 1 competing blocks paying different recipients; those blocks are
+ * submitted to the first chain and the last one, which gives the rival branch
+ * more work, is timed. Disconnecting and reconnecting uses per-block undo
+ * logs, so the time grows with d and not with N; rebuilding the UTXO set
+ * from the store and validating the whole chain are shown for comparison.
+ * After every reorg the chain must pass an audit and hold exactly the
+ * rival's unspent outputs.
+ * Exits with status 1 on the first mismatch.
+ */
+public class ReorgBenchmark {
+
+    /**
+     * Usage: ReorgBenchmark [transactionsPerBlock] [chainLengths...]
+     */
+    public static void main(String[] args) throws IOException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        if (System.getProperty("noobchain.log") == null) {
+            EventLog.setLevel(EventLog.Level.ERROR);
+        }
+        int perBlock = (args.length > 0) ? Integer.parseInt(args[0]) : 2;
+        int[] lengths = { 1_000, 10_000 };
+        if (args.length > 1) {
+            lengths = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                lengths[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        int[] depths = { 1, 10, 100 };
+
+        Wallet payer = new Wallet();
+        Wallet[] recipients = ChainHarness.wallets(8);
+        Wallet[] rivals = ChainHarness.wallets(8);
+
+        for (int length : lengths) {
+            Path directory = Files.createTempDirectory("reorg-" + length + "-");
+            ChainState chain = buildChain(directory, length, perBlock, payer, recipients);
+            System.out.println("Chain: " + length + " blocks, " + perBlock + " transactions per block");
+
+            for (int depth : depths) {
+                if (depth >= chain.size() - 1) {
+                    continue;
+                }
+                int fork = chain.size() - 1 - depth;
+                Path copy = Files.createTempDirectory("reorg-rival-");
+                chain.getBlockStore().flush();
+                copyStore(directory, copy);
+
+                // Rival: the same chain up to the fork, then its own blocks
+                ChainState rival = ChainHarness.newChain();
+                BlockStore rivalStore = new BlockStore(copy);
+                rivalStore.truncate(fork + 1);
+                long loadStart = System.nanoTime();
+                rival.load(rivalStore);
+                long loadNanos = System.nanoTime() - loadStart;
+
+                ArrayList<Stina> branch = new ArrayList<Stina>();
+                for (int b = 0; b <= depth; b++) {
+                    branch.add(mineBlock(rival, perBlock, payer, rivals, b));
+                }
+
+                // Every block but the last stays on a side branch
+                for (int b = 0; b < depth; b++) {
+                    ChainHarness.check(!chain.submitBlock(branch.get(b)), "side branch block became active");
+                }
+                long start = System.nanoTime();
+                ChainHarness.check(chain.submitBlock(branch.get(depth)), "heavier branch was not adopted");
+                long reorgNanos = System.nanoTime() - start;
+
+                ChainHarness.check(chain.getTip().hash.equals(rival.getTip().hash), "tips differ after reorg");
+                long auditStart = System.nanoTime();
+                ChainHarness.check(chain.auditChain(), "chain is invalid after reorg");
+                long auditNanos = System.nanoTime() - auditStart;
+                ChainHarness.check(sameOutputs(chain, rival, payer, recipients, rivals),
+                        "UTXO sets differ after reorg");
+                ChainHarness.check(chain.index.getHeight(branch.get(depth).hash) == chain.size() - 1,
+                        "index was not updated");
+                ChainHarness.check(chain.getBlockStore().size() == chain.size(), "block store was not updated");
+
+                System.out.printf("  depth=%-4d reorg %8.2f ms   rebuild from store %8.2f ms   audit %8.2f ms%n", depth,
+                        reorgNanos / 1_000_000.0, loadNanos / 1_000_000.0, auditNanos / 1_000_000.0);
+                rival.shutdown();
+                rivalStore.close();
+                delete(copy);
+            }
+            ChainHarness.check(Metrics.REORGS.sum() > 0, "no reorganization was counted");
+            chain.shutdown();
+            chain.getBlockStore().close();
+            delete(directory);
+        }
+        System.out.println("reorganizations: " + Metrics.REORGS.sum() + ", depth " + Metrics.REORG_DEPTH);
+    }
+
+    /**
+     * Creates a stored chain at difficulty 1 in which the payer funds the
+     * recipients round-robin
+     */
+    private static ChainState buildChain(Path directory, int blocks, int perBlock, Wallet payer,
+            Wallet[] recipients) {
+        ChainState chain = ChainHarness.newChain();
+        chain.setBlockStore(new BlockStore(directory));
+        return ChainHarness.buildChain(chain, blocks, perBlock, payer, recipients);
+    }
+
+    /**
+     * Assembles and mines the next block of a chain
+     */
+    private static Stina mineBlock(ChainState chain, int perBlock, Wallet payer, Wallet[] recipients, int b) {
+        Stina block = ChainHarness.roundRobinBlock(chain, payer, recipients, b, perBlock, 0);
+        ChainHarness.append(chain, block);
+        return block;
+    }
+
+    /**
+     * Compares the unspent outputs of every wallet used by the benchmark
+     */
+    private static boolean sameOutputs(ChainState a, ChainState b, Wallet payer, Wallet[] recipients,
+            Wallet[] rivals) {
+        if (a.getUTXOs().size() != b.getUTXOs().size()) {
+            return false;
+        }
+        List<Wallet> wallets = new ArrayList<Wallet>();
+        wallets.add(payer);
+        for (Wallet wallet : recipients) {
+            wallets.add(wallet);
+        }
+        for (Wallet wallet : rivals) {
+            wallets.add(wallet);
+        }
+        for (Wallet wallet : wallets) {
+            Collection<TransactionOutput> outputs = a.getOwners().getOutputs(wallet.address);
+            if (outputs.size() != b.getOwners().getOutputs(wallet.address).size()) {
+                return false;
+            }
+            for (TransactionOutput output : outputs) {
+                if (!b.getUTXOs().contains(output.id)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void copyStore(Path from, Path to) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(from)) {
+            for (Path file : files) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Load test for the JSON-RPC server over localhost
+ * Without a port argument a node is started in this process on a free
+ * loopback port: every client gets a funded wallet, and after the read
+ * phase each client submits one payment on its own and one more goes in
+ * batched submitTransactions calls. The miner must confirm every payment
+ * and the balances read back through batched getBalance calls must match.
+ * With a port, only the read phase runs against that node.
+ * Every client is a virtual thread with its own requests in flight; the run
+ * reports calls/s and latency per phase.
+ * Node log output is limited to errors unless -Dnoobchain.log is given.
+ * Exits with status 1 on the first unexpected response.
+ */
+public class RpcLoadClient {
+
+    // Value of each output a client wallet is funded with
+    private static final float FUNDING = 10f;
+
+    private final HttpClient http;
+    private final URI uri;
+    private final AtomicInteger ids = new AtomicInteger();
+
+    private RpcLoadClient(HttpClient http, int port) {
+        this.http = http;
+        this.uri = URI.create("http://127.0.0.1:" + port + "/");
+    }
+
+    /**
+     * Usage: RpcLoadClient [clients] [callsPerClient] [batchSize] [port]
+     */
+    public static void main(String[] args) throws Exception {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        if (System.getProperty("noobchain.log") == null) {
+            EventLog.setLevel(EventLog.Level.ERROR);
+        }
+        int clients = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000;
+        int callsPerClient = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int batchSize = (args.length > 2) ? Integer.parseInt(args[2]) : 50;
+        int port = (args.length > 3) ? Integer.parseInt(args[3]) : 0;
+
+        // Clients block in send() on virtual threads; responses are read on the HTTP client's own
+        // platform threads, so they keep draining while an in-process server write pins a carrier
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        ChainState chain = null;
+        RpcServer server = null;
+        List<Wallet> wallets = null;
+        if (port == 0) {
+            chain = ChainHarness.newChain();
+            long start = System.nanoTime();
+            try (WalletFactory factory = new WalletFactory()) {
+                wallets = factory.newWallets(clients);
+            }
+            fund(chain, wallets);
+            server = new RpcServer(chain, 0, clients);
+            server.start();
+            server.startMining(1_000);
+            port = server.getAddress().getPort();
+            System.out.printf("Node on port %d: %d funded wallets in %.0f ms%n", port, clients,
+                    (System.nanoTime() - start) / 1e6);
+        }
+        RpcLoadClient client = new RpcLoadClient(http, port);
+
+        // Reads: every client cycles through the read-only methods
+        final List<Wallet> funded = wallets;
+        Histogram latency = new Histogram();
+        long nanos = run(threads, clients, c -> {
+            for (int i = 0; i < callsPerClient; i++) {
+                long start = System.nanoTime();
+                switch (i % 4) {
+                    case 0:
+                        JsonObject tip = client.call("getTip").getAsJsonObject();
+                        ChainHarness.check(tip.get("height").getAsInt() >= 0, "empty chain");
+                        break;
+                    case 1:
+                        client.call("getMiningStatus");
+                        break;
+                    case 2:
+                        int height = ThreadLocalRandom.current().nextInt(Math.max(1, client.call("getTip")
+                                .getAsJsonObject().get("height").getAsInt() + 1));
+                        ChainHarness.check(client.call("getBlockByHeight", new JsonPrimitive(height)).getAsJsonObject()
+                                .get("height").getAsInt() == height, "wrong block");
+                        break;
+                    default:
+                        if (funded != null) {
+                            ChainHarness.check(client.call("getBalance", address(funded.get(c))).getAsFloat() > 0,
+                                    "unfunded wallet");
+                        } else {
+                            client.call("getTip");
+                        }
+                }
+                latency.record(System.nanoTime() - start);
+            }
+        });
+        report("reads", clients * callsPerClient, nanos, latency);
+
+        if (chain != null) {
+            submit(client, threads, wallets, batchSize);
+            awaitMined(client, chain, 1 + 4 * clients); // Genesis, funding and payments
+
+            // Every wallet paid 1 twice and was paid 1 twice
+            for (int from = 0; from < clients; from += batchSize) {
+                int to = Math.min(clients, from + batchSize);
+                JsonArray batch = new JsonArray();
+                for (int c = from; c < to; c++) {
+                    batch.add(client.request("getBalance", address(wallets.get(c))));
+                }
+                JsonArray responses = client.post(batch).getAsJsonArray();
+                ChainHarness.check(responses.size() == to - from, "batch answered " + responses.size() + " calls");
+                for (JsonElement response : responses) {
+                    ChainHarness.check(result(response).getAsFloat() == 2 * FUNDING, "balance differs");
+                }
+            }
+            ChainHarness.check(chain.isChainValid(), "chain is invalid");
+            System.out.println("Balances match, " + server.getBlocksMined() + " blocks mined, chain valid");
+            server.stop(1);
+            chain.shutdown();
+        }
+        System.out.println("rpc.requestNanos " + Metrics.RPC_REQUEST_TIME);
+        threads.shutdown();
+    }
+
+    /**
+     * Submits one payment per client with submitTransaction, then one more
+     * per client in submitTransactions batches
+     */
+    private static void submit(RpcLoadClient client, ExecutorService threads, List<Wallet> wallets, int batchSize)
+            throws Exception {
+        int clients = wallets.size();
+        Transaction[][] payments = new Transaction[2][clients];
+        long start = System.nanoTime();
+        run(threads, clients, c -> {
+            Wallet wallet = wallets.get(c);
+            JsonArray outputs = client.call("getUnspentOutputs", address(wallet)).getAsJsonArray();
+            ChainHarness.check(outputs.size() == 2, "wallet " + c + " has " + outputs.size() + " outputs");
+            Address to = wallets.get((c + 1) % clients).address;
+            for (int p = 0; p < 2; p++) {
+                ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
+                inputs.add(new TransactionInput(Hash256.fromHex(
+                        outputs.get(p).getAsJsonObject().get("id").getAsString())));
+                Transaction payment = new Transaction(wallet.address, to, 1f, inputs);
+                payment.generateSignature(wallet.privateKey);
+                payments[p][c] = payment;
+            }
+        });
+        System.out.printf("signed %d payments in %.0f ms%n", 2 * clients, (System.nanoTime() - start) / 1e6);
+
+        Histogram latency = new Histogram();
+        long nanos = run(threads, clients, c -> {
+            long callStart = System.nanoTime();
+            JsonElement admission = client.call("submitTransaction", hex(payments[0][c]));
+            latency.record(System.nanoTime() - callStart);
+            ChainHarness.check(admission.getAsString().equals("ACCEPTED"), "payment " + c + ": " + admission);
+        });
+        report("submitTransaction", clients, nanos, latency);
+
+        Histogram batchLatency = new Histogram();
+        int batches = (clients + batchSize - 1) / batchSize;
+        nanos = run(threads, batches, b -> {
+            JsonArray encoded = new JsonArray();
+            for (int c = b * batchSize; c < Math.min(clients, (b + 1) * batchSize); c++) {
+                encoded.add(hex(payments[1][c]));
+            }
+            long callStart = System.nanoTime();
+            JsonArray admissions = client.call("submitTransactions", encoded).getAsJsonArray();
+            batchLatency.record(System.nanoTime() - callStart);
+            for (JsonElement admission : admissions) {
+                ChainHarness.check(admission.getAsString().equals("ACCEPTED"), "batched payment: " + admission);
+            }
+        });
+        report("submitTransactions x" + batchSize, clients, nanos, batchLatency);
+    }
+
+    /**
+     * Waits until the miner has put every payment on the chain
+     */
+    private static void awaitMined(RpcLoadClient client, ChainState chain, int transactions)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        while (chain.index.getTransactionCount() < transactions) {
+            ChainHarness.check(System.nanoTime() - start < 60_000_000_000L, "payments were not mined");
+            Thread.sleep(20);
+        }
+        ChainHarness.check(client.call("getMiningStatus").getAsJsonObject().get("mempoolSize").getAsInt() == 0,
+                "mempool is not empty");
+        System.out.printf("mempool drained in %.0f ms, tip at height %d%n", (System.nanoTime() - start) / 1e6,
+                client.call("getTip").getAsJsonObject().get("height").getAsInt());
+    }
+
+    /**
+     * Funds every wallet with two outputs of FUNDING, in blocks of 500 payments
+     */
+    private static void fund(ChainState chain, List<Wallet> wallets) {
+        Wallet payer = new Wallet();
+        ChainHarness.addGenesis(chain, payer.address, ChainHarness.SUPPLY);
+
+        Stina block = new Stina(chain.getTip().hash);
+        for (int p = 0; p < 2 * wallets.size(); p++) {
+            Address to = wallets.get(p % wallets.size()).address;
+            ChainHarness.check(block.addTransaction(payer.sendFunds(chain, to, FUNDING), chain), "funding rejected");
+            if (block.transactions.size() == 500 || p == 2 * wallets.size() - 1) {
+                ChainHarness.check(chain.addBlock(block), "funding block was not appended");
+                block = new Stina(chain.getTip().hash);
+            }
+        }
+    }
+
+    /**
+     * Runs one task per index on virtual threads and waits for all of them
+     *
+     * @return Elapsed nanoseconds
+     */
+    private static long run(ExecutorService threads, int count, Task task) throws Exception {
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<Future<?>>(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures.add(threads.submit(() -> {
+                task.run(index);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String phase, int calls, long nanos, Histogram latency) {
+        System.out.printf("%-24s %7d calls in %7.0f ms  %8.0f calls/s  latency p50 %.2f ms p99 %.2f ms%n", phase,
+                calls, nanos / 1e6, calls * 1e9 / nanos, latency.getPercentile(50) / 1e6,
+                latency.getPercentile(99) / 1e6);
+    }
+
+    // JSON-RPC client
+
+    /**
+     * Calls a method and returns its result
+     */
+    private JsonElement call(String method, JsonElement... params) {
+        return result(post(request(method, params)));
+    }
+
+    private JsonObject request(String method, JsonElement... params) {
+        JsonObject request = new JsonObject();
+        request.addProperty("jsonrpc", "2.0");
+        request.addProperty("method", method);
+        JsonArray array = new JsonArray();
+        for (JsonElement param : params) {
+            array.add(param);
+        }
+        request.add("params", array);
+        request.addProperty("id", ids.incrementAndGet());
+        return request;
+    }
+
+    /**
+     * Posts a call or batch and parses the response
+     */
+    private JsonElement post(JsonElement body) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        try {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            ChainHarness.check(response.statusCode() == 200, "HTTP status " + response.statusCode());
+            return JsonParser.parseString(response.body());
+        } catch (IOException e) {
+            throw new RuntimeException("JSON-RPC request to " + uri + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + uri, e);
+        }
+    }
+
+    private static JsonElement result(JsonElement response) {
+        JsonObject object = response.getAsJsonObject();
+        ChainHarness.check(!object.has("error"), "error response " + object.get("error"));
+        return object.get("result");
+    }
+
+    private static JsonPrimitive address(Wallet wallet) {
+        return new JsonPrimitive(wallet.address.toString());
+    }
+
+    private static JsonPrimitive hex(Transaction transaction) {
+        return new JsonPrimitive(StringUtil.toHex(BlockCodec.toBytes(transaction)));
+    }
+
+    /**
+     * Work of one client
+     */
+    private interface Task {
+        void run(int index) throws Exception;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,586 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * JSON-RPC 2.0 API of a node, served over HTTP on the loopback interface
+ * Every request is handled on its own virtual thread, so thousands of
+ * clients waiting on the network, the write lock or a batch cost no
+ * platform threads. A POST body holds one call or a batch (an array of
+ * calls, answered in one response in the same order); calls without an id
+ * are notifications and get no response.
+ *
+ * Methods:
+ * - submitTransaction [hex]            -> admission result, e.g. "ACCEPTED"
+ * - submitTransactions [[hex, ...]]    -> admission result per transaction,
+ *                                         or {code, message} if it is malformed
+ * - getBalance [address]               -> balance
+ * - getUnspentOutputs [address]        -> [{id, value}, ...]
+ * - getBlockByHeight [height]          -> block
+ * - getBlockByHash [hash]              -> block, or null if unknown
+ * - getTip []                          -> {height, hash, timeStamp}
+ * - getMiningStatus []                 -> miner, difficulty and mempool state
+ * Transactions are the hex of their BlockCodec encoding, signed but not yet
+ * processed (as Wallet.sendFunds returns them, without id or outputs);
+ * addresses are the Base64 X.509 keys used in block JSON; hashes are hex.
+ * submitTransactions checks the signatures of the whole batch in parallel
+ * on the validator pool before admitting the transactions in order.
+ *
+ * Submitted transactions go to the chain's mempool. With mining started,
+ * a miner thread keeps filling blocks from the mempool and appending them.
+ * Needs Java 21 (virtual threads). The JDK's HTTP server writes responses
+ * while holding a monitor, so a client that stops reading a large response
+ * pins one carrier thread until the write completes.
+ */
+public class RpcServer {
+
+    // Default port (loopback only)
+    public static final int DEFAULT_PORT = 8645;
+
+    // Largest accepted request body
+    public static final int MAX_REQUEST_BYTES = 16 * 1024 * 1024;
+
+    // Error codes from the JSON-RPC 2.0 specification
+    public static final int PARSE_ERROR = -32700;
+    public static final int INVALID_REQUEST = -32600;
+    public static final int METHOD_NOT_FOUND = -32601;
+    public static final int INVALID_PARAMS = -32602;
+    public static final int INTERNAL_ERROR = -32603;
+
+    // Served chain
+    private final ChainState chain;
+
+    // HTTP server and the executor running one virtual thread per exchange
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Gson gson = new Gson();
+
+    // Background miner (null when not mining)
+    private volatile Thread miner;
+    private volatile int maxBlockTransactions;
+    private final LongAdder blocksMined = new LongAdder();
+
+    /**
+     * Creates a server bound to the loopback interface; call start() to serve
+     *
+     * @param chain   Chain to serve
+     * @param port    TCP port (0 picks a free one)
+     * @param backlog Connections queued before accept (0 for the system default)
+     */
+    public RpcServer(ChainState chain, int port, int backlog) {
+        this.chain = chain;
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), backlog);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to bind JSON-RPC server to port " + port, e);
+        }
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.createContext("/", this::handle);
+        server.start();
+        EventLog.info("JSON-RPC server listening on " + getAddress());
+    }
+
+    /**
+     * Stops the miner, then the server, waiting up to delaySeconds for
+     * requests in progress
+     *
+     * @param delaySeconds Time given to exchanges in progress
+     */
+    public void stop(int delaySeconds) {
+        stopMining();
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Address and port the server is bound to
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    // Mining
+
+    /**
+     * Starts a miner thread that builds blocks of up to maxTransactions from
+     * the mempool and appends them while transactions are pending
+     * Mining is CPU-bound, so the miner runs on a platform thread.
+     *
+     * @param maxTransactions Maximum number of transactions per block
+     */
+    public synchronized void startMining(int maxTransactions) {
+        maxBlockTransactions = maxTransactions;
+        if (miner != null) {
+            return;
+        }
+        Thread thread = new Thread(this::mine, "rpc-miner");
+        thread.setDaemon(true);
+        miner = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the miner thread after the block it is working on
+     */
+    public synchronized void stopMining() {
+        Thread thread = miner;
+        if (thread == null) {
+            return;
+        }
+        miner = null;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if the miner thread is running
+     */
+    public boolean isMining() {
+        return miner != null;
+    }
+
+    /**
+     * @return Number of blocks appended by the miner thread
+     */
+    public long getBlocksMined() {
+        return blocksMined.sum();
+    }
+
+    /**
+     * Miner loop: waits for pending transactions, then mines a block of them
+     * If the tip moved meanwhile, addBlock() reverts the block and returns
+     * its transactions to the mempool for the next template.
+     */
+    private void mine() {
+        Thread self = Thread.currentThread();
+        while (miner == self) {
+            if (chain.getMempool().size() == 0 || chain.getTip() == null) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+                continue;
+            }
+            try {
+                Stina block = chain.getMempool().buildTemplate(chain.getTip().hash, maxBlockTransactions);
+                if (!block.transactions.isEmpty() && chain.addBlock(block)) {
+                    blocksMined.increment();
+                }
+            } catch (RuntimeException e) {
+                EventLog.error("JSON-RPC miner failed to build a block: " + e.getMessage());
+            }
+        }
+    }
+
+    // HTTP
+
+    /**
+     * Answers one HTTP exchange (runs on its own virtual thread)
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = readBody(exchange.getRequestBody());
+            JsonElement response = (body == null)
+                    ? error(JsonNull.INSTANCE, INVALID_REQUEST, "Request larger than " + MAX_REQUEST_BYTES + " bytes")
+                    : dispatch(new String(body, StandardCharsets.UTF_8));
+            if (response == null) {
+                exchange.sendResponseHeaders(204, -1); // Only notifications
+                return;
+            }
+            byte[] out = gson.toJson(response).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, out.length);
+            try (OutputStream stream = exchange.getResponseBody()) {
+                stream.write(out);
+            }
+        } finally {
+            exchange.close();
+            Metrics.RPC_REQUEST_TIME.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @return Request body, or null if it exceeds MAX_REQUEST_BYTES
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        byte[] body = in.readNBytes(MAX_REQUEST_BYTES + 1);
+        return (body.length > MAX_REQUEST_BYTES) ? null : body;
+    }
+
+    // JSON-RPC
+
+    /**
+     * Parses a request body and answers the call or batch in it
+     *
+     * @param text Request body
+     * @return Response, or null if nothing is to be answered
+     */
+    JsonElement dispatch(String text) {
+        JsonElement request;
+        try {
+            request = JsonParser.parseString(text);
+        } catch (JsonParseException e) {
+            return error(JsonNull.INSTANCE, PARSE_ERROR, "Parse error");
+        }
+        if (!request.isJsonArray()) {
+            return call(request);
+        }
+
+        JsonArray batch = request.getAsJsonArray();
+        if (batch.isEmpty()) {
+            return error(JsonNull.INSTANCE, INVALID_REQUEST, "Empty batch");
+        }
+        JsonArray responses = new JsonArray();
+        for (JsonElement element : batch) {
+            JsonElement response = call(element);
+            if (response != null) {
+                responses.add(response);
+            }
+        }
+        return responses.isEmpty() ? null : responses;
+    }
+
+    /**
+     * Answers one call
+     *
+     * @return Response object, or null for a notification
+     */
+    private JsonElement call(JsonElement element) {
+        Metrics.RPC_CALLS.increment();
+        if (!element.isJsonObject()) {
+            return error(JsonNull.INSTANCE, INVALID_REQUEST, "Invalid Request");
+        }
+        JsonObject request = element.getAsJsonObject();
+        JsonElement id = request.get("id");
+        JsonElement method = request.get("method");
+        if (!"2.0".equals(string(request.get("jsonrpc"))) || method == null || !method.isJsonPrimitive()
+                || (id != null && !id.isJsonNull() && !id.isJsonPrimitive())) {
+            return error((id == null) ? JsonNull.INSTANCE : id, INVALID_REQUEST, "Invalid Request");
+        }
+        JsonElement params = request.get("params");
+        JsonArray arguments = (params != null && params.isJsonArray()) ? params.getAsJsonArray() : new JsonArray();
+
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        try {
+            response.add("result", invoke(method.getAsString(), arguments));
+        } catch (RpcException e) {
+            return (id == null) ? null : error(id, e.code, e.getMessage());
+        } catch (RuntimeException e) {
+            EventLog.warn("#JSON-RPC call " + method.getAsString() + " failed: " + e);
+            return (id == null) ? null : error(id, INTERNAL_ERROR, "Internal error");
+        }
+        if (id == null) {
+            return null;
+        }
+        response.add("id", id);
+        return response;
+    }
+
+    /**
+     * Runs a method
+     *
+     * @param method    Method name
+     * @param arguments Positional parameters
+     * @return Result
+     */
+    private JsonElement invoke(String method, JsonArray arguments) {
+        switch (method) {
+            case "submitTransaction":
+                return new JsonPrimitive(chain.getMempool().submit(decodeTransaction(argument(arguments, 0))).name());
+            case "submitTransactions":
+                return submitTransactions(array(arguments, 0));
+            case "getBalance":
+                return new JsonPrimitive(chain.getBalance(address(arguments, 0)));
+            case "getUnspentOutputs":
+                return getUnspentOutputs(address(arguments, 0));
+            case "getBlockByHeight":
+                return getBlockByHeight(integer(arguments, 0));
+            case "getBlockByHash":
+                return getBlockByHash(hash(arguments, 0));
+            case "getTip":
+                return getTip();
+            case "getMiningStatus":
+                return getMiningStatus();
+            default:
+                throw new RpcException(METHOD_NOT_FOUND, "Method not found: " + method);
+        }
+    }
+
+    /**
+     * Admits a batch of transactions in order after checking all signatures
+     * in parallel; the mempool's own check then hits the signature cache
+     * Entries are independent: a malformed one gets an error object in its
+     * place and the others are still admitted.
+     */
+    private JsonElement submitTransactions(JsonArray encoded) {
+        Transaction[] transactions = new Transaction[encoded.size()];
+        JsonElement[] malformed = new JsonElement[encoded.size()];
+        for (int t = 0; t < transactions.length; t++) {
+            try {
+                transactions[t] = decodeTransaction(encoded.get(t));
+            } catch (RpcException e) {
+                JsonObject error = new JsonObject();
+                error.addProperty("code", e.code);
+                error.addProperty("message", e.getMessage());
+                malformed[t] = error;
+            }
+        }
+        chain.validator.getPool().submit(() -> IntStream.range(0, transactions.length).parallel().forEach(t -> {
+            Transaction transaction = transactions[t];
+            if (transaction != null && transaction.signature != null) {
+                try {
+                    transaction.verifySignature(chain.signatureCache);
+                } catch (RuntimeException e) {
+                    // Reported by the mempool's own check
+                }
+            }
+        })).join();
+
+        JsonArray results = new JsonArray(transactions.length);
+        for (int t = 0; t < transactions.length; t++) {
+            if (transactions[t] == null) {
+                results.add(malformed[t]);
+                continue;
+            }
+            Mempool.Admission admission;
+            try {
+                admission = chain.getMempool().submit(transactions[t]);
+            } catch (RuntimeException e) {
+                admission = Mempool.Admission.INVALID_SIGNATURE; // Signature could not be checked
+                Metrics.rejected(admission.rejection);
+            }
+            results.add(admission.name());
+        }
+        return results;
+    }
+
+    private JsonElement getUnspentOutputs(Address owner) {
+        JsonArray outputs = new JsonArray();
+        for (TransactionOutput output : chain.getOwners().getOutputs(owner)) {
+            JsonObject object = new JsonObject();
+            object.addProperty("id", output.id.toString());
+            object.addProperty("value", output.value);
+            outputs.add(object);
+        }
+        return outputs;
+    }
+
+    private JsonElement getBlockByHeight(int height) {
+        Stina block;
+        try {
+            block = chain.getBlock(height);
+        } catch (IndexOutOfBoundsException e) {
+            throw new RpcException(INVALID_PARAMS, "No block at height " + height);
+        }
+        return toJson(block, height);
+    }
+
+    private JsonElement getBlockByHash(Hash256 hash) {
+        int height = chain.index.getHeight(hash);
+        if (height < 0) {
+            return JsonNull.INSTANCE;
+        }
+        return toJson(chain.index.getBlock(hash), height);
+    }
+
+    /**
+     * Formats a block with its height; a pruned block is read back from the
+     * block store when the chain has one
+     */
+    private JsonElement toJson(Stina block, int height) {
+        if (block == null) {
+            return JsonNull.INSTANCE; // Disconnected by a reorganization meanwhile
+        }
+        if (block.isPruned()) {
+            Stina stored = chain.index.getBlock(block.hash);
+            if (stored != null) {
+                block = stored;
+            }
+        }
+        JsonObject object = BlockCodec.toJsonTree(block);
+        object.addProperty("height", height);
+        object.addProperty("pruned", block.isPruned());
+        return object;
+    }
+
+    private JsonElement getTip() {
+        JsonObject object = new JsonObject();
+        int height = chain.size() - 1;
+        Stina tip = (height < 0) ? null : chain.getBlock(height);
+        object.addProperty("height", height);
+        object.addProperty("hash", (tip == null) ? null : tip.hash.toString());
+        object.addProperty("timeStamp", (tip == null) ? 0 : tip.getTimeStamp());
+        return object;
+    }
+
+    private JsonElement getMiningStatus() {
+        JsonObject object = new JsonObject();
+        object.addProperty("mining", isMining());
+        object.addProperty("blocksMined", getBlocksMined());
+        object.addProperty("difficulty", chain.getDifficulty());
+        object.addProperty("minerThreads", chain.getMinerThreads());
+        object.addProperty("maxBlockTransactions", maxBlockTransactions);
+        object.addProperty("hashesPerSecond", Metrics.getHashRate());
+        object.addProperty("mempoolSize", chain.getMempool().size());
+        return object;
+    }
+
+    // Parameters
+
+    private static JsonElement argument(JsonArray arguments, int index) {
+        if (index >= arguments.size() || arguments.get(index).isJsonNull()) {
+            throw new RpcException(INVALID_PARAMS, "Missing parameter " + index);
+        }
+        return arguments.get(index);
+    }
+
+    private static JsonArray array(JsonArray arguments, int index) {
+        JsonElement element = argument(arguments, index);
+        if (!element.isJsonArray()) {
+            throw new RpcException(INVALID_PARAMS, "Parameter " + index + " must be an array");
+        }
+        return element.getAsJsonArray();
+    }
+
+    private static int integer(JsonArray arguments, int index) {
+        try {
+            return argument(arguments, index).getAsInt();
+        } catch (RuntimeException e) {
+            throw (e instanceof RpcException) ? (RpcException) e
+                    : new RpcException(INVALID_PARAMS, "Parameter " + index + " must be an integer");
+        }
+    }
+
+    private static Hash256 hash(JsonArray arguments, int index) {
+        try {
+            return Hash256.fromHex(argument(arguments, index).getAsString());
+        } catch (RuntimeException e) {
+            throw (e instanceof RpcException) ? (RpcException) e
+                    : new RpcException(INVALID_PARAMS, "Parameter " + index + " must be a hex hash");
+        }
+    }
+
+    private static Address address(JsonArray arguments, int index) {
+        try {
+            return Address.fromEncoded(Base64.getDecoder().decode(argument(arguments, index).getAsString()));
+        } catch (RuntimeException e) {
+            throw (e instanceof RpcException) ? (RpcException) e
+                    : new RpcException(INVALID_PARAMS, "Parameter " + index + " must be a Base64 public key");
+        }
+    }
+
+    /**
+     * Decodes a transaction from the hex of its BlockCodec encoding
+     * Only the signed fields are kept: an id or outputs are refused, as the
+     * node derives them when it processes the transaction, and each input's
+     * output is looked up in the UTXO set rather than taken from the request.
+     */
+    private Transaction decodeTransaction(JsonElement element) {
+        try {
+            String hex = element.getAsString();
+            if (hex.length() % 2 != 0) {
+                throw new IllegalArgumentException("Odd hex length");
+            }
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex, i * 2, i * 2 + 2, 16);
+            }
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            Transaction decoded = BlockCodec.decodeTransaction(in);
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes");
+            }
+            if (decoded.transactionId != null || !decoded.outputs.isEmpty()) {
+                throw new IllegalArgumentException("Transaction is already processed");
+            }
+
+            ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>(decoded.inputs.size());
+            for (TransactionInput received : decoded.inputs) {
+                TransactionInput input = new TransactionInput(received.transactionOutputId);
+                input.UTXO = chain.getUTXOs().get(input.transactionOutputId);
+                inputs.add(input);
+            }
+            Transaction transaction = new Transaction(decoded.sender, decoded.recipient, decoded.value, inputs);
+            transaction.signature = decoded.signature;
+            return transaction;
+        } catch (RuntimeException e) {
+            throw new RpcException(INVALID_PARAMS, "Malformed transaction: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Builds an error response
+     */
+    private JsonObject error(JsonElement id, int code, String message) {
+        Metrics.RPC_ERRORS.increment();
+        JsonObject error = new JsonObject();
+        error.addProperty("code", code);
+        error.addProperty("message", message);
+        JsonObject response = new JsonObject();
+        response.addProperty("jsonrpc", "2.0");
+        response.add("error", error);
+        response.add("id", id);
+        return response;
+    }
+
+    private static String string(JsonElement element) {
+        return (element != null && element.isJsonPrimitive()) ? element.getAsString() : null;
+    }
+
+    /**
+     * A call failed with a JSON-RPC error code
+     */
+    private static class RpcException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+
+        RpcException(int code, String message) {
+            super(message);
+            this.code = code;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,148 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, concurrent cache of signatures that have already verified
+ * Lookups are lock-free; inserts take a lock and evict with the CLOCK
+ * algorithm (a slot's reference bit is set on every hit and cleared as the
+ * hand sweeps past, so recently used entries get a second chance).
+ * Entries are keyed by a digest of the signed data and the signature, which
+ * also covers the sender's key, so a hit means this exact key, payload and
+ * signature combination was verified before.
+ */
+public class SignatureCache {
+
+    // Default number of cached signatures
+    public static final int DEFAULT_CAPACITY = 100_000;
+
+    // Key -> slot, and slot -> key for the clock sweep
+    private final ConcurrentHashMap<Hash256, Integer> index;
+    private final Hash256[] slots;
+    private final AtomicIntegerArray referenced;
+    private final int capacity;
+
+    // Clock state (guarded by this)
+    private int hand;
+    private int used;
+
+    // Counters
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Constructor
+     *
+     * @param capacity Maximum number of cached signatures
+     */
+    public SignatureCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Signature cache capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.index = new ConcurrentHashMap<Hash256, Integer>(capacity * 4 / 3 + 1);
+        this.slots = new Hash256[capacity];
+        this.referenced = new AtomicIntegerArray(capacity);
+    }
+
+    /**
+     * Builds the cache key for a signed payload
+     *
+     * @param data      Signed data
+     * @param signature Signature over the data
+     * @return Digest identifying the pair
+     */
+    public static Hash256 keyFor(byte[] data, byte[] signature) {
+        byte[] pair = Arrays.copyOf(data, data.length + signature.length);
+        System.arraycopy(signature, 0, pair, data.length, signature.length);
+        return StringUtil.applySha256(pair);
+    }
+
+    /**
+     * Checks whether a signature has already been verified
+     *
+     * @param key Cache key from keyFor()
+     * @return true on a hit
+     */
+    public boolean contains(Hash256 key) {
+        Integer slot = index.get(key);
+        if (slot == null) {
+            misses.increment();
+            return false;
+        }
+        referenced.set(slot, 1);
+        hits.increment();
+        return true;
+    }
+
+    /**
+     * Records a successfully verified signature
+     *
+     * @param key Cache key from keyFor()
+     */
+    public synchronized void add(Hash256 key) {
+        if (index.containsKey(key)) {
+            return;
+        }
+
+        int slot;
+        if (used < capacity) {
+            slot = used++;
+        } else {
+            // Sweep until a slot without its reference bit is found
+            while (referenced.get(hand) != 0) {
+                referenced.set(hand, 0);
+                hand = (hand + 1) % capacity;
+            }
+            slot = hand;
+            hand = (hand + 1) % capacity;
+            index.remove(slots[slot]);
+            evictions.increment();
+        }
+
+        slots[slot] = key;
+        referenced.set(slot, 0);
+        index.put(key, slot);
+    }
+
+    /**
+     * Empties the cache (counters are kept)
+     */
+    public synchronized void clear() {
+        index.clear();
+        for (int i = 0; i < used; i++) {
+            slots[i] = null;
+            referenced.set(i, 0);
+        }
+        used = 0;
+        hand = 0;
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SignatureCache[size=" + size() + "/" + capacity + ", hits=" + getHits()
+                + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+    }
+}
\ No newline at end of file
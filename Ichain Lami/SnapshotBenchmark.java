@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Measures writing and loading UTXO snapshots against the number of threads
+ * A synthetic UTXO set is written once, then loaded into an empty UTXO store
+ * and owner index with 1, 2, 4, ... threads, the way ChainState.load() does. Every load must reproduce the
+ * set exactly (count, total value and sampled outputs), and a snapshot with
+ * one corrupted byte must be refused.
+ * Exits with status 1 on the first mismatch.
+ */
+public class SnapshotBenchmark {
+
+    /**
+     * Usage: SnapshotBenchmark [outputs] [owners] [maxThreads]
+     */
+    public static void main(String[] args) throws IOException {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int outputs = (args.length > 0) ? Integer.parseInt(args[0]) : 1_000_000;
+        int ownerCount = (args.length > 1) ? Integer.parseInt(args[1]) : 1_000;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        // Synthetic set: random ids, owners round-robin, whole-cent values
+        Address[] owners = new Address[ownerCount];
+        for (int i = 0; i < ownerCount; i++) {
+            owners[i] = Address.of(WalletFactory.generateKeyPair(i).getPublic());
+        }
+        Random random = new Random(42);
+        HeapUTXOStore utxos = new HeapUTXOStore();
+        double total = 0;
+        for (int i = 0; i < outputs; i++) {
+            Hash256 id = Hash256.fromWords(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+            Hash256 parent = Hash256.fromWords(random.nextLong(), random.nextLong(), random.nextLong(), random.nextLong());
+            float value = (1 + random.nextInt(100_000)) / 100f;
+            utxos.put(new TransactionOutput(id, owners[i % ownerCount], value, parent));
+            total += value;
+        }
+
+        Path directory = Files.createTempDirectory("snapshot-");
+        long start = System.nanoTime();
+        Path file = UTXOSnapshot.write(directory, 1, Hash256.ZERO, utxos);
+        long writeNanos = System.nanoTime() - start;
+        System.out.printf("Snapshot: %d outputs, %d owners, %.1f MB, written in %.0f ms%n", outputs, ownerCount,
+                Files.size(file) / 1e6, writeNanos / 1e6);
+
+        UTXOSnapshot snapshot = UTXOSnapshot.open(file);
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            HeapUTXOStore loaded = new HeapUTXOStore();
+            OwnerIndex index = new OwnerIndex();
+            DoubleAdder sum = new DoubleAdder();
+            List<TransactionOutput> all = Collections.synchronizedList(new ArrayList<TransactionOutput>());
+            start = System.nanoTime();
+            snapshot.load(pool, chunk -> {
+                for (TransactionOutput output : chunk) {
+                    loaded.put(output);
+                    sum.add(output.value);
+                }
+                all.addAll(chunk);
+            });
+            index.addAll(all, pool);
+            long nanos = System.nanoTime() - start;
+            pool.shutdown();
+
+            ChainHarness.check(loaded.size() == outputs, "loaded " + loaded.size() + " of " + outputs + " outputs");
+            ChainHarness.check(Math.abs(sum.sum() - total) <= total * 1e-9, "total value differs");
+            ChainHarness.check(index.getOwnerCount() == Math.min(ownerCount, outputs), "owner index differs");
+            utxos.forEach(output -> {
+                if ((output.id.word(0) & 1023) == 0) {
+                    TransactionOutput copy = loaded.get(output.id);
+                    ChainHarness.check(copy != null && copy.recipient == output.recipient && copy.value == output.value
+                            && copy.parentTransactionId.equals(output.parentTransactionId), "output differs");
+                }
+            });
+
+            double perSecond = outputs * 1e9 / nanos;
+            if (threads == 1) {
+                baseline = perSecond;
+            }
+            System.out.printf("threads=%d  load %.0f ms  %.0f outputs/s  speedup %.2fx%n",
+                    threads, nanos / 1e6, perSecond, perSecond / baseline);
+        }
+
+        // A flipped byte in the middle of the outputs must be detected
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            long position = channel.size() / 2;
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0)).position(0);
+            channel.write(b, position);
+        }
+        boolean refused = false;
+        try {
+            UTXOSnapshot.open(file).load(ForkJoinPool.commonPool(), chunk -> {
+                throw new IllegalStateException("Corrupt snapshot reached the sink");
+            });
+        } catch (RuntimeException e) {
+            refused = !(e instanceof IllegalStateException);
+        }
+        ChainHarness.check(refused, "corrupt snapshot was loaded");
+        System.out.println("Corrupt snapshot refused");
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path f : files) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(directory);
+    }
+}
\ No newline at end of file
@@ -1,33 +1,90 @@
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Represents a block in the blockchain
  * Contains transactions and links to previous block via hash
+ * A block is assembled by one thread; it is only shared once it is on a chain.
  */
 public class Stina {
 
     // Block metadata
-    public String hash; // SHA-256 hash of this block
-    public String prevHash; // Reference to previous block's hash
+    public Hash256 hash; // SHA-256 hash of this block
+    public Hash256 prevHash; // Reference to previous block's hash (ZERO for genesis)
     private long timeStamp; // When block was created (milliseconds since epoch)
     private int nonce; // Proof-of-work counter
 
     // Transaction data
     public String merkleRoot; // Hash of all transactions in block
     public ArrayList<Transaction> transactions = new ArrayList<Transaction>(); // Transaction list
+    private MerkleTree merkleTree = new MerkleTree(); // Tree over the transaction ids, built as they are added
+    private volatile boolean pruned; // Transactions dropped, only the header is kept
 
     /**
      * Constructor - creates new block with reference to previous block
      * 
      * @param prevHash Hash of previous block in chain
      */
-    public Stina(String prevHash) {
+    public Stina(Hash256 prevHash) {
         this.prevHash = prevHash;
         this.timeStamp = new Date().getTime();
         this.hash = calculateHash(); // Calculate initial hash
     }
 
+    /**
+     * Constructor - restores a stored block exactly as it was mined
+     * 
+     * @param hash         Stored block hash
+     * @param prevHash     Hash of previous block in chain
+     * @param timeStamp    Block timestamp
+     * @param nonce        Proof-of-work counter
+     * @param merkleRoot   Merkle root of the transactions
+     * @param transactions Block transactions
+     */
+    public Stina(Hash256 hash, Hash256 prevHash, long timeStamp, int nonce, String merkleRoot,
+            ArrayList<Transaction> transactions) {
+        this.hash = hash;
+        this.prevHash = prevHash;
+        this.timeStamp = timeStamp;
+        this.nonce = nonce;
+        this.merkleRoot = merkleRoot;
+        this.transactions = transactions;
+    }
+
+    /**
+     * @return When the block was created (milliseconds since epoch)
+     */
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * @return Proof-of-work counter
+     */
+    public int getNonce() {
+        return nonce;
+    }
+
+    /**
+     * @return true if the block's transactions were pruned and only its header is kept
+     */
+    public boolean isPruned() {
+        return pruned;
+    }
+
+    /**
+     * Drops the block's transactions, keeping its header (hash, prevHash,
+     * timestamp, nonce and merkle root)
+     * The hash only covers the merkle root, so the block's hash, its link and
+     * its proof-of-work can still be verified.
+     */
+    public void pruneTransactions() {
+        pruned = true;
+        transactions = new ArrayList<Transaction>(0);
+        merkleTree = new MerkleTree();
+    }
+
     /**
      * Calculates block hash using:
      * - Previous block's hash
@@ -37,12 +94,25 @@ public class Stina {
      * 
      * @return SHA-256 hash of block contents
      */
-    public String calculateHash() {
-        String input = prevHash +
+    public Hash256 calculateHash() {
+        String input = parentText(prevHash) +
                 Long.toString(timeStamp) +
                 Integer.toString(nonce) +
                 merkleRoot;
-        return StringUtil.turnIntoUnrecognizableGibberish(input);
+        return StringUtil.applySha256(input);
+    }
+
+    /**
+     * Returns the previous hash as it enters the block hash
+     * A genesis block's parent is written as "0", the sentinel used before
+     * hashes became Hash256, so genesis blocks of existing chains keep their
+     * hash.
+     * 
+     * @param prevHash Hash of previous block in chain (ZERO for genesis)
+     * @return Hex text of the hash, or "0" for genesis
+     */
+    static String parentText(Hash256 prevHash) {
+        return Hash256.ZERO.equals(prevHash) ? "0" : String.valueOf(prevHash);
     }
 
     /**
@@ -51,44 +121,197 @@ public class Stina {
      * @param difficulty Number of leading zeros required in hash
      */
     public void mineBlock(int difficulty) {
-        // First calculate Merkle root of all transactions
-        merkleRoot = StringUtil.getMerkleRoot(transactions);
+        // Merkle root comes from the tree maintained by addTransaction
+        merkleRoot = getMerkleTree().getRootHex();
 
-        // Create target string (e.g. "00000" for difficulty 5)
-        String target = StringUtil.getDifficultyString(difficulty);
+        ChainEvents.BlockMined event = new ChainEvents.BlockMined();
+        event.begin();
+        long start = System.nanoTime();
 
-        // Keep recalculating hash with incremented nonce until we meet target
-        while (!hash.substring(0, difficulty).equals(target)) {
+        // Hash raw header bytes; the prefix is only digested once per timestamp
+        BlockHeaderHasher hasher = new BlockHeaderHasher(prevHash, timeStamp, merkleRoot);
+        long attempts = 0;
+        long hashes = 1;
+
+        // Keep hashing with incremented nonce until we meet target
+        while (!BlockHeaderHasher.meetsDifficulty(hasher.hash(nonce), difficulty)) {
             nonce++;
-            hash = calculateHash();
+            hashes++;
+            // Whole 32-bit nonce range tried: bump the timestamp and start over
+            if (++attempts == 1L << 32) {
+                attempts = 0;
+                timeStamp++;
+                hasher = new BlockHeaderHasher(prevHash, timeStamp, merkleRoot);
+            }
+        }
+
+        hash = Hash256.fromBytes(hasher.hash(nonce));
+        recordMined(event, difficulty, hashes, System.nanoTime() - start, 1);
+    }
+
+    /**
+     * Mines the block using a multi-threaded miner
+     * The timestamp may be bumped if the full nonce range is exhausted
+     * 
+     * @param difficulty Number of leading zeros required in hash
+     * @param miner      Parallel mining engine to use
+     */
+    public void mineBlock(int difficulty, ParallelMiner miner) {
+        // Merkle root comes from the tree maintained by addTransaction
+        merkleRoot = getMerkleTree().getRootHex();
+
+        ChainEvents.BlockMined event = new ChainEvents.BlockMined();
+        event.begin();
+        long start = System.nanoTime();
+
+        // Split the nonce search across the miner's workers
+        ParallelMiner.Result result = miner.mine(prevHash, timeStamp, merkleRoot, difficulty);
+        nonce = result.nonce;
+        timeStamp = result.timeStamp;
+        hash = result.hash;
+        recordMined(event, difficulty, result.totalHashes(), System.nanoTime() - start, miner.getThreads());
+        if (EventLog.isEnabled(EventLog.Level.DEBUG)) {
+            EventLog.debug(result.report());
+        }
+    }
+
+    /**
+     * Publishes metrics, the JFR event and the log line for a mined block
+     */
+    private void recordMined(ChainEvents.BlockMined event, int difficulty, long hashes, long nanos, int threads) {
+        Metrics.recordBlockMined(hashes, nanos);
+        if (event.shouldCommit()) {
+            event.hash = hash.toString();
+            event.difficulty = difficulty;
+            event.attempts = hashes;
+            event.threads = threads;
+            event.commit();
         }
-        System.out.println("Block Mined: " + hash);
+        EventLog.info("Block Mined: " + hash);
     }
 
     /**
      * Adds a transaction to this block after validation
      * 
      * @param transaction Transaction to add
+     * @param chain       Chain whose UTXO set the transaction spends from
      * @return true if transaction was added successfully
      */
-    public boolean addTransaction(Transaction transaction) {
+    public boolean addTransaction(Transaction transaction, ChainState chain) {
         // Reject null transactions
         if (transaction == null) {
             return false;
         }
 
         // Skip validation for genesis block transactions
-        if (!prevHash.equals("0")) {
+        if (!prevHash.equals(Hash256.ZERO)) {
             // Process and validate transaction
-            if (!transaction.processTransaction()) {
-                System.out.println("Transaction failed to process. Discarded.");
+            if (!transaction.processTransaction(chain)) {
+                EventLog.debug("Transaction failed to process. Discarded.");
                 return false;
             }
         }
 
-        // Add valid transaction to block
+        // Add valid transaction to block and extend the Merkle tree
+        getMerkleTree().append(transaction.transactionId);
         transactions.add(transaction);
-        System.out.println("Transaction successfully added to Block");
+        EventLog.debug("Transaction successfully added to Block");
         return true;
     }
+
+    /**
+     * Adds a batch of transactions to this block after validation
+     * Same outcome as calling addTransaction() on each in list order, but
+     * signatures are verified and inputs looked up in parallel, and the
+     * accepted transactions are committed to the UTXO set in one step
+     * (see Transaction.processTransactions). If processing throws, the
+     * transactions spent before the failing one are added to the block
+     * before the exception is rethrown.
+     *
+     * @param candidates Transactions to add, in block order
+     * @param chain      Chain whose UTXO set the transactions spend from
+     * @return Per candidate, true if it was added
+     */
+    public boolean[] addTransactions(List<Transaction> candidates, ChainState chain) {
+        boolean[] added = new boolean[candidates.size()];
+        RuntimeException error = null;
+        if (prevHash.equals(Hash256.ZERO)) {
+            // Skip validation for genesis block transactions
+            for (int t = 0; t < added.length; t++) {
+                added[t] = (candidates.get(t) != null);
+            }
+        } else {
+            try {
+                Transaction.processTransactions(candidates, chain, added);
+            } catch (RuntimeException e) {
+                error = e; // The transactions already spent still belong in this block
+            }
+        }
+
+        // Add valid transactions to block and extend the Merkle tree
+        int count = 0;
+        for (int t = 0; t < added.length; t++) {
+            if (added[t]) {
+                Transaction transaction = candidates.get(t);
+                getMerkleTree().append(transaction.transactionId);
+                transactions.add(transaction);
+                count++;
+            }
+        }
+        EventLog.debug(count + " of " + added.length + " transactions added to Block");
+        if (error != null) {
+            throw error;
+        }
+        return added;
+    }
+
+    /**
+     * Returns the Merkle tree over this block's transactions
+     * Transactions added to the list directly (e.g. by the block codec) are
+     * appended on first use.
+     * 
+     * @return Tree whose root is the block's Merkle root
+     */
+    public MerkleTree getMerkleTree() {
+        if (merkleTree.size() == 0 || merkleTree.size() > transactions.size()) {
+            merkleTree = MerkleTree.of(transactions); // Bulk build is O(n)
+        } else {
+            for (int i = merkleTree.size(); i < transactions.size(); i++) {
+                merkleTree.append(transactions.get(i).transactionId);
+            }
+        }
+        return merkleTree;
+    }
+
+    /**
+     * Creates a proof that a transaction is in this block
+     * 
+     * @param transactionId Id of a transaction in this block
+     * @return Inclusion proof, or null if the block does not contain it
+     */
+    public MerkleTree.Proof getMerkleProof(Hash256 transactionId) {
+        MerkleTree tree = getMerkleTree();
+        for (int i = 0; i < tree.size(); i++) {
+            if (tree.getLeaf(i).equals(transactionId)) {
+                return tree.getProof(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks a transaction's inclusion proof against a block's Merkle root
+     * Needs only the header field, not the block's transactions.
+     * 
+     * @param transactionId Transaction id
+     * @param proof         Proof from getMerkleProof()
+     * @param merkleRoot    Merkle root of the block (hex)
+     * @return true if the transaction is in the block
+     */
+    public static boolean verifyMerkleProof(Hash256 transactionId, MerkleTree.Proof proof, String merkleRoot) {
+        if (merkleRoot == null || merkleRoot.length() != Hash256.BYTES * 2) {
+            return false;
+        }
+        return MerkleTree.verify(transactionId, proof, Hash256.fromHex(merkleRoot));
+    }
 }
\ No newline at end of file
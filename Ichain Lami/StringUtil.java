@@ -1,3 +1,4 @@
+import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.ArrayList;
 import java.util.Base64;
@@ -7,6 +8,25 @@ import java.util.Base64;
  */
 public class StringUtil {
 
+    // Lower-case hex digits used for hash formatting
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // Per-thread engines for binary payloads (getInstance is costly on hot paths)
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate SHA-256 hash", e);
+        }
+    });
+    private static final ThreadLocal<Signature> ecdsa = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("ECDSA", "BC");
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to create ECDSA engine", e);
+        }
+    });
+
     /**
      * Applies SHA-256 hashing to input string
      * 
@@ -16,23 +36,70 @@ public class StringUtil {
     public static String turnIntoUnrecognizableGibberish(String input) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(input.getBytes("UTF-8"));
-            StringBuilder hexString = new StringBuilder();
-
-            // Convert byte array to hex string
-            for (byte b : hash) {
-                String hex = Integer.toHexString(0xff & b);
-                if (hex.length() == 1)
-                    hexString.append('0');
-                hexString.append(hex);
-            }
+            byte[] hash = digest.digest(input.getBytes(StandardCharsets.UTF_8));
+            return toHex(hash);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to generate SHA-256 hash", e);
+        }
+    }
 
-            return hexString.toString();
+    /**
+     * Applies SHA-256 hashing to input string
+     * 
+     * @param input String to hash
+     * @return Raw SHA-256 hash as a Hash256
+     */
+    public static Hash256 applySha256(String input) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Hash256.fromBytes(digest.digest(input.getBytes(StandardCharsets.UTF_8)));
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate SHA-256 hash", e);
         }
     }
 
+    /**
+     * Applies SHA-256 hashing to a binary payload
+     * 
+     * @param input Bytes to hash
+     * @return Raw SHA-256 hash as a Hash256
+     */
+    public static Hash256 applySha256(byte[] input) {
+        return Hash256.fromBytes(sha256.get().digest(input));
+    }
+
+    /**
+     * Converts bytes to a lower-case hex string
+     * 
+     * @param bytes Bytes to format
+     * @return Two hex characters per byte
+     */
+    public static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Counts the leading zero bits of a raw hash
+     * 
+     * @param hash Raw digest bytes
+     * @return Number of zero bits before the first set bit
+     */
+    public static int leadingZeroBits(byte[] hash) {
+        int bits = 0;
+        for (byte b : hash) {
+            if (b != 0) {
+                return bits + Integer.numberOfLeadingZeros(b & 0xff) - 24;
+            }
+            bits += 8;
+        }
+        return bits;
+    }
+
     /**
      * Signs data using ECDSA private key
      * 
@@ -41,10 +108,21 @@ public class StringUtil {
      * @return Digital signature
      */
     public static byte[] applyECDSASig(PrivateKey privateKey, String input) {
+        return applyECDSASig(privateKey, input.getBytes());
+    }
+
+    /**
+     * Signs a binary payload using ECDSA private key
+     * 
+     * @param privateKey Signer's private key
+     * @param input      Data to sign
+     * @return Digital signature
+     */
+    public static byte[] applyECDSASig(PrivateKey privateKey, byte[] input) {
         try {
-            Signature dsa = Signature.getInstance("ECDSA", "BC");
+            Signature dsa = ecdsa.get();
             dsa.initSign(privateKey);
-            dsa.update(input.getBytes());
+            dsa.update(input);
             return dsa.sign();
         } catch (Exception e) {
             throw new RuntimeException("Failed to generate ECDSA signature", e);
@@ -60,11 +138,33 @@ public class StringUtil {
      * @return true if signature is valid
      */
     public static boolean verifyECDSASig(PublicKey publicKey, String data, byte[] signature) {
+        return verifyECDSASig(publicKey, data.getBytes(), signature);
+    }
+
+    /**
+     * Verifies ECDSA signature over a binary payload
+     * The latency is recorded in Metrics.SIGNATURE_VERIFY.
+     * 
+     * @param publicKey Signer's public key
+     * @param data      Original data that was signed
+     * @param signature Signature to verify
+     * @return true if signature is valid
+     */
+    public static boolean verifyECDSASig(PublicKey publicKey, byte[] data, byte[] signature) {
+        ChainEvents.SignatureVerified event = new ChainEvents.SignatureVerified();
+        event.begin();
+        long start = System.nanoTime();
         try {
-            Signature ecdsaVerify = Signature.getInstance("ECDSA", "BC");
+            Signature ecdsaVerify = ecdsa.get();
             ecdsaVerify.initVerify(publicKey);
-            ecdsaVerify.update(data.getBytes());
-            return ecdsaVerify.verify(signature);
+            ecdsaVerify.update(data);
+            boolean valid = ecdsaVerify.verify(signature);
+            Metrics.SIGNATURE_VERIFY.record(System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.valid = valid;
+                event.commit();
+            }
+            return valid;
         } catch (Exception e) {
             throw new RuntimeException("Failed to verify ECDSA signature", e);
         }
@@ -82,40 +182,18 @@ public class StringUtil {
 
     /**
      * Calculates Merkle root from transaction list
+     * Blocks keep their own incremental tree (Stina.getMerkleTree()); this
+     * builds a one-off tree for a plain list.
      * 
      * @param transactions List of transactions
-     * @return SHA-256 hash representing Merkle root
+     * @return Hex SHA-256 Merkle root, or "" if there are no transactions
      */
     public static String getMerkleRoot(ArrayList<Transaction> transactions) {
         // Handle empty transaction list
         if (transactions == null || transactions.isEmpty()) {
             return "";
         }
-
-        ArrayList<String> previousTreeLayer = new ArrayList<String>();
-
-        // Start with transaction IDs as first layer
-        for (Transaction transaction : transactions) {
-            previousTreeLayer.add(transaction.transactionId);
-        }
-
-        ArrayList<String> treeLayer = previousTreeLayer;
-
-        // Recursively hash pairs until we get to root
-        while (treeLayer.size() > 1) {
-            treeLayer = new ArrayList<String>();
-
-            // Hash adjacent pairs
-            for (int i = 1; i < previousTreeLayer.size(); i += 2) {
-                String left = previousTreeLayer.get(i - 1);
-                String right = (i < previousTreeLayer.size()) ? previousTreeLayer.get(i) : left;
-                treeLayer.add(turnIntoUnrecognizableGibberish(left + right));
-            }
-            previousTreeLayer = treeLayer;
-        }
-
-        // Return root hash (or empty string if no transactions)
-        return (treeLayer.size() == 1) ? treeLayer.get(0) : "";
+        return MerkleTree.of(transactions).getRootHex();
     }
 
     /**
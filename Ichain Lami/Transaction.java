@@ -1,5 +1,10 @@
 import java.security.*;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
 
 /**
  * Represents a financial transaction between wallets
@@ -7,9 +12,9 @@ import java.util.ArrayList;
 public class Transaction {
 
     // Transaction metadata
-    public String transactionId; // SHA-256 hash of transaction
-    public PublicKey sender; // Sender's public key
-    public PublicKey recipient; // Recipient's public key
+    public Hash256 transactionId; // SHA-256 hash of transaction
+    public Address sender; // Sender's address
+    public Address recipient; // Recipient's address
     public float value; // Amount being transferred
     public byte[] signature; // ECDSA signature
 
@@ -19,36 +24,58 @@ public class Transaction {
     // Transaction outputs (new UTXOs being created)
     public ArrayList<TransactionOutput> outputs = new ArrayList<TransactionOutput>();
 
-    // Counter to ensure unique transaction IDs
-    private static int sequence = 0;
-
     /**
      * Constructor
      * 
-     * @param from   Sender's public key
-     * @param to     Recipient's public key
+     * @param from   Sender's address
+     * @param to     Recipient's address
      * @param value  Amount to transfer
      * @param inputs UTXOs being spent (null for coinbase transactions)
      */
-    public Transaction(PublicKey from, PublicKey to, float value, ArrayList<TransactionInput> inputs) {
+    public Transaction(Address from, Address to, float value, ArrayList<TransactionInput> inputs) {
         this.sender = from;
         this.recipient = to;
         this.value = value;
         this.inputs = (inputs != null) ? inputs : new ArrayList<TransactionInput>();
     }
 
+    /**
+     * Builds the signed payload from the immutable transaction fields:
+     * sender digest, recipient digest, the value's float bits and the id of
+     * every output spent, so inputs cannot be swapped after signing
+     * 
+     * @return Payload of 68 bytes plus 32 per input
+     */
+    public byte[] getSigningData() {
+        byte[] data = new byte[Hash256.BYTES * 2 + 4 + Hash256.BYTES * inputs.size()];
+        sender.getDigest().writeTo(data, 0);
+        recipient.getDigest().writeTo(data, Hash256.BYTES);
+        writeInt(data, Hash256.BYTES * 2, Float.floatToIntBits(value));
+        for (int i = 0; i < inputs.size(); i++) {
+            inputs.get(i).transactionOutputId.writeTo(data, Hash256.BYTES * 2 + 4 + Hash256.BYTES * i);
+        }
+        return data;
+    }
+
     /**
      * Calculates transaction hash (used as ID)
+     * Unique because a valid transaction spends at least one unspent output,
+     * and recomputable, so validation never trusts a transmitted id
      * 
-     * @return SHA-256 hash of transaction data
+     * @return SHA-256 of the signed payload
+     */
+    Hash256 calculateHash() {
+        return StringUtil.applySha256(getSigningData());
+    }
+
+    /**
+     * Writes a big-endian int into a payload
      */
-    private String calculateHash() {
-        sequence++; // Ensure unique hash even for identical transactions
-        return StringUtil.turnIntoUnrecognizableGibberish(
-                StringUtil.getStringFromKey(sender) +
-                        StringUtil.getStringFromKey(recipient) +
-                        Float.toString(value) +
-                        sequence);
+    static void writeInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
     }
 
     /**
@@ -57,11 +84,7 @@ public class Transaction {
      * @param privateKey Sender's private key
      */
     public void generateSignature(PrivateKey privateKey) {
-        // Create signing data from immutable transaction fields
-        String data = StringUtil.getStringFromKey(sender) +
-                StringUtil.getStringFromKey(recipient) +
-                Float.toString(value);
-        signature = StringUtil.applyECDSASig(privateKey, data);
+        signature = StringUtil.applyECDSASig(privateKey, getSigningData());
     }
 
     /**
@@ -70,82 +93,297 @@ public class Transaction {
      * @return true if signature is valid
      */
     public boolean verifySignature() {
+        return verifySignature(null);
+    }
+
+    /**
+     * Verifies transaction signature
+     * Consults the signature cache first, so block assembly and chain
+     * validation verify each signature only once
+     * 
+     * @param cache Cache of already verified signatures (null to always verify)
+     * @return true if signature is valid
+     */
+    public boolean verifySignature(SignatureCache cache) {
         // Recreate signing data
-        String data = StringUtil.getStringFromKey(sender) +
-                StringUtil.getStringFromKey(recipient) +
-                Float.toString(value);
-        return StringUtil.verifyECDSASig(sender, data, signature);
+        byte[] data = getSigningData();
+        if (signature == null || cache == null) {
+            return StringUtil.verifyECDSASig(sender.getKey(), data, signature);
+        }
+
+        Hash256 key = SignatureCache.keyFor(data, signature);
+        if (cache.contains(key)) {
+            return true;
+        }
+        boolean valid = StringUtil.verifyECDSASig(sender.getKey(), data, signature);
+        if (valid) {
+            cache.add(key);
+        }
+        return valid;
     }
 
     /**
      * Processes the transaction:
-     * 1. Verifies signature
-     * 2. Gathers inputs
-     * 3. Checks sufficient funds
+     * 1. Checks the minimum amount and verifies signature
+     * 2. Gathers inputs (each must be unspent, owned by the sender and listed
+     *    once); a transaction that already has outputs is rejected
+     * 3. Checks the inputs cover the value
      * 4. Creates outputs
+     * Steps 2-4 run under the chain's write lock, so concurrent transactions
+     * can never spend the same output twice.
      * 
+     * @param chain Chain whose UTXO set the transaction spends from
      * @return true if transaction processed successfully
      */
-    public boolean processTransaction() {
-        // First verify signature
-        if (!verifySignature()) {
-            System.out.println("#Transaction Signature failed to verify");
+    public boolean processTransaction(ChainState chain) {
+        // Minimum amount and signature (outside the lock, it is the expensive part)
+        Metrics.Rejection rejection = precheck(chain);
+        if (rejection != null) {
+            return reject(rejection);
+        }
+
+        ReentrantLock lock = chain.getWriteLock();
+        lock.lock();
+        try {
+            return spend(chain, null, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Processes a batch of transactions with exactly the outcome of calling
+     * processTransaction() on each of them in list order
+     * Signatures are verified and inputs looked up in parallel without the
+     * write lock. The transactions are then spent in order under a single
+     * lock hold, against the UTXO set plus the changes made by earlier
+     * transactions of the batch (so a later transaction that spends the same
+     * output as an earlier one is rejected), and the net change is applied
+     * in one step. If another thread changed the UTXO set after the
+     * lookups, the inputs are looked up again under the lock.
+     * If checking a transaction throws, the transactions before it stay
+     * spent, exactly as with one processTransaction() call after another, and
+     * the exception is rethrown.
+     *
+     * @param transactions Candidate transactions (null entries are rejected)
+     * @param chain        Chain whose UTXO set the transactions spend from
+     * @return Per transaction, true if it was processed successfully
+     */
+    public static boolean[] processTransactions(List<Transaction> transactions, ChainState chain) {
+        boolean[] processed = new boolean[transactions.size()];
+        processTransactions(transactions, chain, processed);
+        return processed;
+    }
+
+    /**
+     * processTransactions() filling the caller's result array, so the caller
+     * still knows which transactions were spent when an exception is thrown
+     *
+     * @param processed Receives true for every transaction processed successfully
+     */
+    static void processTransactions(List<Transaction> transactions, ChainState chain, boolean[] processed) {
+        final int count = transactions.size();
+        final Metrics.Rejection[] rejections = new Metrics.Rejection[count];
+        final RuntimeException[] errors = new RuntimeException[count];
+        final TransactionOutput[][] resolved = new TransactionOutput[count][];
+
+        // Phase 1: prechecks and optimistic input lookups in parallel
+        final long version = chain.getUTXOVersion();
+        chain.validator.getPool().submit(() -> IntStream.range(0, count).parallel().forEach(t -> {
+            Transaction transaction = transactions.get(t);
+            try {
+                rejections[t] = (transaction == null) ? Metrics.Rejection.NULL_TRANSACTION
+                        : transaction.precheck(chain);
+                if (rejections[t] == null) {
+                    resolved[t] = transaction.lookUpInputs(chain);
+                }
+            } catch (RuntimeException e) {
+                errors[t] = e; // Rethrown in list order by phase 2
+            }
+        })).join();
+
+        // Phase 2: ordered spending under one lock hold; on an error the
+        // transactions before it are still applied
+        ReentrantLock lock = chain.getWriteLock();
+        lock.lock();
+        Batch batch = new Batch();
+        try {
+            boolean current = (chain.getUTXOVersion() == version);
+            for (int t = 0; t < count; t++) {
+                if (errors[t] != null) {
+                    throw errors[t];
+                }
+                if (rejections[t] == Metrics.Rejection.NULL_TRANSACTION) {
+                    continue; // Not counted, like Stina.addTransaction(null)
+                }
+                processed[t] = (rejections[t] != null) ? transactions.get(t).reject(rejections[t])
+                        : transactions.get(t).spend(chain, current ? resolved[t] : null, batch);
+            }
+        } finally {
+            try {
+                batch.apply(chain);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * State-independent checks: minimum amount and signature
+     *
+     * @return Reason to reject the transaction, or null if it passes
+     */
+    private Metrics.Rejection precheck(ChainState chain) {
+        // Cheap check first: transaction meets minimum amount
+        if (value < chain.getMinimumTransaction()) {
+            return Metrics.Rejection.VALUE_BELOW_MINIMUM;
+        }
+        if (!verifySignature(chain.signatureCache)) {
+            return Metrics.Rejection.INVALID_SIGNATURE;
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the outputs the inputs spend, without the write lock
+     */
+    private TransactionOutput[] lookUpInputs(ChainState chain) {
+        TransactionOutput[] found = new TransactionOutput[inputs.size()];
+        for (int i = 0; i < found.length; i++) {
+            found[i] = chain.getUTXOs().get(inputs.get(i).transactionOutputId);
+        }
+        return found;
+    }
+
+    /**
+     * Counts and logs a rejection
+     *
+     * @return false
+     */
+    private boolean reject(Metrics.Rejection rejection) {
+        Metrics.rejected(rejection);
+        switch (rejection) {
+            case VALUE_BELOW_MINIMUM:
+                EventLog.warn("#Transaction value below minimum: " + value);
+                break;
+            case INVALID_SIGNATURE:
+                EventLog.warn("#Transaction Signature failed to verify");
+                break;
+            default:
+                break;
+        }
+        return false;
+    }
+
+    /**
+     * Steps 2-4 of processTransaction (caller holds the write lock)
+     *
+     * @param chain    Chain whose UTXO set the transaction spends from
+     * @param resolved Outputs the inputs spend, looked up while the UTXO set
+     *                 was unchanged (null to look them up now)
+     * @param batch    Changes of earlier transactions in the same batch, which
+     *                 also receives this one's (null to apply them directly)
+     * @return true if the transaction was spent
+     */
+    private boolean spend(ChainState chain, TransactionOutput[] resolved, Batch batch) {
+        // Outputs are only ever created below; a transaction that already has
+        // some was processed before or carries forged ones
+        if (!outputs.isEmpty()) {
+            Metrics.rejected(Metrics.Rejection.UNEXPECTED_OUTPUTS);
+            EventLog.warn("#Transaction already has outputs: " + transactionId);
             return false;
         }
 
-        // Gather transaction inputs from global UTXO pool
-        for (TransactionInput i : inputs) {
-            i.UTXO = NoobChain.UTXOs.get(i.transactionOutputId);
+        // Gather transaction inputs from the chain's UTXO pool; every input
+        // must be unspent and listed once, as chain validation requires
+        ArrayList<TransactionOutput> spent = new ArrayList<TransactionOutput>(inputs.size());
+        HashSet<Hash256> seen = (inputs.size() > 1) ? new HashSet<Hash256>() : null;
+        for (int n = 0; n < inputs.size(); n++) {
+            TransactionInput i = inputs.get(n);
+            if (batch != null && batch.isSpent(i.transactionOutputId)) {
+                i.UTXO = null;
+            } else if (batch != null && batch.created.containsKey(i.transactionOutputId)) {
+                i.UTXO = batch.created.get(i.transactionOutputId);
+            } else {
+                i.UTXO = (resolved != null) ? resolved[n] : chain.getUTXOs().get(i.transactionOutputId);
+            }
+            if (i.UTXO == null || (seen != null && !seen.add(i.transactionOutputId))) {
+                Metrics.rejected(Metrics.Rejection.MISSING_INPUT);
+                EventLog.warn("#Transaction input missing, spent or listed twice: " + i.transactionOutputId);
+                return false;
+            }
+            if (!i.UTXO.isMine(sender)) {
+                Metrics.rejected(Metrics.Rejection.FOREIGN_INPUT);
+                EventLog.warn("#Transaction input not owned by the sender: " + i.transactionOutputId);
+                return false;
+            }
+            spent.add(i.UTXO);
         }
 
-        // Check transaction meets minimum amount
+        // Inputs must cover the value and the minimum amount
         float inputValue = getInputsValue();
-        if (inputValue < NoobChain.minimumTransaction) {
-            System.out.println("#Transaction Inputs too small: " + inputValue);
+        if (inputValue < chain.getMinimumTransaction() || inputValue < value) {
+            Metrics.rejected(Metrics.Rejection.INPUTS_TOO_SMALL);
+            EventLog.warn("#Transaction Inputs too small: " + inputValue);
             return false;
         }
 
-        // Calculate leftover change
+        // Calculate leftover change, rounded down so the outputs never add
+        // up to more than the inputs
         float leftOver = inputValue - value;
+        while (leftOver > 0 && value + leftOver > inputValue) {
+            leftOver = Math.nextDown(leftOver);
+        }
         transactionId = calculateHash();
 
         // Create outputs:
         // 1. Payment to recipient
-        outputs.add(new TransactionOutput(this.recipient, value, transactionId));
+        outputs.add(new TransactionOutput(this.recipient, value, transactionId, 0));
 
         // 2. Change back to sender (if any)
         if (leftOver > 0) {
-            outputs.add(new TransactionOutput(this.sender, leftOver, transactionId));
-        }
-
-        // Add outputs to global UTXO pool
-        for (TransactionOutput o : outputs) {
-            NoobChain.UTXOs.put(o.id, o);
+            outputs.add(new TransactionOutput(this.sender, leftOver, transactionId, 1));
         }
 
-        // Remove spent inputs from UTXO pool
-        for (TransactionInput i : inputs) {
-            if (i.UTXO != null) {
-                NoobChain.UTXOs.remove(i.UTXO.id);
-            }
+        // Add outputs to the UTXO pool and owner index, then remove spent inputs
+        if (batch != null) {
+            batch.record(spent, outputs);
+        } else {
+            chain.applyChanges(spent, outputs);
         }
-
+        Metrics.TRANSACTIONS_ACCEPTED.increment();
         return true;
     }
 
+    /**
+     * Checks that a transaction's outputs spend exactly its inputs
+     * In float arithmetic the payment plus change cannot always hit the input
+     * total, so outputs may fall short by at most one ulp of it (that dust is
+     * forfeited); they may never exceed it.
+     *
+     * @param inputsValue  Sum of the inputs
+     * @param outputsValue Sum of the outputs
+     * @return true if the outputs balance the inputs
+     */
+    public static boolean isBalanced(float inputsValue, float outputsValue) {
+        return outputsValue <= inputsValue && inputsValue - outputsValue <= Math.ulp(inputsValue);
+    }
+
     /**
      * Calculates total value of inputs
+     * Summed in double and rounded once, like the coin selectors, so a
+     * selection that covers a value still covers it here.
      * 
      * @return Sum of all input values
      */
     public float getInputsValue() {
-        float total = 0;
+        double total = 0;
         for (TransactionInput i : inputs) {
             if (i.UTXO != null) {
                 total += i.UTXO.value;
             }
         }
-        return total;
+        return (float) total;
     }
 
     /**
@@ -154,10 +392,42 @@ public class Transaction {
      * @return Sum of all output values
      */
     public float getOutputsValue() {
-        float total = 0;
+        double total = 0;
         for (TransactionOutput o : outputs) {
             total += o.value;
         }
-        return total;
+        return (float) total;
+    }
+
+    /**
+     * UTXO changes made by a batch but not yet applied to the chain
+     * Outputs created and spent within the batch never reach the UTXO set.
+     */
+    private static class Batch {
+        final LinkedHashMap<Hash256, TransactionOutput> created = new LinkedHashMap<Hash256, TransactionOutput>();
+        final HashSet<Hash256> spentIds = new HashSet<Hash256>();
+        final ArrayList<TransactionOutput> spent = new ArrayList<TransactionOutput>();
+
+        boolean isSpent(Hash256 outputId) {
+            return spentIds.contains(outputId);
+        }
+
+        void record(List<TransactionOutput> inputs, List<TransactionOutput> outputs) {
+            for (TransactionOutput output : inputs) {
+                spentIds.add(output.id);
+                if (created.remove(output.id) == null) {
+                    spent.add(output);
+                }
+            }
+            for (TransactionOutput output : outputs) {
+                created.put(output.id, output);
+            }
+        }
+
+        void apply(ChainState chain) {
+            if (!spent.isEmpty() || !created.isEmpty()) {
+                chain.applyChanges(spent, new ArrayList<TransactionOutput>(created.values()));
+            }
+        }
     }
 }
\ No newline at end of file
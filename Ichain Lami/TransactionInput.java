@@ -5,7 +5,7 @@
 public class TransactionInput {
 
     // Reference to the transaction output being spent
-    public String transactionOutputId;
+    public Hash256 transactionOutputId;
 
     // The actual unspent transaction output
     public TransactionOutput UTXO;
@@ -15,7 +15,7 @@ public class TransactionInput {
      * 
      * @param transactionOutputId ID of the UTXO being spent
      */
-    public TransactionInput(String transactionOutputId) {
+    public TransactionInput(Hash256 transactionOutputId) {
         this.transactionOutputId = transactionOutputId;
     }
 }
\ No newline at end of file
@@ -1,5 +1,3 @@
-import java.security.PublicKey;
-
 /**
  * Represents an unspent transaction output (UTXO)
  * Can be spent as input to new transactions
@@ -7,16 +5,16 @@ import java.security.PublicKey;
 public class TransactionOutput {
 
     // Unique identifier for this output
-    public String id;
+    public Hash256 id;
 
-    // Recipient's public key (who can spend this output)
-    public PublicKey recipient;
+    // Recipient's address (who can spend this output)
+    public Address recipient;
 
     // Value of this output
     public float value;
 
     // ID of transaction that created this output
-    public String parentTransactionId;
+    public Hash256 parentTransactionId;
 
     /**
      * Constructor
@@ -24,26 +22,56 @@ public class TransactionOutput {
      * @param recipient           Owner of this output
      * @param value               Amount this output represents
      * @param parentTransactionId Transaction that created this output
+     * @param index               Position of this output in the transaction
      */
-    public TransactionOutput(PublicKey recipient, float value, String parentTransactionId) {
+    public TransactionOutput(Address recipient, float value, Hash256 parentTransactionId, int index) {
         this.recipient = recipient;
         this.value = value;
         this.parentTransactionId = parentTransactionId;
+        this.id = idOf(recipient, value, parentTransactionId, index);
+    }
+
+    /**
+     * Computes the id of an output from its fields, e.g. to check an output
+     * received from another node
+     * 
+     * @return SHA-256 of recipient digest, value bits, parent transaction id
+     *         and position (a payment to oneself can otherwise yield two
+     *         identical outputs)
+     */
+    static Hash256 idOf(Address recipient, float value, Hash256 parentTransactionId, int index) {
+        byte[] data = new byte[Hash256.BYTES * 2 + 8];
+        recipient.getDigest().writeTo(data, 0);
+        Transaction.writeInt(data, Hash256.BYTES, Float.floatToIntBits(value));
+        parentTransactionId.writeTo(data, Hash256.BYTES + 4);
+        Transaction.writeInt(data, Hash256.BYTES * 2 + 4, index);
+        return StringUtil.applySha256(data);
+    }
 
-        // Create ID by hashing recipient, value and parent transaction
-        this.id = StringUtil.turnIntoUnrecognizableGibberish(
-                StringUtil.getStringFromKey(recipient) +
-                        Float.toString(value) +
-                        parentTransactionId);
+    /**
+     * Constructor for an output whose id is already known
+     * Used when rebuilding outputs from storage, so the id is not rehashed
+     * 
+     * @param id                  Output id
+     * @param recipient           Owner of this output
+     * @param value               Amount this output represents
+     * @param parentTransactionId Transaction that created this output
+     */
+    public TransactionOutput(Hash256 id, Address recipient, float value, Hash256 parentTransactionId) {
+        this.id = id;
+        this.recipient = recipient;
+        this.value = value;
+        this.parentTransactionId = parentTransactionId;
     }
 
     /**
-     * Checks if this output belongs to specified public key
+     * Checks if this output belongs to specified address
+     * Addresses are interned, so this is a reference compare
      * 
-     * @param publicKey Key to check ownership against
-     * @return true if output belongs to this key
+     * @param address Address to check ownership against
+     * @return true if output belongs to this address
      */
-    public boolean isMine(PublicKey publicKey) {
-        return recipient.equals(publicKey);
+    public boolean isMine(Address address) {
+        return recipient == address;
     }
 }
\ No newline at end of file
@@ -0,0 +1,435 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * UTXO set snapshot taken at a block height, so a node can start from the
+ * snapshot and replay only the blocks after it instead of the whole chain
+ *
+ * File layout, written front to back in one pass:
+ * - header: magic, version, height, chunk size, block hash at that height,
+ *   number of outputs and owners, CRC32 of the header
+ * - owner chunks: the X.509 key of every owner, numbered in file order
+ * - output chunks: [id][parent transaction id][value][owner number]
+ * - trailer: end magic and a CRC32 over the CRCs of every chunk
+ * Each chunk is [entries][payload length][crc32][payload]. Chunks are found
+ * by hopping over their headers, then read, checked and decoded in parallel;
+ * nothing is handed to the caller unless every chunk and the trailer match.
+ */
+public class UTXOSnapshot {
+
+    // File naming inside the block store directory: utxo-<height>.snap
+    public static final String PREFIX = "utxo-";
+    public static final String SUFFIX = ".snap";
+
+    // Format version and default number of entries per chunk
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CHUNK_ENTRIES = 16_384;
+
+    // Layout: header(64), chunk header(12), output entry(72), trailer(8)
+    private static final int MAGIC = 0x4E435553; // "NCUS"
+    private static final int END_MAGIC = 0x4E435545; // "NCUE"
+    private static final int HEADER = 4 + 4 + 4 + 4 + Hash256.BYTES + 8 + 4 + 4;
+    private static final int CHUNK_HEADER = 12;
+    private static final int OUTPUT_ENTRY = Hash256.BYTES * 2 + 4 + 4;
+    private static final int TRAILER = 8;
+
+    // Snapshot file and its header fields
+    public final Path file;
+    public final int height;
+    public final Hash256 blockHash;
+    public final long outputs;
+    public final int owners;
+    private final int chunkEntries;
+
+    private UTXOSnapshot(Path file, int height, Hash256 blockHash, long outputs, int owners, int chunkEntries) {
+        this.file = file;
+        this.height = height;
+        this.blockHash = blockHash;
+        this.outputs = outputs;
+        this.owners = owners;
+        this.chunkEntries = chunkEntries;
+    }
+
+    // Writing
+
+    /**
+     * Writes a snapshot of a UTXO set that reflects every block up to a height
+     * The file is written under a temporary name and moved into place, so a
+     * crash never leaves a partial snapshot behind.
+     *
+     * @param directory Directory for the snapshot (usually the block store's)
+     * @param height    Height of the last block applied to the set
+     * @param blockHash Hash of that block
+     * @param utxos     UTXO set; must not change while it is written
+     * @return Snapshot file
+     */
+    public static Path write(Path directory, int height, Hash256 blockHash, UTXOStore utxos) {
+        return write(directory, height, blockHash, utxos, DEFAULT_CHUNK_ENTRIES);
+    }
+
+    /**
+     * Writes a snapshot with a given chunk size
+     *
+     * @param directory    Directory for the snapshot
+     * @param height       Height of the last block applied to the set
+     * @param blockHash    Hash of that block
+     * @param utxos        UTXO set; must not change while it is written
+     * @param chunkEntries Entries per chunk (the unit of parallel loading)
+     * @return Snapshot file
+     */
+    public static Path write(Path directory, int height, Hash256 blockHash, UTXOStore utxos, int chunkEntries) {
+        // Number the owners first, so outputs can refer to them
+        LinkedHashMap<Address, Integer> numbers = new LinkedHashMap<Address, Integer>();
+        utxos.forEach(output -> numbers.putIfAbsent(output.recipient, numbers.size()));
+
+        Path file = directory.resolve(String.format("%s%010d%s", PREFIX, height, SUFFIX));
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(VERSION).putInt(height).putInt(chunkEntries);
+            header.put(blockHash.toBytes());
+            header.putLong(utxos.size()).putInt(numbers.size());
+            header.putInt(crc(header.array(), 0, HEADER - 4)).flip();
+
+            ChunkWriter writer = new ChunkWriter(channel, chunkEntries);
+            writer.write(header);
+            for (Address owner : numbers.keySet()) {
+                writer.add(2 + owner.getEncodedLength()).putShort((short) owner.getEncodedLength());
+                owner.writeEncoded(writer.buffer);
+            }
+            writer.finishChunk();
+
+            long[] count = new long[1];
+            utxos.forEach(output -> {
+                ByteBuffer out = writer.add(OUTPUT_ENTRY);
+                putHash(out, output.id);
+                putHash(out, output.parentTransactionId);
+                out.putFloat(output.value);
+                out.putInt(numbers.get(output.recipient));
+                count[0]++;
+            });
+            writer.finishChunk();
+            if (count[0] != utxos.size()) {
+                throw new IllegalStateException("UTXO set changed while it was written");
+            }
+
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            trailer.putInt(END_MAGIC).putInt((int) writer.crcs.getValue()).flip();
+            writer.write(trailer);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write UTXO snapshot " + file, e);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move UTXO snapshot into place: " + file, e);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes all but the newest snapshots in a directory
+     *
+     * @param directory Directory holding snapshots
+     * @param keep      Number of snapshots to keep
+     */
+    public static void prune(Path directory, int keep) {
+        List<Path> files = list(directory);
+        for (int i = keep; i < files.size(); i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to delete UTXO snapshot " + files.get(i), e);
+            }
+        }
+    }
+
+    // Reading
+
+    /**
+     * Reads and checks a snapshot's header
+     *
+     * @param file Snapshot file
+     * @return Snapshot, ready to load
+     */
+    public static UTXOSnapshot open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt(HEADER - 4) != crc(header.array(), 0, HEADER - 4)) {
+                throw new RuntimeException("Not a version " + VERSION + " UTXO snapshot: " + file);
+            }
+            int height = header.getInt();
+            int chunkEntries = header.getInt();
+            Hash256 blockHash = getHash(header);
+            long outputs = header.getLong();
+            int owners = header.getInt();
+            return new UTXOSnapshot(file, height, blockHash, outputs, owners, chunkEntries);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read UTXO snapshot " + file, e);
+        }
+    }
+
+    /**
+     * Finds the readable snapshots taken on blocks the store holds
+     * Snapshots of blocks that were since disconnected or never persisted
+     * are skipped.
+     *
+     * @param store Block store whose directory holds the snapshots
+     * @return Snapshots, newest first (empty if none matches)
+     */
+    public static List<UTXOSnapshot> find(BlockStore store) {
+        ArrayList<UTXOSnapshot> snapshots = new ArrayList<UTXOSnapshot>();
+        for (Path file : list(store.getDirectory())) {
+            try {
+                UTXOSnapshot snapshot = open(file);
+                if (store.getHeight(snapshot.blockHash) == snapshot.height) {
+                    snapshots.add(snapshot);
+                }
+            } catch (RuntimeException e) {
+                EventLog.warn("#Skipping UTXO snapshot " + file + ": " + e.getMessage());
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Loads the snapshot's outputs
+     * Chunks are read, checked and decoded in parallel on the pool; once all
+     * of them (and the trailer) are intact, each chunk is passed to the sink,
+     * again in parallel.
+     *
+     * @param pool Pool to decode on
+     * @param sink Receives the outputs chunk by chunk; called from several threads at once
+     */
+    public void load(ForkJoinPool pool, Consumer<List<TransactionOutput>> sink) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Locate every chunk by hopping over the chunk headers
+            int ownerChunks = chunkCount(owners);
+            int outputChunks = chunkCount(outputs);
+            long[] positions = new long[ownerChunks + outputChunks];
+            int[] lengths = new int[positions.length];
+            int[] crcs = new int[positions.length];
+            ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER);
+            long position = HEADER;
+            for (int c = 0; c < positions.length; c++) {
+                chunkHeader.clear();
+                readFully(channel, chunkHeader, position);
+                lengths[c] = chunkHeader.getInt(4);
+                crcs[c] = chunkHeader.getInt(8);
+                positions[c] = position + CHUNK_HEADER;
+                position = positions[c] + lengths[c];
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER);
+            readFully(channel, trailer, position);
+            CRC32 all = new CRC32();
+            for (int crc : crcs) {
+                all.update(ByteBuffer.allocate(4).putInt(crc).array());
+            }
+            if (trailer.getInt(0) != END_MAGIC || trailer.getInt(4) != (int) all.getValue()
+                    || position + TRAILER != channel.size()) {
+                throw new RuntimeException("Truncated or corrupt UTXO snapshot: " + file);
+            }
+
+            // Owners first: outputs refer to them by number
+            Address[] addresses = new Address[owners];
+            run(pool, 0, ownerChunks, c -> {
+                ByteBuffer payload = readChunk(channel, positions[c], lengths[c], crcs[c]);
+                for (int i = c * chunkEntries; payload.hasRemaining(); i++) {
+                    byte[] encoded = new byte[payload.getShort() & 0xFFFF];
+                    payload.get(encoded);
+                    addresses[i] = Address.fromEncoded(encoded);
+                }
+            });
+
+            // Preset to its final size; each task only sets its own slot
+            List<List<TransactionOutput>> chunks = new ArrayList<List<TransactionOutput>>(
+                    Collections.<List<TransactionOutput>>nCopies(outputChunks, null));
+            run(pool, 0, outputChunks, c -> {
+                ByteBuffer payload = readChunk(channel, positions[ownerChunks + c], lengths[ownerChunks + c],
+                        crcs[ownerChunks + c]);
+                TransactionOutput[] decoded = new TransactionOutput[payload.remaining() / OUTPUT_ENTRY];
+                for (int i = 0; i < decoded.length; i++) {
+                    Hash256 id = getHash(payload);
+                    Hash256 parent = getHash(payload);
+                    float value = payload.getFloat();
+                    decoded[i] = new TransactionOutput(id, addresses[payload.getInt()], value, parent);
+                }
+                chunks.set(c, Arrays.asList(decoded));
+            });
+
+            run(pool, 0, outputChunks, c -> sink.accept(chunks.get(c)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read UTXO snapshot " + file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UTXOSnapshot[height=" + height + ", outputs=" + outputs + ", owners=" + owners + ", file=" + file + "]";
+    }
+
+    private int chunkCount(long entries) {
+        return (int) Math.max(1, (entries + chunkEntries - 1) / chunkEntries);
+    }
+
+    /**
+     * Runs a task per chunk in parallel, rethrowing the first failure
+     */
+    private static void run(ForkJoinPool pool, int from, int to, ChunkTask task) {
+        pool.submit(() -> IntStream.range(from, to).parallel().forEach(c -> {
+            try {
+                task.run(c);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read UTXO snapshot chunk " + c, e);
+            }
+        })).join();
+    }
+
+    /**
+     * Reads one chunk's payload and checks its CRC (positional reads, so
+     * chunks can be read from several threads at once)
+     */
+    private ByteBuffer readChunk(FileChannel channel, long position, int length, int crc) throws IOException {
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position);
+        if (crc(payload.array(), 0, length) != crc) {
+            throw new RuntimeException("Corrupt chunk at offset " + position + " in UTXO snapshot " + file);
+        }
+        payload.flip();
+        return payload;
+    }
+
+    /**
+     * Lists the snapshots in a directory, newest first
+     */
+    private static List<Path> list(Path directory) {
+        ArrayList<Path> files = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list UTXO snapshots in " + directory, e);
+        }
+        Collections.sort(files, Collections.reverseOrder()); // Zero-padded heights sort by name
+        return files;
+    }
+
+    private static void putHash(ByteBuffer out, Hash256 hash) {
+        for (int i = 0; i < 4; i++) {
+            out.putLong(hash.word(i));
+        }
+    }
+
+    private static Hash256 getHash(ByteBuffer in) {
+        return Hash256.fromWords(in.getLong(), in.getLong(), in.getLong(), in.getLong());
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Work on one chunk
+     */
+    private interface ChunkTask {
+        void run(int chunk) throws IOException;
+    }
+
+    /**
+     * Streams entries into chunks: a chunk is written out (with its header
+     * and CRC) as soon as it holds chunkEntries entries
+     */
+    private static class ChunkWriter {
+        final FileChannel channel;
+        final int chunkEntries;
+        final CRC32 crcs = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int entries;
+
+        ChunkWriter(FileChannel channel, int chunkEntries) {
+            this.channel = channel;
+            this.chunkEntries = chunkEntries;
+            buffer.position(CHUNK_HEADER);
+        }
+
+        /**
+         * Makes room for one entry, starting a new chunk when the current one is full
+         *
+         * @return Buffer to put the entry into
+         */
+        ByteBuffer add(int size) {
+            if (entries == chunkEntries) {
+                finishChunk();
+            }
+            if (buffer.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+                buffer.flip();
+                grown.put(buffer);
+                buffer = grown;
+            }
+            entries++;
+            return buffer;
+        }
+
+        /**
+         * Writes the current chunk, even if empty (every section has at least one)
+         */
+        void finishChunk() {
+            int length = buffer.position() - CHUNK_HEADER;
+            int crc = crc(buffer.array(), CHUNK_HEADER, length);
+            buffer.putInt(0, entries).putInt(4, length).putInt(8, crc).flip();
+            crcs.update(ByteBuffer.allocate(4).putInt(crc).array());
+            try {
+                writeFully(channel, buffer);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write UTXO snapshot chunk", e);
+            }
+            buffer.clear();
+            buffer.position(CHUNK_HEADER);
+            entries = 0;
+        }
+
+        void write(ByteBuffer bytes) throws IOException {
+            writeFully(channel, bytes);
+        }
+    }
+}
\ No newline at end of file
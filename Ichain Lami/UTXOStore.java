@@ -0,0 +1,69 @@
+import java.util.function.Consumer;
+
+/**
+ * Storage engine for the set of unspent transaction outputs
+ * Implemented by an on-heap map and by an off-heap / memory-mapped table,
+ * so transaction processing, chain validation and wallets can run on either.
+ */
+public interface UTXOStore {
+
+    /**
+     * Looks up an unspent output
+     * 
+     * @param id Output id
+     * @return Output, or null if it is not in the set
+     */
+    TransactionOutput get(Hash256 id);
+
+    /**
+     * Adds (or replaces) an unspent output
+     * 
+     * @param output Output to store under its id
+     */
+    void put(TransactionOutput output);
+
+    /**
+     * Removes a spent output
+     * 
+     * @param id Output id
+     * @return Removed output, or null if it was not in the set
+     */
+    TransactionOutput remove(Hash256 id);
+
+    /**
+     * @param id Output id
+     * @return true if the output is unspent
+     */
+    boolean contains(Hash256 id);
+
+    /**
+     * @return Number of unspent outputs
+     */
+    int size();
+
+    /**
+     * @return Approximate memory (or file space) held by the set, in bytes
+     */
+    long getByteSize();
+
+    /**
+     * Calls an action for every unspent output, e.g. to write a snapshot
+     * The set must not change during the walk.
+     *
+     * @param action Called once per output, in no particular order
+     */
+    void forEach(Consumer<TransactionOutput> action);
+
+    /**
+     * Removes every output
+     */
+    void clear();
+
+    /**
+     * Creates a new, empty store using the same engine
+     * Used for scratch sets such as chain validation's temporary UTXOs
+     * 
+     * @return Empty store
+     */
+    UTXOStore createEmpty();
+}
\ No newline at end of file
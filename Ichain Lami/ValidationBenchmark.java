@@ -0,0 +1,64 @@
+import java.security.Security;
+
+/**
+ * Measures ChainValidator throughput against the number of validation threads
+ */
+public class ValidationBenchmark {
+
+    /**
+     * Builds a synthetic chain and validates it with 1, 2, 4, ... threads
+     * Usage: ValidationBenchmark [blocks] [transactionsPerBlock] [maxThreads]
+     */
+    public static void main(String[] args) {
+        Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
+        int blocks = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+        int perBlock = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int maxThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        ChainState chain = buildChain(blocks, perBlock, 8);
+        int transactions = (blocks - 1) * perBlock;
+        System.out.println("Chain: " + blocks + " blocks, " + transactions + " transactions, "
+                + Runtime.getRuntime().availableProcessors() + " cores available");
+
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ChainValidator validator = new ChainValidator(threads);
+            // Warm up once, then take the best of three runs
+            validator.validate(chain.getBlocks(), chain.getGenesisTransaction(), chain.getDifficulty(),
+                    chain.getUTXOs().createEmpty());
+            long best = Long.MAX_VALUE;
+            for (int run = 0; run < 3; run++) {
+                long start = System.nanoTime();
+                boolean valid = validator.validate(chain.getBlocks(), chain.getGenesisTransaction(),
+                        chain.getDifficulty(), chain.getUTXOs().createEmpty());
+                best = Math.min(best, System.nanoTime() - start);
+                if (!valid) {
+                    throw new IllegalStateException("Synthetic chain failed validation");
+                }
+            }
+            validator.shutdown();
+
+            double perSecond = transactions * 1_000_000_000.0 / best;
+            if (threads == 1) {
+                baseline = perSecond;
+            }
+            System.out.printf("threads=%d  %.1f ms  %.0f tx/s  speedup %.2fx%n",
+                    threads, best / 1_000_000.0, perSecond, perSecond / baseline);
+        }
+        chain.shutdown();
+    }
+
+    /**
+     * Creates a synthetic chain at difficulty 1
+     * Wallet 0 receives the genesis funds and pays the other wallets round-robin.
+     *
+     * @param blocks   Total number of blocks including genesis
+     * @param perBlock Transactions per non-genesis block
+     * @param wallets  Number of wallets
+     * @return New chain
+     */
+    static ChainState buildChain(int blocks, int perBlock, int wallets) {
+        return ChainHarness.buildChain(ChainHarness.newChain(), blocks, perBlock, new Wallet(),
+                ChainHarness.wallets(wallets - 1));
+    }
+}
\ No newline at end of file
@@ -1,8 +1,7 @@
 import java.security.*;
-import java.security.spec.ECGenParameterSpec;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Represents a user's wallet in the blockchain system.
@@ -12,10 +11,11 @@ public class Wallet {
 
     // Cryptographic keys for the wallet
     public PrivateKey privateKey; // Used to sign transactions
-    public PublicKey publicKey; // Used as wallet address
+    public PublicKey publicKey; // Used to verify this wallet's signatures
+    public Address address; // Wallet address (interned, with cached key encoding)
 
-    // Tracks all unspent transaction outputs owned by this wallet
-    public HashMap<String, TransactionOutput> UTXOs = new HashMap<String, TransactionOutput>();
+    // How sendFunds picks the outputs it spends
+    public CoinSelector.Strategy coinSelection = CoinSelector.Strategy.AUTO;
 
     /**
      * Constructor - automatically generates key pair when wallet is created
@@ -24,96 +24,96 @@ public class Wallet {
         generateKeyPair();
     }
 
+    /**
+     * Constructor - uses an existing key pair
+     *
+     * @param keyPair ECDSA prime192v1 key pair
+     */
+    public Wallet(KeyPair keyPair) {
+        setKeyPair(keyPair);
+    }
+
     /**
      * Generates ECDSA key pair using Bouncy Castle provider
-     * Uses prime192v1 elliptic curve for signatures
+     * Uses prime192v1 elliptic curve for signatures, with the calling
+     * thread's reused generator (see WalletFactory)
      */
     public void generateKeyPair() {
-        try {
-            // Initialize key generator with ECDSA algorithm
-            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("ECDSA", "BC");
-            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
-
-            // Use prime192v1 elliptic curve parameters
-            ECGenParameterSpec ecSpec = new ECGenParameterSpec("prime192v1");
-
-            // Generate the key pair
-            keyGen.initialize(ecSpec, random);
-            KeyPair keyPair = keyGen.generateKeyPair();
-
-            // Store the generated keys
-            privateKey = keyPair.getPrivate();
-            publicKey = keyPair.getPublic();
+        setKeyPair(WalletFactory.generateKeyPair());
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to generate wallet key pair", e);
-        }
+    /**
+     * Stores a key pair and derives the wallet address
+     */
+    private void setKeyPair(KeyPair keyPair) {
+        privateKey = keyPair.getPrivate();
+        publicKey = keyPair.getPublic();
+        address = Address.of(publicKey);
     }
 
     /**
-     * Calculates and returns the wallet's total balance
-     * Updates the wallet's UTXO list from the global UTXO pool
+     * Returns the wallet's total balance
+     * Read from the owner index, so it costs O(1) and never blocks
      * 
+     * @param chain Chain holding the wallet's outputs
      * @return Total balance of unspent outputs owned by this wallet
      */
-    public float getBalance() {
-        float total = 0;
-
-        // Check all UTXOs in the blockchain
-        for (Map.Entry<String, TransactionOutput> item : NoobChain.UTXOs.entrySet()) {
-            TransactionOutput UTXO = item.getValue();
+    public float getBalance(ChainState chain) {
+        return chain.getBalance(address);
+    }
 
-            // If output belongs to this wallet (coins we can spend)
-            if (UTXO.isMine(publicKey)) {
-                UTXOs.put(UTXO.id, UTXO); // Add to our local UTXO list
-                total += UTXO.value; // Add value to balance
-            }
-        }
-        return total;
+    /**
+     * Returns the unspent outputs owned by this wallet
+     * 
+     * @param chain Chain holding the wallet's outputs
+     * @return Read-only view of this wallet's UTXOs
+     */
+    public Collection<TransactionOutput> getUTXOs(ChainState chain) {
+        return chain.getOwners().getOutputs(address);
     }
 
     /**
      * Creates and sends a new transaction
      * 
-     * @param _recipient Public key of recipient
+     * @param chain      Chain whose UTXOs fund the transaction
+     * @param _recipient Address of recipient
      * @param value      Amount to send
      * @return New transaction or null if failed
      */
-    public Transaction sendFunds(PublicKey _recipient, float value) {
+    public Transaction sendFunds(ChainState chain, Address _recipient, float value) {
         // Validate transaction amount meets minimum
-        if (value < NoobChain.minimumTransaction) {
-            System.out.println("#Transaction value below minimum. Transaction Discarded.");
+        if (value < chain.getMinimumTransaction()) {
+            Metrics.rejected(Metrics.Rejection.VALUE_BELOW_MINIMUM);
+            EventLog.warn("#Transaction value below minimum. Transaction Discarded.");
             return null;
         }
 
         // Check sender has sufficient balance
-        if (getBalance() < value) {
-            System.out.println("#Not Enough funds to send transaction. Transaction Discarded.");
+        if (getBalance(chain) < value) {
+            Metrics.rejected(Metrics.Rejection.INSUFFICIENT_FUNDS);
+            EventLog.warn("#Not Enough funds to send transaction. Transaction Discarded.");
             return null;
         }
 
-        // Create list of transaction inputs
-        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>();
-        float total = 0;
+        // Pick the outputs to spend from the value-sorted index
+        List<TransactionOutput> selected = CoinSelector.select(
+                chain.getOwners().getOutputsByValue(address), value, coinSelection);
+        if (selected == null) {
+            Metrics.rejected(Metrics.Rejection.INSUFFICIENT_FUNDS);
+            EventLog.warn("#Not Enough funds to send transaction. Transaction Discarded.");
+            return null;
+        }
 
-        // Gather enough UTXOs to cover the transaction amount
-        for (Map.Entry<String, TransactionOutput> item : UTXOs.entrySet()) {
-            TransactionOutput UTXO = item.getValue();
-            total += UTXO.value;
+        // Create list of transaction inputs
+        ArrayList<TransactionInput> inputs = new ArrayList<TransactionInput>(selected.size());
+        for (TransactionOutput UTXO : selected) {
             inputs.add(new TransactionInput(UTXO.id));
-            if (total >= value)
-                break; // Stop when we have enough
         }
 
         // Create new transaction
-        Transaction newTransaction = new Transaction(publicKey, _recipient, value, inputs);
+        Transaction newTransaction = new Transaction(address, _recipient, value, inputs);
         newTransaction.generateSignature(privateKey); // Sign with private key
 
-        // Remove spent UTXOs from wallet
-        for (TransactionInput input : inputs) {
-            UTXOs.remove(input.transactionOutputId);
-        }
-
         return newTransaction;
     }
 }
\ No newline at end of file
@@ -0,0 +1,376 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECPrivateKeySpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+
+/**
+ * Creates wallets in bulk and persists them
+ * Key pairs are generated by per-thread, reused generators, so no thread
+ * pays for provider lookup and PRNG setup more than once. A fixed pool of
+ * daemon workers generates large batches in parallel and keeps a pool of
+ * ready key pairs topped up in the background, so newWallet() usually
+ * returns without generating anything.
+ *
+ * Wallets are saved to a compact keystore: [magic][version][count], then
+ * per wallet the private scalar and the compressed public point at fixed
+ * width, then a CRC32 of everything before it. Loading decodes the stored
+ * keys instead of generating new ones. The keystore is NOT encrypted; it is
+ * written owner-readable only where the file system supports it.
+ */
+public class WalletFactory implements Closeable {
+
+    // Keystore layout: magic(4) + version(1) + count(4), records, crc32(4)
+    private static final int MAGIC = 0x4e434b53; // "NCKS"
+    private static final int VERSION = 1;
+    private static final int HEADER = 9;
+
+    // Curve and record layout: private scalar(24) + compressed point(25)
+    private static final String CURVE = "prime192v1";
+    private static final ECNamedCurveParameterSpec CURVE_SPEC = ECNamedCurveTable.getParameterSpec(CURVE);
+    private static final int SCALAR_BYTES = (CURVE_SPEC.getN().bitLength() + 7) / 8;
+    private static final int POINT_BYTES = SCALAR_BYTES + 1;
+    public static final int RECORD_BYTES = SCALAR_BYTES + POINT_BYTES;
+
+    // Default number of pre-generated key pairs
+    public static final int DEFAULT_POOL_SIZE = 256;
+
+    // One generator per thread, initialized once
+    private static final ThreadLocal<Generator> generators = ThreadLocal.withInitial(Generator::new);
+
+    // Workers and ready key pairs
+    private final int threads;
+    private final ExecutorService pool;
+    private final ArrayBlockingQueue<KeyPair> ready;
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    /**
+     * Creates a factory with one worker per core and the default pool size
+     */
+    public WalletFactory() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates a factory and starts filling its pool of ready key pairs
+     *
+     * @param threads  Number of worker threads generating keys
+     * @param poolSize Number of key pairs kept ready (0 disables the pool)
+     */
+    public WalletFactory(int threads, int poolSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Wallet factory needs at least one worker thread");
+        }
+        this.threads = threads;
+        this.ready = (poolSize > 0) ? new ArrayBlockingQueue<KeyPair>(poolSize) : null;
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "keygen-" + count.getAndIncrement());
+                t.setDaemon(true); // Never keep the node alive just for key generation
+                return t;
+            }
+        });
+        refill();
+    }
+
+    // Key generation
+
+    /**
+     * Generates a key pair on the calling thread with its reused generator
+     *
+     * @return New prime192v1 key pair
+     */
+    public static KeyPair generateKeyPair() {
+        return generators.get().unseeded.generateKeyPair();
+    }
+
+    /**
+     * Generates the key pair determined by a seed (for reproducible tests)
+     *
+     * @param seed Seed for a SHA1PRNG
+     * @return prime192v1 key pair, the same for the same seed
+     */
+    public static KeyPair generateKeyPair(long seed) {
+        return generators.get().seeded(seed);
+    }
+
+    /**
+     * Returns a wallet, from the pool of ready key pairs if one is available
+     *
+     * @return New wallet
+     */
+    public Wallet newWallet() {
+        KeyPair keyPair = (ready != null) ? ready.poll() : null;
+        if (ready != null && ready.size() < ready.remainingCapacity()) {
+            refill(); // Below half full
+        }
+        return new Wallet((keyPair != null) ? keyPair : generateKeyPair());
+    }
+
+    /**
+     * Creates wallets in bulk: drains the ready pool, then generates the rest
+     * in parallel on the workers
+     *
+     * @param count Number of wallets
+     * @return New wallets
+     */
+    public List<Wallet> newWallets(int count) {
+        ArrayList<KeyPair> keyPairs = new ArrayList<KeyPair>(count);
+        if (ready != null) {
+            ready.drainTo(keyPairs, count);
+        }
+        int pooled = keyPairs.size();
+        keyPairs.addAll(generate(count - pooled, i -> generateKeyPair()));
+        refill();
+        return toWallets(keyPairs);
+    }
+
+    /**
+     * Creates the wallets determined by a list of seeds, in parallel
+     * Wallet i is the one generateKeyPair(seeds[i]) describes.
+     *
+     * @param seeds One seed per wallet
+     * @return New wallets in seed order
+     */
+    public List<Wallet> newWallets(long[] seeds) {
+        return toWallets(generate(seeds.length, i -> generateKeyPair(seeds[i])));
+    }
+
+    /**
+     * @return Number of key pairs ready to hand out
+     */
+    public int getReadyCount() {
+        return (ready == null) ? 0 : ready.size();
+    }
+
+    /**
+     * Generates key pairs on the workers, each taking an equal share of the indices
+     */
+    private List<KeyPair> generate(int count, IntFunction<KeyPair> generator) {
+        if (count <= 0) {
+            return new ArrayList<KeyPair>();
+        }
+        KeyPair[] keyPairs = new KeyPair[count];
+        int chunk = (count + threads - 1) / threads;
+        ArrayList<Future<?>> parts = new ArrayList<Future<?>>(threads);
+        for (int from = 0; from < count; from += chunk) {
+            final int start = from;
+            final int end = Math.min(count, from + chunk);
+            parts.add(pool.submit(() -> {
+                for (int i = start; i < end; i++) {
+                    keyPairs[i] = generator.apply(i);
+                }
+            }));
+        }
+        try {
+            for (Future<?> part : parts) {
+                part.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while generating key pairs", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to generate key pairs", e.getCause());
+        }
+        return Arrays.asList(keyPairs);
+    }
+
+    /**
+     * Tops up the ready pool in the background (at most one refill at a time)
+     */
+    private void refill() {
+        if (ready == null || ready.remainingCapacity() == 0 || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        int missing = ready.remainingCapacity();
+        AtomicInteger remaining = new AtomicInteger(threads);
+        for (int w = 0; w < threads; w++) {
+            final int share = missing / threads + ((w < missing % threads) ? 1 : 0);
+            pool.execute(() -> {
+                try {
+                    int generated = 0;
+                    while (generated < share && ready.offer(generateKeyPair())) {
+                        generated++;
+                    }
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        refilling.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private static List<Wallet> toWallets(List<KeyPair> keyPairs) {
+        ArrayList<Wallet> wallets = new ArrayList<Wallet>(keyPairs.size());
+        for (KeyPair keyPair : keyPairs) {
+            wallets.add(new Wallet(keyPair));
+        }
+        return wallets;
+    }
+
+    /**
+     * Stops the workers; key pairs still in the pool are discarded
+     */
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    // Keystore
+
+    /**
+     * Writes wallets to a keystore file, replacing it atomically
+     *
+     * @param file    Keystore file
+     * @param wallets Wallets to store (keys must come from the BC provider)
+     */
+    public static void save(Path file, List<Wallet> wallets) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + wallets.size() * RECORD_BYTES + 4);
+        buffer.putInt(MAGIC).put((byte) VERSION).putInt(wallets.size());
+        for (Wallet wallet : wallets) {
+            putFixed(buffer, ((ECPrivateKey) wallet.privateKey).getD().toByteArray(), SCALAR_BYTES);
+            buffer.put(((ECPublicKey) wallet.publicKey).getQ().getEncoded(true));
+        }
+        buffer.putInt(crc(buffer.array(), buffer.position()));
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.write(temp, buffer.array());
+            try {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system; keep the default permissions
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write keystore " + file, e);
+        }
+    }
+
+    /**
+     * Reads the wallets stored in a keystore file
+     * Records are decoded in parallel; the file's checksum is verified first.
+     *
+     * @param file Keystore file
+     * @return Stored wallets in the order they were saved
+     */
+    public static List<Wallet> load(Path file) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read keystore " + file, e);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER + 4 || buffer.getInt() != MAGIC) {
+            throw new RuntimeException("Not a keystore: " + file);
+        }
+        int version = buffer.get();
+        if (version != VERSION) {
+            throw new RuntimeException("Unsupported keystore version " + version + ": " + file);
+        }
+        int count = buffer.getInt();
+        if (count < 0 || bytes.length != HEADER + (long) count * RECORD_BYTES + 4
+                || buffer.getInt(bytes.length - 4) != crc(bytes, bytes.length - 4)) {
+            throw new RuntimeException("Keystore is truncated or corrupt: " + file);
+        }
+
+        KeyPair[] keyPairs = new KeyPair[count];
+        IntStream.range(0, count).parallel().forEach(i -> {
+            int offset = HEADER + i * RECORD_BYTES;
+            keyPairs[i] = decode(Arrays.copyOfRange(bytes, offset, offset + SCALAR_BYTES),
+                    Arrays.copyOfRange(bytes, offset + SCALAR_BYTES, offset + RECORD_BYTES));
+        });
+        return toWallets(Arrays.asList(keyPairs));
+    }
+
+    private static KeyPair decode(byte[] scalar, byte[] point) {
+        try {
+            KeyFactory keyFactory = generators.get().keyFactory;
+            return new KeyPair(
+                    keyFactory.generatePublic(new ECPublicKeySpec(CURVE_SPEC.getCurve().decodePoint(point), CURVE_SPEC)),
+                    keyFactory.generatePrivate(new ECPrivateKeySpec(new BigInteger(1, scalar), CURVE_SPEC)));
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to decode stored key pair", e);
+        }
+    }
+
+    /**
+     * Writes a big-endian number right-aligned in a fixed-width field
+     */
+    private static void putFixed(ByteBuffer buffer, byte[] number, int width) {
+        int skip = Math.max(0, number.length - width); // Sign byte of toByteArray()
+        for (int i = number.length - skip; i < width; i++) {
+            buffer.put((byte) 0);
+        }
+        buffer.put(number, skip, number.length - skip);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Per-thread key generators and key factory
+     */
+    private static final class Generator {
+        final KeyPairGenerator unseeded; // Self-seeded SHA1PRNG, initialized once
+        final KeyPairGenerator seeded; // Re-initialized for every seed
+        final KeyFactory keyFactory;
+
+        Generator() {
+            try {
+                unseeded = KeyPairGenerator.getInstance("ECDSA", "BC");
+                unseeded.initialize(new ECGenParameterSpec(CURVE), SecureRandom.getInstance("SHA1PRNG"));
+                seeded = KeyPairGenerator.getInstance("ECDSA", "BC");
+                keyFactory = KeyFactory.getInstance("ECDSA", "BC");
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to create key generator", e);
+            }
+        }
+
+        KeyPair seeded(long seed) {
+            try {
+                SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+                random.setSeed(seed); // Seeding before first use makes SHA1PRNG deterministic
+                seeded.initialize(new ECGenParameterSpec(CURVE), random);
+                return seeded.generateKeyPair();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to generate key pair", e);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,202 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH suite for the hot paths: hashing, ECDSA, key generation, Merkle roots,
+ * mining, balance lookups, chain validation and explorer lookups
+ * Build with "mvn package" and run "java -jar target/benchmarks.jar"; add
+ * "-rf json -rff results.json" for a machine-readable report that can be
+ * diffed between versions, or a regex such as "merkleRoot" to run a subset.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChainBenchmarks {
+
+    // Loaded once per forked JVM
+    private static final Workloads WORKLOADS = Workloads.load();
+
+    /**
+     * Holds the operation of one benchmark and releases it at the end
+     */
+    @State(Scope.Benchmark)
+    public abstract static class Fixture {
+        Workloads.Operation operation;
+
+        abstract Workloads.Operation create(Workloads workloads);
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            operation = create(WORKLOADS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            operation.close();
+        }
+    }
+
+    public static class Sha256Hex extends Fixture {
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.sha256Hex();
+        }
+    }
+
+    public static class Sha256Bytes extends Fixture {
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.sha256Bytes();
+        }
+    }
+
+    public static class EcdsaSign extends Fixture {
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.ecdsaSign();
+        }
+    }
+
+    public static class EcdsaVerify extends Fixture {
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.ecdsaVerify();
+        }
+    }
+
+    public static class KeyGeneration extends Fixture {
+        @Param({ "perKey", "threadLocal" })
+        String generator;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.keyGeneration(generator.equals("threadLocal"));
+        }
+    }
+
+    public static class MerkleRoot extends Fixture {
+        @Param({ "1", "100", "10000" })
+        int transactions;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.merkleRoot(transactions);
+        }
+    }
+
+    public static class MineBlock extends Fixture {
+        @Param({ "1", "2", "3" })
+        int difficulty;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.mineBlock(difficulty);
+        }
+    }
+
+    public static class Balance extends Fixture {
+        @Param({ "1000", "10000", "100000" })
+        int utxos;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.balance(utxos);
+        }
+    }
+
+    public static class ValidateChain extends Fixture {
+        @Param({ "1000", "10000" })
+        int blocks;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.validateChain(blocks);
+        }
+    }
+
+    public static class AuditChain extends Fixture {
+        @Param({ "1000", "10000" })
+        int blocks;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.auditChain(blocks);
+        }
+    }
+
+    public static class FindTransaction extends Fixture {
+        @Param({ "1000", "10000" })
+        int blocks;
+
+        @Param({ "scan", "index" })
+        String lookup;
+
+        Workloads.Operation create(Workloads workloads) {
+            return workloads.findTransaction(blocks, lookup.equals("index"));
+        }
+    }
+
+    // Benchmarks
+
+    @Benchmark
+    public Object sha256Hex(Sha256Hex fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object sha256Bytes(Sha256Bytes fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object ecdsaSign(EcdsaSign fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object ecdsaVerify(EcdsaVerify fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object keyGeneration(KeyGeneration fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object merkleRoot(MerkleRoot fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object mineBlock(MineBlock fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object balance(Balance fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object validateChain(ValidateChain fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object auditChain(AuditChain fixture) {
+        return fixture.operation.run();
+    }
+
+    @Benchmark
+    public Object findTransaction(FindTransaction fixture) {
+        return fixture.operation.run();
+    }
+}
@@ -0,0 +1,101 @@
+package bench;
+
+/**
+ * Operations measured by the JMH suite
+ * The chain's classes live in the default package, which a named package
+ * cannot import, and JMH refuses benchmarks in the default package. The
+ * default-package class BenchmarkWorkloads therefore builds the fixtures and
+ * hands each one out as an Operation.
+ */
+public interface Workloads {
+
+    /**
+     * One measured operation over a prepared fixture
+     */
+    interface Operation extends AutoCloseable {
+        /**
+         * @return Result of the operation, consumed so it cannot be optimized away
+         */
+        Object run();
+
+        /**
+         * Releases the fixture (e.g. shuts down its chain)
+         */
+        default void close() {
+        }
+    }
+
+    /**
+     * @return SHA-256 of a block-header-sized string, as hex text
+     */
+    Operation sha256Hex();
+
+    /**
+     * @return SHA-256 of the same input as raw bytes
+     */
+    Operation sha256Bytes();
+
+    /**
+     * @return ECDSA signature of a transaction's signed payload
+     */
+    Operation ecdsaSign();
+
+    /**
+     * @return ECDSA verification of a transaction's signature
+     */
+    Operation ecdsaVerify();
+
+    /**
+     * @param reuseGenerator true for the per-thread generator, false for one generator per key
+     * @return Wallet key pair generation
+     */
+    Operation keyGeneration(boolean reuseGenerator);
+
+    /**
+     * @param transactions Transactions in the block
+     * @return Merkle root of a block
+     */
+    Operation merkleRoot(int transactions);
+
+    /**
+     * @param difficulty Number of leading hex zeros
+     * @return Single-threaded proof-of-work on an empty block
+     */
+    Operation mineBlock(int difficulty);
+
+    /**
+     * @param utxos Unspent outputs in the chain, spread over 100 owners
+     * @return Balance of one owner
+     */
+    Operation balance(int utxos);
+
+    /**
+     * @param blocks Blocks in a synthetic chain with one payment per block
+     * @return Full validation with a fresh validator and an empty signature cache
+     */
+    Operation validateChain(int blocks);
+
+    /**
+     * @param blocks Blocks in a synthetic chain with one payment per block
+     * @return Audit of a running node whose signature cache holds every signature
+     */
+    Operation auditChain(int blocks);
+
+    /**
+     * @param blocks  Blocks in a synthetic chain with one payment per block
+     * @param indexed true to use the chain index, false to scan the blocks
+     * @return Height of the block holding a random transaction
+     */
+    Operation findTransaction(int blocks, boolean indexed);
+
+    /**
+     * @return The default-package implementation
+     */
+    static Workloads load() {
+        try {
+            return (Workloads) Class.forName("BenchmarkWorkloads").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Failed to load BenchmarkWorkloads", e);
+        }
+    }
+}